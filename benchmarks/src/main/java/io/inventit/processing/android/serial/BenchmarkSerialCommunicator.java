@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ * {@link AbstractAndroidSerialCommunicator} fed by {@link #pump()} on the
+ * benchmark thread in the same way as {@link SerialInputOutputManager} does on
+ * the I/O thread.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class BenchmarkSerialCommunicator extends AbstractAndroidSerialCommunicator {
+
+	private final UsbSerialPort port;
+
+	private final byte[] packet;
+
+	/**
+	 *
+	 * @param port
+	 * @param packetSize
+	 */
+	BenchmarkSerialCommunicator(UsbSerialPort port, int packetSize) {
+		super(null, null);
+		this.port = port;
+		this.packet = new byte[packetSize];
+	}
+
+	/**
+	 * Reads a packet from the port into the receive path.
+	 *
+	 * @return the number of bytes received
+	 */
+	int pump() {
+		try {
+			final int length = port.read(packet, 0);
+			sendBuffer(packet, 0, length);
+			return length;
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	@Override
+	protected void doStart(String portIdentifier, int baudrate, char parity,
+			int dataBits, float stopBits) {
+	}
+
+	@Override
+	protected void doStop() {
+	}
+
+	@Override
+	public void write(int what) {
+	}
+
+	@Override
+	public void write(byte[] what) {
+	}
+
+	@Override
+	public int write(ByteBuffer what) {
+		final int length = what.remaining();
+		what.position(what.limit());
+		return length;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public int pendingWriteBytes() {
+		return 0;
+	}
+
+	@Override
+	public long droppedWriteBytes() {
+		return 0;
+	}
+
+	@Override
+	public String[] list() {
+		return new String[] { "fake" };
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.hardware.usb.UsbDeviceConnection;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ * A {@link UsbSerialPort} replaying a synthetic byte stream over and over, one
+ * bulk packet per {@link #read(byte[], int)}. The written data is discarded.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class FakeUsbSerialPort implements UsbSerialPort {
+
+	private final byte[] stream;
+
+	private final int packetSize;
+
+	private int position = 0;
+
+	/**
+	 *
+	 * @param stream
+	 *            the bytes to replay, a whole number of frames
+	 * @param packetSize
+	 *            the max number of bytes returned by a read
+	 */
+	FakeUsbSerialPort(byte[] stream, int packetSize) {
+		this.stream = stream;
+		this.packetSize = packetSize;
+	}
+
+	public UsbSerialDriver getDriver() {
+		return null;
+	}
+
+	public int getPortNumber() {
+		return 0;
+	}
+
+	public String getSerial() {
+		return "fake";
+	}
+
+	public void open(UsbDeviceConnection connection) {
+	}
+
+	public void close() {
+	}
+
+	public int read(byte[] dest, int timeoutMillis) {
+		final int length = Math.min(packetSize, dest.length);
+		int copied = 0;
+		while (copied < length) {
+			final int n = Math.min(length - copied, stream.length - position);
+			System.arraycopy(stream, position, dest, copied, n);
+			copied += n;
+			position = (position + n) % stream.length;
+		}
+		return length;
+	}
+
+	public int write(byte[] src, int timeoutMillis) {
+		return src.length;
+	}
+
+	public void setParameters(int baudRate, int dataBits, int stopBits,
+			int parity) {
+	}
+
+	public boolean getCD() {
+		return false;
+	}
+
+	public boolean getCTS() {
+		return false;
+	}
+
+	public boolean getDSR() {
+		return false;
+	}
+
+	public boolean getDTR() {
+		return false;
+	}
+
+	public void setDTR(boolean value) {
+	}
+
+	public boolean getRI() {
+		return false;
+	}
+
+	public boolean getRTS() {
+		return false;
+	}
+
+	public void setRTS(boolean value) {
+	}
+
+	public boolean purgeHwBuffers(boolean flushRX, boolean flushTX) {
+		return true;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency per frame decoded by the built-in {@link FrameDecoder}s
+ * and read with {@link AbstractAndroidSerialCommunicator#readFrame(byte[])}.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+	private static final int SLIP_END = 0xc0;
+
+	@Param({ "fixedSize", "lengthPrefix", "slip" })
+	String decoder;
+
+	@Param({ "64", "512" })
+	int packetSize;
+
+	/**
+	 * The length of a frame payload
+	 */
+	@Param({ "16", "200" })
+	int payloadLength;
+
+	private BenchmarkSerialCommunicator communicator;
+
+	private byte[] frame;
+
+	@Setup
+	public void setUp() {
+		final byte[] payload = new byte[payloadLength];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) ('a' + i % 26);
+		}
+		final FrameDecoder frameDecoder;
+		final byte[] encoded;
+		if ("fixedSize".equals(decoder)) {
+			frameDecoder = new FixedSizeFrameDecoder(payloadLength);
+			encoded = payload;
+		} else if ("lengthPrefix".equals(decoder)) {
+			frameDecoder = new LengthPrefixFrameDecoder(1, payloadLength);
+			encoded = new byte[payloadLength + 1];
+			encoded[0] = (byte) payloadLength;
+			System.arraycopy(payload, 0, encoded, 1, payloadLength);
+		} else if ("slip".equals(decoder)) {
+			// no byte of the payload needs escaping
+			frameDecoder = new SlipFrameDecoder(payloadLength);
+			encoded = new byte[payloadLength + 1];
+			System.arraycopy(payload, 0, encoded, 0, payloadLength);
+			encoded[payloadLength] = (byte) SLIP_END;
+		} else {
+			throw new IllegalArgumentException("Unknown decoder: " + decoder);
+		}
+		final byte[] stream = new byte[encoded.length * 64];
+		for (int i = 0; i < stream.length; i += encoded.length) {
+			System.arraycopy(encoded, 0, stream, i, encoded.length);
+		}
+		communicator = new BenchmarkSerialCommunicator(new FakeUsbSerialPort(
+				stream, packetSize), packetSize);
+		communicator.start("fake", 115200);
+		communicator.setFrameDecoder(frameDecoder);
+		frame = new byte[payloadLength];
+	}
+
+	@Benchmark
+	public int readFrame() {
+		int length;
+		while ((length = communicator.readFrame(frame)) == 0) {
+			communicator.pump();
+		}
+		return length;
+	}
+}
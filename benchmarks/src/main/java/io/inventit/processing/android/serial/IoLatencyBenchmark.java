@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of a byte through {@link SerialInputOutputManager} on
+ * an idle fake endpoint, from the device to
+ * {@link SerialInputOutputManager.Listener#onNewData(byte[], int, int)} and
+ * from {@link SerialInputOutputManager#writeAsync(byte[])} to the driver,
+ * reading with timeout or asynchronously.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IoLatencyBenchmark {
+
+	private static final long TIMEOUT_SECONDS = 5;
+
+	/**
+	 * The bulk-in endpoint of the fake device, and the bytes written to it.
+	 */
+	static class FakeEndpoint {
+
+		final BlockingQueue<byte[]> packets = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		final BlockingQueue<byte[]> written = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		byte[] poll(long timeoutMillis) throws IOException {
+			try {
+				return packets.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * {@link AsyncReadEngine.Transport} on the fake endpoint.
+	 */
+	static class FakeTransport implements AsyncReadEngine.Transport {
+
+		final FakeEndpoint endpoint;
+
+		final LinkedList<Integer> slots = new LinkedList<Integer>();
+
+		final ByteBuffer[] buffers = new ByteBuffer[16];
+
+		FakeTransport(FakeEndpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public void queue(int slot, ByteBuffer buffer) {
+			buffers[slot] = buffer;
+			slots.add(Integer.valueOf(slot));
+		}
+
+		public int await(long timeoutMillis) throws IOException {
+			final byte[] packet = endpoint.poll(timeoutMillis);
+			if (packet == null) {
+				return -1;
+			}
+			final int slot = slots.removeFirst().intValue();
+			buffers[slot].put(packet);
+			return slot;
+		}
+
+		public void close() {
+			slots.clear();
+		}
+	}
+
+	/**
+	 * {@link FakeUsbSerialPort} reading from and writing to the fake endpoint.
+	 */
+	static class EndpointPort extends FakeUsbSerialPort {
+
+		final FakeEndpoint endpoint;
+
+		EndpointPort(FakeEndpoint endpoint) {
+			super(new byte[1], 1);
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		public int read(byte[] dest, int timeoutMillis) {
+			final byte[] packet;
+			try {
+				packet = endpoint.poll(timeoutMillis);
+			} catch (IOException e) {
+				return 0;
+			}
+			if (packet == null) {
+				return 0;
+			}
+			System.arraycopy(packet, 0, dest, 0, packet.length);
+			return packet.length;
+		}
+
+		@Override
+		public int write(byte[] src, int timeoutMillis) {
+			endpoint.written.add(src);
+			return src.length;
+		}
+	}
+
+	/**
+	 * Queues the received data.
+	 */
+	static class QueueingListener implements SerialInputOutputManager.Listener {
+
+		final BlockingQueue<byte[]> received = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		public void onNewData(byte[] data, int offset, int length) {
+			final byte[] copy = new byte[length];
+			System.arraycopy(data, offset, copy, 0, length);
+			received.add(copy);
+		}
+
+		public boolean onRunError(Exception e) {
+			return true;
+		}
+	}
+
+	@Param({ "false", "true" })
+	boolean async;
+
+	private final byte[] data = new byte[] { 1 };
+
+	private FakeEndpoint endpoint;
+
+	private QueueingListener listener;
+
+	private SerialInputOutputManager manager;
+
+	private Thread reader;
+
+	private Thread writer;
+
+	@Setup
+	public void setUp() {
+		endpoint = new FakeEndpoint();
+		listener = new QueueingListener();
+		manager = new SerialInputOutputManager(new EndpointPort(endpoint),
+				async ? new FakeTransport(endpoint) : null, listener);
+		reader = new Thread(manager);
+		reader.start();
+		writer = new Thread(manager.getWriter());
+		writer.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		manager.stop();
+		reader.join();
+		writer.join();
+	}
+
+	@Benchmark
+	public byte[] read() throws InterruptedException {
+		endpoint.packets.add(data);
+		return listener.received.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	public byte[] write() throws InterruptedException {
+		manager.writeAsync(data);
+		return endpoint.written.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the receive path from {@link AbstractAndroidSerialCommunicator#sendBuffer(byte[], int, int)}
+ * to the read methods of the sketch. Each invocation reads a frame, pumping
+ * as many packets as needed, so the average time is the latency per frame,
+ * except for the unbuffered ones reading a packet.
+ * Run with <code>-prof gc</code> for the allocation rate.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivePathBenchmark {
+
+	private static final byte DELIMITER = '\n';
+
+	/**
+	 * A communicator fed with the lines of {@link #frameLength} bytes
+	 */
+	@State(Scope.Thread)
+	public abstract static class Receiver {
+
+		/**
+		 * The bytes returned by a read of the port
+		 */
+		@Param({ "64", "512" })
+		int packetSize;
+
+		/**
+		 * The length of a frame including the delimiter
+		 */
+		@Param({ "16", "256" })
+		int frameLength;
+
+		BenchmarkSerialCommunicator communicator;
+
+		byte[] frame;
+
+		byte[] packet;
+
+		ByteBuffer directPacket;
+
+		@Setup
+		public void setUp() {
+			final byte[] stream = new byte[frameLength * 64];
+			for (int i = 0; i < stream.length; i++) {
+				stream[i] = (i + 1) % frameLength == 0 ? DELIMITER
+						: (byte) ('a' + i % 26);
+			}
+			communicator = new BenchmarkSerialCommunicator(
+					new FakeUsbSerialPort(stream, packetSize), packetSize);
+			communicator.start("fake", 115200);
+			frame = new byte[frameLength];
+			packet = new byte[packetSize];
+			directPacket = ByteBuffer.allocateDirect(packetSize);
+			configure(communicator);
+		}
+
+		abstract void configure(BenchmarkSerialCommunicator communicator);
+	}
+
+	public static class Unbuffered extends Receiver {
+		@Override
+		void configure(BenchmarkSerialCommunicator communicator) {
+		}
+	}
+
+	public static class Buffered extends Receiver {
+		@Override
+		void configure(BenchmarkSerialCommunicator communicator) {
+			communicator.buffer(frameLength);
+		}
+	}
+
+	public static class Delimited extends Receiver {
+		@Override
+		void configure(BenchmarkSerialCommunicator communicator) {
+			communicator.bufferUntil(DELIMITER);
+		}
+	}
+
+	@Benchmark
+	public int sendBuffer(Unbuffered receiver) {
+		receiver.communicator.pump();
+		return receiver.communicator.readBytes(receiver.packet);
+	}
+
+	@Benchmark
+	public int read_directByteBuffer(Unbuffered receiver) {
+		receiver.communicator.pump();
+		receiver.directPacket.clear();
+		return receiver.communicator.read(receiver.directPacket);
+	}
+
+	@Benchmark
+	public byte[] readBytes(Unbuffered receiver) {
+		receiver.communicator.pump();
+		return receiver.communicator.readBytes();
+	}
+
+	@Benchmark
+	public int buffer(Buffered receiver) {
+		final BenchmarkSerialCommunicator communicator = receiver.communicator;
+		while (communicator.available() < receiver.frameLength) {
+			communicator.pump();
+		}
+		return communicator.readBytes(receiver.frame);
+	}
+
+	@Benchmark
+	public int readBytesUntil(Delimited receiver) {
+		final BenchmarkSerialCommunicator communicator = receiver.communicator;
+		int length;
+		while ((length = communicator.readBytesUntil(DELIMITER, receiver.frame)) == 0) {
+			communicator.pump();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public byte[] readBytesUntil_allocating(Delimited receiver) {
+		final BenchmarkSerialCommunicator communicator = receiver.communicator;
+		byte[] bytes;
+		while ((bytes = communicator.readBytesUntil(DELIMITER)) == null) {
+			communicator.pump();
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public String readStringUntil(Delimited receiver) {
+		final BenchmarkSerialCommunicator communicator = receiver.communicator;
+		String line;
+		while ((line = communicator.readStringUntil(DELIMITER)) == null) {
+			communicator.pump();
+		}
+		return line;
+	}
+}
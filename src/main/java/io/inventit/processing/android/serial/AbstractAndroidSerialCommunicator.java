@@ -9,9 +9,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import processing.core.PApplet;
 
-import java.io.*;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * 
@@ -27,6 +29,11 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	private static final Logger LOGGER = LoggerFactory
 			.getLogger(AbstractAndroidSerialCommunicator.class);
 
+	/**
+	 * The max number of unread frames indexed by bufferUntil()
+	 */
+	private static final int FRAME_INDEX_CAPACITY = 1024;
+
 	/**
 	 * {@link PApplet}
 	 */
@@ -38,19 +45,30 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	private final Context applicatoinContext;
 
 	/**
-	 * "serialEvent(Serial)" method in the parent.
+	 * Receives serialEvent, resolved once from the parent unless set
+	 */
+	private volatile SerialEventListener serialEventListener;
+
+	/**
+	 * Receives frameEvent, resolved once from the parent
 	 */
-	private final Method serialEventMethod;
+	private final SerialEventListener frameEventListener;
 
 	/**
-	 * {@link InputStream}
+	 * Queues the events for the sketch thread, null to deliver them on the
+	 * I/O thread
 	 */
-	private InputStream readBufferInputStream;
+	private volatile SketchThreadEventDispatcher eventDispatcher;
 
 	/**
-	 * {@link PipedOutputStream}
+	 * The number of events merged into the event being delivered
 	 */
-	private PipedOutputStream readBufferOutputStream;
+	private int eventCount = 1;
+
+	/**
+	 * {@link RingBuffer} written by the I/O thread and read by the sketch
+	 */
+	private RingBuffer readBuffer;
 
 	/**
 	 * Buffer
@@ -67,15 +85,114 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	private int bufferDelimieter = Integer.MIN_VALUE;
 
-	private String portIdentifier;
+	/**
+	 * The boundaries of the delimited frames, created by the I/O thread
+	 */
+	private volatile FrameIndex frameIndex;
+
+	/**
+	 * {@link FrameDecoder} fed by the I/O thread, null unless set
+	 */
+	private volatile FrameDecoder frameDecoder;
+
+	/**
+	 * The frames decoded by {@link #frameDecoder}
+	 */
+	private FrameQueue frameQueue;
+
+	/**
+	 * Queues the decoded frames on the I/O thread
+	 */
+	private final FrameDecoder.Listener frameListener = new FrameDecoder.Listener() {
+		public void onFrame(byte[] frame, int offset, int length) {
+			final TransactionManager transactions = AbstractAndroidSerialCommunicator.this.transactions;
+			if (transactions != null
+					&& transactions.offer(frame, offset, length)) {
+				if (metrics != null) {
+					metrics.frameReceived();
+				}
+				return;
+			}
+			final ParsingPipeline<?> parsingPipeline = AbstractAndroidSerialCommunicator.this.parsingPipeline;
+			if (parsingPipeline != null) {
+				if (metrics != null) {
+					metrics.frameReceived();
+				}
+				parsingPipeline.offer(frame, offset, length);
+				return;
+			}
+			final FrameQueue frameQueue = AbstractAndroidSerialCommunicator.this.frameQueue;
+			if (frameQueue.offer(frame, offset, length)) {
+				if (metrics != null) {
+					metrics.frameReceived();
+				}
+				frameEvent();
+			} else {
+				LOGGER.warn("[onFrame] Frame queue full, dropped {} bytes.",
+						length);
+			}
+		}
+	};
 
-	private int baudrate;
+	/**
+	 * {@link SerialMetrics}, null while disabled
+	 */
+	private final SerialMetrics metrics;
+
+	/**
+	 * Logs the metrics periodically, synchronized by 'this'
+	 */
+	private ScheduledFuture<?> metricsDump;
 
-	private char parity;
+	private final Runnable metricsDumpStep = new Runnable() {
+		public void run() {
+			dumpMetrics();
+		}
+	};
 
-	private int dataBits;
+	/**
+	 * {@link SerialEventBatcher} while batching and started
+	 */
+	private volatile SerialEventBatcher eventBatcher;
 
-	private float stopBits;
+	// Synchronized by 'this'
+	private int eventBatchMillis = Config.getEventBatchMillis();
+
+	// Synchronized by 'this'
+	private int eventBatchBytes = Config.getEventBatchBytes();
+
+	/**
+	 * {@link TransactionManager}, created by the first request
+	 */
+	private volatile TransactionManager transactions;
+
+	/**
+	 * {@link ParsingPipeline} taking the frames while set
+	 */
+	private volatile ParsingPipeline<?> parsingPipeline;
+
+	/**
+	 * The incomplete frame held by bufferUntil() while making requests or
+	 * parsing, accessed by the I/O thread only
+	 */
+	private byte[] partialFrame = new byte[64];
+
+	private int partialFrameLength = 0;
+
+	/**
+	 * {@link CaptureWriter} while capturing
+	 */
+	private volatile CaptureWriter captureWriter;
+
+	private String portIdentifier;
+
+	private volatile LineConfig lineConfig = LineConfig.DEFAULT;
+
+	/**
+	 * {@link StringCodec} of the Strings read and written
+	 */
+	private volatile StringCodec stringCodec = StringCodec.forName(Config
+			.getCharset());
 
 	private int last;
 
@@ -84,54 +201,266 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 * @param parent
 	 */
 	public AbstractAndroidSerialCommunicator(PApplet parent) {
+		this(parent, parent.getActivity().getApplicationContext());
+	}
+
+	/**
+	 * For the transports without an activity, e.g. off the device.
+	 * 
+	 * @param parent
+	 *            null if no serialEvent() is delivered
+	 * @param applicatoinContext
+	 */
+	AbstractAndroidSerialCommunicator(PApplet parent, Context applicatoinContext) {
 		this.parent = parent;
-		this.applicatoinContext = parent.getActivity().getApplicationContext();
-		this.serialEventMethod = resolveSerialEventMethod(parent);
+		this.applicatoinContext = applicatoinContext;
+		this.serialEventListener = parent == null ? null
+				: resolveSerialEventListener(parent);
+		this.frameEventListener = parent == null ? null
+				: ReflectiveEventListener.create(parent, "frameEvent");
+		this.metrics = Config.isMetricsEnabled() ? new SerialMetrics() : null;
+		if (parent != null) {
+			setEventDispatchMode(Config.getEventDispatchMode());
+		}
 	}
 
 	/**
-	 * Finds "serialEvent(Serial)" method from the parent.
+	 * Resolves the receiver of serialEvent from the parent, which is the
+	 * parent itself when it implements {@link SerialEventListener}.
 	 * 
 	 * @param parent
-	 * @return
-	 */
-	static Method resolveSerialEventMethod(PApplet parent) {
-		for (Method method : parent.getClass().getMethods()) {
-			if ("serialEvent".equals(method.getName())) {
-				final Class<?>[] paramTypes = method.getParameterTypes();
-				if (paramTypes != null
-						&& paramTypes.length == 1
-						&& (SerialCommunicator.class
-								.isAssignableFrom(paramTypes[0]) || Serial.class
-								.isAssignableFrom(paramTypes[0]))) {
-					return method;
-				}
+	 * @return null if missing
+	 */
+	static SerialEventListener resolveSerialEventListener(PApplet parent) {
+		if (parent instanceof SerialEventListener) {
+			return (SerialEventListener) parent;
+		}
+		final SerialEventListener listener = ReflectiveEventListener.create(
+				parent, "serialEvent");
+		if (listener == null) {
+			LOGGER.info("serialEvent(Serial) is missing in the parent.");
+		}
+		return listener;
+	}
+
+	/**
+	 * Does nothing as the port is never reconnected unless overridden.
+	 * 
+	 * @see SerialCommunicator#addReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void addReconnectListener(ReconnectListener listener) {
+	}
+
+	/**
+	 * Does nothing as the port is never reconnected unless overridden.
+	 * 
+	 * @see SerialCommunicator#removeReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void removeReconnectListener(ReconnectListener listener) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setSerialEventListener(SerialEventListener)
+	 */
+	@Override
+	public void setSerialEventListener(SerialEventListener listener) {
+		this.serialEventListener = listener;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setEventDispatchMode(EventDispatchMode)
+	 */
+	@Override
+	public synchronized void setEventDispatchMode(EventDispatchMode mode) {
+		final SketchThreadEventDispatcher current = this.eventDispatcher;
+		if (mode == EventDispatchMode.SKETCH_THREAD) {
+			if (current != null) {
+				return;
+			}
+			final SketchThreadEventDispatcher dispatcher = new SketchThreadEventDispatcher(
+					this);
+			if (parent != null) {
+				parent.registerMethod("pre", dispatcher);
 			}
+			this.eventDispatcher = dispatcher;
+
+		} else if (current != null) {
+			this.eventDispatcher = null;
+			if (parent != null) {
+				parent.unregisterMethod("pre", current);
+			}
+			// delivers what is left
+			current.pre();
 		}
-		LOGGER.info("serialEvent(Serial) is missing in the parent.");
-		return null;
 	}
 
 	/**
-	 * @return the serialEventMethod
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#getEventDispatchMode()
 	 */
-	private Method getSerialEventMethod() {
-		return serialEventMethod;
+	@Override
+	public EventDispatchMode getEventDispatchMode() {
+		return this.eventDispatcher == null ? EventDispatchMode.IO_THREAD
+				: EventDispatchMode.SKETCH_THREAD;
+	}
+
+	/**
+	 * @return the eventDispatcher, null unless
+	 *         {@link EventDispatchMode#SKETCH_THREAD}
+	 */
+	SketchThreadEventDispatcher getEventDispatcher() {
+		return eventDispatcher;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#eventCount()
+	 */
+	@Override
+	public int eventCount() {
+		return this.eventCount;
 	}
 
 	/**
 	 * Invoked when a serial event occurs from the subclass.
 	 */
 	protected void serialEvent() {
-		if (getSerialEventMethod() == null) {
-			return;
+		final SketchThreadEventDispatcher dispatcher = this.eventDispatcher;
+		if (dispatcher != null) {
+			dispatcher.postSerialEvent();
+		} else {
+			deliverSerialEvent(1);
 		}
-		try {
-			getSerialEventMethod().invoke(parent, this);
-		} catch (IllegalAccessException unexpected) {
-			throw new IllegalStateException(unexpected);
-		} catch (InvocationTargetException unexpected) {
-			throw new IllegalStateException(unexpected);
+	}
+
+	/**
+	 * Invoked by {@link SerialEventBatcher} with the chunks merged.
+	 * 
+	 * @param chunks
+	 * @param bytes
+	 */
+	void batchedSerialEvent(int chunks, int bytes) {
+		if (metrics != null) {
+			metrics.eventBatched(bytes);
+		}
+		final SketchThreadEventDispatcher dispatcher = this.eventDispatcher;
+		if (dispatcher != null) {
+			dispatcher.postSerialEvents(chunks);
+		} else {
+			deliverSerialEvent(chunks);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setEventBatching(int, int)
+	 */
+	@Override
+	public void setEventBatching(int maxDelayMillis, int maxBytes) {
+		// validated before stored, as the batcher is created on every start
+		if (maxDelayMillis < 0) {
+			throw new IllegalArgumentException("Invalid maxDelayMillis: "
+					+ maxDelayMillis);
+		}
+		if (maxDelayMillis > 0 && maxBytes < 1) {
+			throw new IllegalArgumentException("Invalid maxBytes: " + maxBytes);
+		}
+		final SerialEventBatcher previous;
+		synchronized (this) {
+			this.eventBatchMillis = maxDelayMillis;
+			this.eventBatchBytes = maxBytes;
+			if (this.readBuffer == null || this.readBuffer.isClosed()) {
+				return;
+			}
+			previous = startEventBatching();
+		}
+		closeEventBatcher(previous);
+	}
+
+	/**
+	 * Replaces the batcher with the current settings. Invoked while holding
+	 * 'this'.
+	 * 
+	 * @return the previous batcher to close
+	 */
+	private SerialEventBatcher startEventBatching() {
+		final SerialEventBatcher previous = this.eventBatcher;
+		this.eventBatcher = this.eventBatchMillis > 0 ? new SerialEventBatcher(
+				this, SerialCommunicatorFacory.getInstance().getIoScheduler(),
+				this.eventBatchMillis, this.eventBatchBytes) : null;
+		return previous;
+	}
+
+	/**
+	 * Fires the pending event of the batcher. Invoked without holding 'this',
+	 * as the handler may read from the port.
+	 * 
+	 * @param eventBatcher
+	 *            null if none
+	 */
+	private static void closeEventBatcher(SerialEventBatcher eventBatcher) {
+		if (eventBatcher != null) {
+			eventBatcher.close();
+		}
+	}
+
+	/**
+	 * Invoked when a frame is decoded.
+	 */
+	protected void frameEvent() {
+		final SketchThreadEventDispatcher dispatcher = this.eventDispatcher;
+		if (dispatcher != null) {
+			dispatcher.postFrameEvent();
+		} else {
+			deliverFrameEvent(1);
+		}
+	}
+
+	/**
+	 * Invokes serialEvent.
+	 * 
+	 * @param count
+	 *            the number of the events merged
+	 */
+	void deliverSerialEvent(int count) {
+		final SerialEventListener listener = this.serialEventListener;
+		if (listener != null) {
+			this.eventCount = count;
+			if (metrics == null) {
+				listener.serialEvent(this);
+			} else {
+				final long start = System.nanoTime();
+				listener.serialEvent(this);
+				metrics.eventHandled(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Invokes frameEvent.
+	 * 
+	 * @param count
+	 *            the number of the events merged
+	 */
+	void deliverFrameEvent(int count) {
+		if (frameEventListener != null) {
+			this.eventCount = count;
+			if (metrics == null) {
+				frameEventListener.serialEvent(this);
+			} else {
+				final long start = System.nanoTime();
+				frameEventListener.serialEvent(this);
+				metrics.eventHandled(System.nanoTime() - start);
+			}
 		}
 	}
 
@@ -167,28 +496,75 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 * @return the baudrate
 	 */
 	protected int getBaudrate() {
-		return baudrate;
+		return lineConfig.getBaudRate();
 	}
 
 	/**
 	 * @return the parity
 	 */
 	protected char getParity() {
-		return parity;
+		return lineConfig.getParity();
 	}
 
 	/**
 	 * @return the dataBits
 	 */
 	protected int getDataBits() {
-		return dataBits;
+		return lineConfig.getDataBits();
 	}
 
 	/**
 	 * @return the stopBits
 	 */
 	protected float getStopBits() {
-		return stopBits;
+		return lineConfig.getStopBits();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#getLineConfig()
+	 */
+	@Override
+	public LineConfig getLineConfig() {
+		return lineConfig;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setLineConfig(LineConfig)
+	 */
+	@Override
+	public synchronized void setLineConfig(LineConfig lineConfig) {
+		if (lineConfig == null) {
+			throw new IllegalArgumentException("lineConfig is missing.");
+		}
+		if (lineConfig.equals(this.lineConfig)) {
+			return;
+		}
+		// kept unchanged on failure, so that the same config can be retried
+		doSetLineConfig(lineConfig);
+		this.lineConfig = lineConfig;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setBaudRate(int)
+	 */
+	@Override
+	public void setBaudRate(int baudRate) {
+		setLineConfig(getLineConfig().withBaudRate(baudRate));
+	}
+
+	/**
+	 * Applies the line configuration to the open port. Does nothing unless
+	 * overridden.
+	 * 
+	 * @param lineConfig
+	 */
+	protected void doSetLineConfig(LineConfig lineConfig) {
 	}
 
 	/**
@@ -205,6 +581,8 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 		}
 		this.currentBufferCount = 0;
 		this.bufferDelimieter = Integer.MIN_VALUE;
+		// the bytes buffered from now on are not indexed
+		this.frameIndex = null;
 	}
 
 	/**
@@ -217,6 +595,8 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 		this.bufferDelimieter = what;
 		this.buffer = null;
 		this.currentBufferCount = 0;
+		// recreated from the current position by the I/O thread
+		this.frameIndex = null;
 	}
 
 	/**
@@ -225,61 +605,191 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 * @param data
 	 */
 	protected void sendBuffer(byte[] data) {
-		if (this.buffer != null) {
-			int dataLength = data.length;
-			int offset = this.currentBufferCount;
-			while (true) {
-				final int bufferLength = this.buffer.length - offset;
-				if (dataLength < bufferLength) {
-					System.arraycopy(data, 0, this.buffer, offset, dataLength);
-					offset += dataLength;
-					break;
-
-				} else {
-					System.arraycopy(data, 0, this.buffer, offset, bufferLength);
-					doSendBuffer(this.buffer.clone());
-					offset = 0;
-					if (dataLength == bufferLength) {
-						break;
+		sendBuffer(data, 0, data.length);
+	}
+
+	/**
+	 * Sends the data into the buffer. The data is copied, so the caller can
+	 * reuse the array after returning.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	protected void sendBuffer(byte[] data, int offset, int length) {
+		if (metrics != null) {
+			metrics.received(length);
+		}
+		final CaptureWriter captureWriter = this.captureWriter;
+		if (captureWriter != null) {
+			captureWriter.append(CaptureReader.RECEIVED, data, offset, length);
+		}
+		final FrameDecoder frameDecoder = this.frameDecoder;
+		if (frameDecoder != null) {
+			frameDecoder.decode(data, offset, length, frameListener);
+
+		} else if (this.buffer != null) {
+			final byte[] buffer = this.buffer;
+			int count = this.currentBufferCount;
+			while (length > 0) {
+				final int n = Math.min(length, buffer.length - count);
+				System.arraycopy(data, offset, buffer, count, n);
+				offset += n;
+				length -= n;
+				count += n;
+				if (count == buffer.length) {
+					if (metrics != null) {
+						metrics.frameReceived();
 					}
+					doSendBuffer(buffer, 0, count);
+					count = 0;
 				}
 			}
-			this.currentBufferCount = offset;
+			this.currentBufferCount = count;
 
 		} else if (this.bufferDelimieter > 0) {
-			final int delim = this.bufferDelimieter;
-			try {
-				for (int i = 0; i < data.length; i++) {
-					this.readBufferOutputStream.write(data[i]);
-					if (data[i] == delim) {
-						serialEvent();
-					}
+			sendFrames(data, offset, length, this.bufferDelimieter);
+
+		} else {
+			this.frameIndex = null;
+			final SerialEventBatcher eventBatcher = this.eventBatcher;
+			if (eventBatcher != null && readBuffer != null
+					&& !readBuffer.isClosed()) {
+				this.readBuffer.write(data, offset, length);
+				eventBatcher.received(length);
+			} else {
+				doSendBuffer(data, offset, length);
+			}
+		}
+	}
+
+	/**
+	 * Scans the data for the delimiter, and writes each frame at once while
+	 * recording its boundary.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param delimiter
+	 */
+	private void sendFrames(byte[] data, int offset, int length, int delimiter) {
+		final RingBuffer readBuffer = this.readBuffer;
+		FrameIndex frameIndex = this.frameIndex;
+		if (frameIndex == null || frameIndex.getDelimiter() != delimiter) {
+			frameIndex = new FrameIndex(delimiter,
+					readBuffer.getWritePosition(), FRAME_INDEX_CAPACITY);
+			this.frameIndex = frameIndex;
+		}
+		final TransactionManager transactions = this.transactions;
+		final ParsingPipeline<?> parsingPipeline = this.parsingPipeline;
+		final byte delim = (byte) delimiter;
+		final int end = offset + length;
+		int start = offset;
+		for (int i = offset; i < end; i++) {
+			if (data[i] == delim) {
+				byte[] frame = data;
+				int frameOffset = start;
+				int frameLength = i + 1 - start;
+				if (partialFrameLength > 0) {
+					appendPartialFrame(data, start, frameLength);
+					frame = partialFrame;
+					frameOffset = 0;
+					frameLength = partialFrameLength;
+					partialFrameLength = 0;
+				}
+				start = i + 1;
+				if (metrics != null) {
+					metrics.frameReceived();
+				}
+				if (transactions != null
+						&& transactions.offer(frame, frameOffset, frameLength)) {
+					continue;
+				}
+				if (parsingPipeline != null) {
+					parsingPipeline.offer(frame, frameOffset, frameLength);
+					continue;
+				}
+				if (readBuffer.write(frame, frameOffset, frameLength) == frameLength) {
+					frameIndex.add(readBuffer.getWritePosition(),
+							readBuffer.getReadPosition());
+				}
+				serialEvent();
+			}
+		}
+		if (start < end) {
+			if (transactions != null || parsingPipeline != null) {
+				// may be a response, or to be parsed
+				appendPartialFrame(data, start, end - start);
+			} else {
+				if (partialFrameLength > 0) {
+					// held before the parser or the transactions are removed
+					readBuffer.write(partialFrame, 0, partialFrameLength);
+					partialFrameLength = 0;
 				}
-			} catch (IOException e) {
-				throw new IllegalStateException(e);
+				readBuffer.write(data, start, end - start);
 			}
+		}
+	}
 
-		} else {
-			doSendBuffer(data);
+	/**
+	 * Holds the bytes of an incomplete frame, which are passed to the buffer
+	 * as they are when the frame is too long.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	private void appendPartialFrame(byte[] data, int offset, int length) {
+		final int required = partialFrameLength + length;
+		if (required > readBuffer.capacity()) {
+			readBuffer.write(partialFrame, 0, partialFrameLength);
+			readBuffer.write(data, offset, length);
+			partialFrameLength = 0;
+			return;
 		}
+		if (required > partialFrame.length) {
+			final byte[] grown = new byte[Math.max(required,
+					partialFrame.length * 2)];
+			System.arraycopy(partialFrame, 0, grown, 0, partialFrameLength);
+			partialFrame = grown;
+		}
+		System.arraycopy(data, offset, partialFrame, partialFrameLength,
+				length);
+		partialFrameLength = required;
+	}
+
+	/**
+	 * Returns the length of the next frame terminated by the given byte.
+	 * 
+	 * @param interesting
+	 * @return the length including the byte, -1 if missing
+	 */
+	private int nextFrameLength(int interesting) {
+		final FrameIndex frameIndex = this.frameIndex;
+		if (frameIndex != null) {
+			final int length = frameIndex.nextFrameLength(interesting,
+					this.readBuffer.getReadPosition());
+			if (length != FrameIndex.UNKNOWN) {
+				return length;
+			}
+		}
+		return this.readBuffer.indexOf(interesting);
 	}
 
 	/**
 	 * 
 	 * @param data
+	 * @param offset
+	 * @param length
 	 */
-	protected void doSendBuffer(byte[] data) {
-		if (readBufferOutputStream == null) {
+	protected void doSendBuffer(byte[] data, int offset, int length) {
+		if (readBuffer == null || readBuffer.isClosed()) {
 			LOGGER.info("[doSendBuffer] Skipped data =>{}",
-					HexDump.dumpHexString(data));
+					HexDump.dumpHexString(data, offset, length));
 			return;
 		}
-		try {
-			this.readBufferOutputStream.write(data);
-			serialEvent();
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+		this.readBuffer.write(data, offset, length);
+		serialEvent();
 	}
 
 	/**
@@ -312,20 +822,34 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	@Override
 	public final void start(String portIdentifier, int baudrate, char parity,
 			int dataBits, float stopBits) {
-		final PipedInputStream pipedInputStream = new PipedInputStream();
-		this.readBufferInputStream = pipedInputStream;
-		try {
-			this.readBufferOutputStream = new PipedOutputStream(
-					pipedInputStream);
-		} catch (IOException exception) {
-			throw new IllegalStateException(exception);
-		}
+		final LineConfig lineConfig = new LineConfig(baudrate, parity,
+				dataBits, stopBits);
+		this.readBuffer = new RingBuffer(Config.getReceiveBufferSize(),
+				Config.getReceiveBufferOverflowPolicy());
+		this.frameQueue = new FrameQueue(Config.getFrameBufferSize(),
+				Config.getFrameBufferFrames());
+		this.partialFrameLength = 0;
 		this.portIdentifier = portIdentifier;
-		this.baudrate = baudrate;
-		this.parity = parity;
-		this.dataBits = dataBits;
-		this.stopBits = stopBits;
+		this.lineConfig = lineConfig;
+		if (Config.getCaptureDirectory() != null) {
+			try {
+				startCapture(Config.getCaptureDirectory());
+			} catch (IllegalStateException exception) {
+				LOGGER.error("Failed to start the capture: port={}",
+						portIdentifier, exception);
+			}
+		}
+		final SerialEventBatcher previousBatcher;
+		synchronized (this) {
+			previousBatcher = startEventBatching();
+		}
+		closeEventBatcher(previousBatcher);
 		doStart(portIdentifier, baudrate, parity, dataBits, stopBits);
+		if (metrics != null && Config.getMetricsDumpInterval() > 0) {
+			synchronized (this) {
+				scheduleMetricsDump();
+			}
+		}
 	}
 
 	/**
@@ -346,23 +870,59 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public final void stop() {
+		final SerialEventBatcher eventBatcher;
+		synchronized (this) {
+			if (metricsDump != null) {
+				metricsDump.cancel(false);
+				metricsDump = null;
+			}
+			eventBatcher = this.eventBatcher;
+			this.eventBatcher = null;
+		}
+		closeEventBatcher(eventBatcher);
 		try {
 			doStop();
 		} finally {
-			if (readBufferOutputStream != null) {
-				try {
-					readBufferOutputStream.close();
-				} catch (IOException ignored) {
-				}
-				readBufferOutputStream = null;
-			}
-			if (readBufferInputStream != null) {
-				try {
-					readBufferInputStream.close();
-				} catch (IOException ignored) {
-				}
-				readBufferOutputStream = null;
+			if (readBuffer != null) {
+				// the remaining bytes are still readable
+				readBuffer.close();
 			}
+			stopCapture();
+			closeTransactions();
+			closeParsingPipeline(null);
+		}
+	}
+
+	/**
+	 * Fails the requests not completed.
+	 */
+	private void closeTransactions() {
+		final TransactionManager transactions;
+		synchronized (this) {
+			transactions = this.transactions;
+			this.transactions = null;
+		}
+		if (transactions != null) {
+			// notifies the listeners without holding 'this'
+			transactions.close();
+		}
+	}
+
+	/**
+	 * Replaces the {@link ParsingPipeline}, and closes the previous one.
+	 * 
+	 * @param parsingPipeline
+	 *            null to remove
+	 */
+	private void closeParsingPipeline(ParsingPipeline<?> parsingPipeline) {
+		final ParsingPipeline<?> previous;
+		synchronized (this) {
+			previous = this.parsingPipeline;
+			this.parsingPipeline = parsingPipeline;
+		}
+		if (previous != null) {
+			// releases the I/O thread waiting for a slot
+			previous.close();
 		}
 	}
 
@@ -371,33 +931,210 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	protected abstract void doStop();
 
+	/**
+	 * @return the metrics, null while disabled
+	 */
+	protected SerialMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * @see SerialCommunicator#available()
+	 * @see SerialCommunicator#metrics()
 	 */
 	@Override
-	public int available() {
+	public SerialMetrics.Snapshot metrics() {
+		if (metrics == null) {
+			return null;
+		}
+		final RingBuffer readBuffer = this.readBuffer;
+		int pendingWriteBytes = 0;
+		long droppedWriteBytes = 0;
 		try {
-			return this.readBufferInputStream.available();
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
+			pendingWriteBytes = pendingWriteBytes();
+			droppedWriteBytes = droppedWriteBytes();
+		} catch (IllegalStateException closed) {
+			// reconnecting
 		}
+		return metrics.snapshot(readBuffer == null ? 0 : readBuffer.available(),
+				readBuffer == null ? 0 : readBuffer.capacity(),
+				readBuffer == null ? 0 : readBuffer.getDroppedBytes(),
+				pendingWriteBytes, droppedWriteBytes);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * @see SerialCommunicator#clear()
+	 * @see SerialCommunicator#request(byte[], long)
 	 */
 	@Override
-	public synchronized void clear() {
+	public Transaction request(byte[] request, long timeoutMillis) {
+		return request(request, ResponseMatchers.NEXT, timeoutMillis, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#request(byte[], ResponseMatcher, long,
+	 *      Transaction.Listener)
+	 */
+	@Override
+	public Transaction request(byte[] request, ResponseMatcher matcher,
+			long timeoutMillis, Transaction.Listener listener) {
+		return getTransactionManager().submit(
+				new Transaction(request, matcher, timeoutMillis, listener));
+	}
+
+	/**
+	 * @return the {@link TransactionManager}, created unless exists
+	 */
+	private synchronized TransactionManager getTransactionManager() {
+		if (this.frameDecoder == null && this.bufferDelimieter <= 0) {
+			throw new IllegalStateException(
+					"Set bufferUntil() or a FrameDecoder to delimit the responses.");
+		}
+		if (this.transactions == null) {
+			this.transactions = new TransactionManager(this,
+					SerialCommunicatorFacory.getInstance().getIoScheduler(),
+					Config.getMaxInFlightRequests());
+		}
+		return this.transactions;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setFrameParser(FrameParser)
+	 */
+	@Override
+	public <T> ParsingPipeline<T> setFrameParser(FrameParser<T> parser) {
+		if (parser == null) {
+			closeParsingPipeline(null);
+			return null;
+		}
+		synchronized (this) {
+			if (this.frameDecoder == null && this.bufferDelimieter <= 0) {
+				throw new IllegalStateException(
+						"Set bufferUntil() or a FrameDecoder to delimit the frames to parse.");
+			}
+		}
+		final ParsingPipeline<T> parsingPipeline = new ParsingPipeline<T>(
+				parser, SerialCommunicatorFacory.getInstance().getParserPool(),
+				Config.getParserQueueSize(),
+				Config.getParserBackpressureMillis());
+		closeParsingPipeline(parsingPipeline);
+		return parsingPipeline;
+	}
+
+	/**
+	 * Records the data written by the sketch.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	protected void recordWritten(byte[] data, int offset, int length) {
+		if (metrics != null) {
+			metrics.written(length);
+		}
+		final CaptureWriter captureWriter = this.captureWriter;
+		if (captureWriter != null) {
+			captureWriter.append(CaptureReader.WRITTEN, data, offset, length);
+		}
+	}
+
+	/**
+	 * Records the data written by the sketch.
+	 * 
+	 * @param data
+	 * @param position
+	 *            the position of the data written in the buffer
+	 * @param length
+	 */
+	protected void recordWritten(ByteBuffer data, int position, int length) {
+		if (metrics != null) {
+			metrics.written(length);
+		}
+		final CaptureWriter captureWriter = this.captureWriter;
+		if (captureWriter != null) {
+			captureWriter.append(CaptureReader.WRITTEN, data, position, length);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#startCapture(java.lang.String)
+	 */
+	@Override
+	public synchronized void startCapture(String directory) {
+		stopCapture();
 		try {
-			this.readBufferOutputStream.flush();
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
+			this.captureWriter = new CaptureWriter(new File(directory),
+					CaptureWriter.nameOf(portIdentifier),
+					Config.getCaptureSegmentSize(),
+					Config.getCaptureMaxSegments());
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
 		}
-		readBytes();
+		LOGGER.info("Capturing: port={}, directory={}", portIdentifier,
+				directory);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#stopCapture()
+	 */
+	@Override
+	public synchronized void stopCapture() {
+		final CaptureWriter captureWriter = this.captureWriter;
+		if (captureWriter != null) {
+			this.captureWriter = null;
+			captureWriter.close();
+		}
+	}
+
+	/**
+	 * Schedules the next dump of the metrics. Invoked while holding 'this'.
+	 */
+	private void scheduleMetricsDump() {
+		metricsDump = SerialCommunicatorFacory.getInstance().getIoScheduler()
+				.schedule(metricsDumpStep, Config.getMetricsDumpInterval());
+	}
+
+	/**
+	 * Logs the metrics, and schedules the next dump unless stopped.
+	 */
+	private void dumpMetrics() {
+		LOGGER.info("[metrics] port={}, {}", portIdentifier, metrics());
+		synchronized (this) {
+			if (metricsDump != null) {
+				scheduleMetricsDump();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#available()
+	 */
+	@Override
+	public int available() {
+		return this.readBuffer.available();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#clear()
+	 */
+	@Override
+	public synchronized void clear() {
+		this.readBuffer.clear();
+		this.frameQueue.clear();
 		if (this.buffer != null) {
 			this.currentBufferCount = 0;
 		}
@@ -410,13 +1147,9 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public synchronized int read() {
-		try {
-			final int b = this.readBufferInputStream.read();
-			this.last = b;
-			return b;
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+		final int b = this.readBuffer.read();
+		this.last = b;
+		return b;
 	}
 
 	public char readChar() {
@@ -438,24 +1171,19 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public synchronized byte[] readBytes() {
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		int readByte = -1;
-		final byte[] buff = new byte[1024];
-		try {
-			if (this.readBufferInputStream.available() > 0) {
-				while ((readByte = this.readBufferInputStream.read(buff)) >= 0) {
-					out.write(buff, 0, readByte);
-					if (this.readBufferInputStream.available() < 1) {
-						break;
-					}
-				}
-				return out.toByteArray();
-			} else {
-				return null;
-			}
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
+		final int length = this.readBuffer.available();
+		if (length < 1) {
+			return null;
 		}
+		final byte[] bytes = new byte[length];
+		final int readBytes = this.readBuffer.read(bytes, 0, length);
+		if (readBytes < length) {
+			// the oldest bytes were dropped while reading
+			final byte[] trimmed = new byte[readBytes];
+			System.arraycopy(bytes, 0, trimmed, 0, readBytes);
+			return trimmed;
+		}
+		return bytes;
 	}
 
 	/**
@@ -465,11 +1193,17 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public synchronized int readBytes(byte[] byteBuffer) {
-		try {
-			return this.readBufferInputStream.read(byteBuffer);
-		} catch (IOException e) {
-			throw new IllegalStateException(e);
-		}
+		return this.readBuffer.read(byteBuffer, 0, byteBuffer.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#read(java.nio.ByteBuffer)
+	 */
+	@Override
+	public synchronized int read(ByteBuffer byteBuffer) {
+		return this.readBuffer.read(byteBuffer);
 	}
 
 	/**
@@ -479,19 +1213,13 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public synchronized byte[] readBytesUntil(int interesting) {
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
-		int readByte = -1;
-		if (available() > 0) {
-			while ((readByte = read()) >= 0) {
-				out.write(readByte);
-				if (readByte == interesting) {
-					return out.toByteArray();
-				} else if (available() < 1) {
-					break;
-				}
-			}
+		final int length = nextFrameLength(interesting);
+		if (length < 0) {
+			return null;
 		}
-		return null;
+		final byte[] bytes = new byte[length];
+		this.readBuffer.read(bytes, 0, length);
+		return bytes;
 	}
 
 	/**
@@ -502,19 +1230,73 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 */
 	@Override
 	public synchronized int readBytesUntil(int interesting, byte[] byteBuffer) {
-		int readByte = -1;
-		for (int i = 0; i < byteBuffer.length; i++) {
-			readByte = read();
-			if (readByte < 0) {
-				break;
-			}
-			byteBuffer[i] = (byte) readByte;
-			if (readByte == interesting) {
-				return i + 1;
-			}
+		final int length = nextFrameLength(interesting);
+		if (length < 0) {
+			return 0;
 		}
-		LOGGER.error("Insufficient byteBuffer size ({}).", byteBuffer.length);
-		return -1;
+		if (length > byteBuffer.length) {
+			LOGGER.error("Insufficient byteBuffer size ({}).", byteBuffer.length);
+			return -1;
+		}
+		return this.readBuffer.read(byteBuffer, 0, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setFrameDecoder(FrameDecoder)
+	 */
+	@Override
+	public void setFrameDecoder(FrameDecoder decoder) {
+		if (decoder != null) {
+			decoder.reset();
+		}
+		this.frameDecoder = decoder;
+		this.frameIndex = null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#availableFrames()
+	 */
+	@Override
+	public int availableFrames() {
+		return this.frameQueue.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#readFrame()
+	 */
+	@Override
+	public synchronized byte[] readFrame() {
+		final int length = this.frameQueue.peekLength();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		this.frameQueue.poll(bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#readFrame(byte[])
+	 */
+	@Override
+	public synchronized int readFrame(byte[] byteBuffer) {
+		final int length = this.frameQueue.peekLength();
+		if (length < 0) {
+			return 0;
+		}
+		if (length > byteBuffer.length) {
+			LOGGER.error("Insufficient byteBuffer size ({}).", byteBuffer.length);
+			return -1;
+		}
+		return this.frameQueue.poll(byteBuffer, 0);
 	}
 
 	/**
@@ -523,8 +1305,11 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 * @see SerialCommunicator#readString()
 	 */
 	@Override
-	public String readString() {
-		return new String(readBytes());
+	public synchronized String readString() {
+		if (this.readBuffer.available() < 1) {
+			return null;
+		}
+		return this.stringCodec.decodeAvailable(this.readBuffer).toString();
 	}
 
 	/**
@@ -533,11 +1318,80 @@ abstract class AbstractAndroidSerialCommunicator extends Serial implements
 	 * @see SerialCommunicator#readStringUntil(int)
 	 */
 	@Override
-	public String readStringUntil(int interesting) {
-		final byte[] readBytes = readBytesUntil(interesting);
-		if (readBytes != null) {
-			return new String(readBytes);
+	public synchronized String readStringUntil(int interesting) {
+		final CharSequence chars = readCharsUntil(interesting);
+		if (chars != null) {
+			return chars.toString();
 		}
 		return null;
 	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#readCharsUntil(int)
+	 */
+	@Override
+	public synchronized CharSequence readCharsUntil(int interesting) {
+		final int length = nextFrameLength(interesting);
+		if (length < 0) {
+			return null;
+		}
+		return this.stringCodec.decode(this.readBuffer, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#readLine()
+	 */
+	@Override
+	public synchronized CharSequence readLine() {
+		final CharBuffer line = (CharBuffer) readCharsUntil('\n');
+		if (line == null) {
+			return null;
+		}
+		int end = line.limit();
+		if (end > 0 && line.get(end - 1) == '\n') {
+			end--;
+		}
+		if (end > 0 && line.get(end - 1) == '\r') {
+			end--;
+		}
+		line.limit(end);
+		return line;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#setCharset(java.lang.String)
+	 */
+	@Override
+	public synchronized void setCharset(String charsetName) {
+		this.stringCodec = StringCodec.forName(charsetName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#getCharset()
+	 */
+	@Override
+	public String getCharset() {
+		return this.stringCodec.getCharset().name();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#write(java.lang.String)
+	 */
+	@Override
+	public void write(String what) {
+		final StringCodec stringCodec = this.stringCodec;
+		synchronized (stringCodec) {
+			write(stringCodec.encode(what));
+		}
+	}
 }
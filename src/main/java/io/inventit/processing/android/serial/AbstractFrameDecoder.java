@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Base class of the built-in {@link FrameDecoder}s, accumulating a frame in a
+ * reused buffer.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public abstract class AbstractFrameDecoder implements FrameDecoder {
+
+	private final byte[] frame;
+
+	private int frameLength = 0;
+
+	private boolean overflowed = false;
+
+	private long errors = 0;
+
+	/**
+	 * 
+	 * @param maxFrameLength
+	 *            the max length of a decoded frame
+	 */
+	protected AbstractFrameDecoder(int maxFrameLength) {
+		if (maxFrameLength < 1) {
+			throw new IllegalArgumentException("Invalid maxFrameLength: "
+					+ maxFrameLength);
+		}
+		this.frame = new byte[maxFrameLength];
+	}
+
+	/**
+	 * @return the max length of a decoded frame
+	 */
+	public int getMaxFrameLength() {
+		return frame.length;
+	}
+
+	/**
+	 * @return the number of the frames discarded as malformed or too long
+	 */
+	public long getErrors() {
+		return errors;
+	}
+
+	/**
+	 * Appends a decoded byte to the current frame. The frame is discarded on
+	 * {@link #emit(FrameDecoder.Listener)} if too long.
+	 * 
+	 * @param b
+	 */
+	protected final void append(byte b) {
+		if (frameLength < frame.length) {
+			frame[frameLength++] = b;
+		} else {
+			overflowed = true;
+		}
+	}
+
+	/**
+	 * Appends decoded bytes to the current frame.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	protected final void append(byte[] data, int offset, int length) {
+		final int n = Math.min(length, frame.length - frameLength);
+		System.arraycopy(data, offset, frame, frameLength, n);
+		frameLength += n;
+		if (n < length) {
+			overflowed = true;
+		}
+	}
+
+	/**
+	 * @return the length of the current frame
+	 */
+	protected final int getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * Passes the current frame to the listener and starts the next one.
+	 * 
+	 * @param listener
+	 */
+	protected final void emit(Listener listener) {
+		if (overflowed) {
+			errors++;
+		} else {
+			listener.onFrame(frame, 0, frameLength);
+		}
+		frameLength = 0;
+		overflowed = false;
+	}
+
+	/**
+	 * Discards the current frame as malformed.
+	 */
+	protected final void discard() {
+		errors++;
+		frameLength = 0;
+		overflowed = false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see FrameDecoder#reset()
+	 */
+	public void reset() {
+		frameLength = 0;
+		overflowed = false;
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps several read requests in flight on a bulk-in endpoint and hands off
+ * their completions as they arrive, instead of polling with a read timeout.
+ *
+ * The requests complete in the order they were queued as they share the same
+ * endpoint, so the received data is delivered in order.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class AsyncReadEngine {
+
+	/**
+	 * The endpoint where the read requests are queued.
+	 */
+	interface Transport {
+
+		/**
+		 * Queues a read request filling the given buffer from its position.
+		 * The number of received bytes is reflected by the position of the
+		 * buffer on completion.
+		 *
+		 * @param slot
+		 *            identifies the request on completion
+		 * @param buffer
+		 * @throws IOException
+		 */
+		void queue(int slot, ByteBuffer buffer) throws IOException;
+
+		/**
+		 * Waits for the next completed request.
+		 *
+		 * @param timeoutMillis
+		 * @return the slot of the completed request, or -1 on timeout
+		 * @throws IOException
+		 */
+		int await(long timeoutMillis) throws IOException;
+
+		/**
+		 * Cancels the pending requests and releases the resources.
+		 */
+		void close();
+	}
+
+	/**
+	 * Receives the completed data.
+	 */
+	interface Callback {
+
+		/**
+		 * @param data
+		 *            the buffer, valid only within this method
+		 * @param length
+		 *            the number of received bytes
+		 */
+		void onCompleted(byte[] data, int length);
+	}
+
+	private final Transport transport;
+
+	private final ByteBuffer[] buffers;
+
+	private boolean started = false;
+
+	/**
+	 *
+	 * @param transport
+	 * @param requests
+	 *            the number of requests in flight
+	 * @param bufferSize
+	 *            the size of each request buffer
+	 */
+	AsyncReadEngine(Transport transport, int requests, int bufferSize) {
+		if (requests < 1) {
+			throw new IllegalArgumentException("Invalid requests: " + requests);
+		}
+		this.transport = transport;
+		this.buffers = new ByteBuffer[requests];
+		for (int i = 0; i < requests; i++) {
+			this.buffers[i] = ByteBuffer.allocate(bufferSize);
+		}
+	}
+
+	/**
+	 * Waits for a completion and passes the received data to the callback.
+	 * The first invocation queues all requests.
+	 *
+	 * @param timeoutMillis
+	 * @param callback
+	 * @return the number of received bytes, -1 on timeout
+	 * @throws IOException
+	 */
+	int step(long timeoutMillis, Callback callback) throws IOException {
+		start();
+		final int slot = transport.await(timeoutMillis);
+		if (slot < 0) {
+			return -1;
+		}
+		return complete(slot, callback);
+	}
+
+	/**
+	 * Queues all requests unless done.
+	 *
+	 * @throws IOException
+	 */
+	void start() throws IOException {
+		if (!started) {
+			for (int i = 0; i < buffers.length; i++) {
+				transport.queue(i, buffers[i]);
+			}
+			started = true;
+		}
+	}
+
+	/**
+	 * Passes the data of the completed request to the callback and queues it
+	 * again, for the completions awaited outside {@link #step(long, Callback)}
+	 * e.g. by the owner of a shared connection.
+	 *
+	 * @param slot
+	 * @param callback
+	 * @return the number of received bytes
+	 * @throws IOException
+	 */
+	int complete(int slot, Callback callback) throws IOException {
+		final ByteBuffer buffer = buffers[slot];
+		final int length = buffer.position();
+		if (length > 0) {
+			callback.onCompleted(buffer.array(), length);
+		}
+		buffer.clear();
+		transport.queue(slot, buffer);
+		return length;
+	}
+
+	/**
+	 * Cancels the requests in flight.
+	 */
+	void close() {
+		transport.close();
+		started = false;
+	}
+}
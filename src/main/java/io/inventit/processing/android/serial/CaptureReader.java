@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records captured by {@link SerialCommunicator#startCapture(String)}
+ * in order, across the segment files of the port in the directory.
+ *
+ * A segment file "&lt;port&gt;-&lt;sequence&gt;.cap" starts with the magic
+ * "SCAP", the version (int) and its start time (long), followed by the
+ * records of the timestamp (long), the length (int), the direction (byte) and
+ * the data. The timestamps are in microseconds since the epoch, and a zero
+ * direction marks the end. The index file "&lt;port&gt;-&lt;sequence&gt;.idx"
+ * has the timestamp (long) and the offset (int) of a record every 64KB of the
+ * segment, for {@link #seek(long)}. All the values are big endian.
+ *
+ * <pre>
+ * CaptureReader reader = new CaptureReader(directory, portIdentifier);
+ * reader.seek(from);
+ * while (reader.next()) {
+ * 	ByteBuffer data = reader.getData();
+ * }
+ * </pre>
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public final class CaptureReader {
+
+	/**
+	 * The direction of the data received from the device
+	 */
+	public static final int RECEIVED = 1;
+
+	/**
+	 * The direction of the data written to the device
+	 */
+	public static final int WRITTEN = 2;
+
+	private final File directory;
+
+	private final String name;
+
+	private final int[] sequences;
+
+	/**
+	 * The index of the current segment in {@link #sequences}
+	 */
+	private int current = -1;
+
+	private ByteBuffer segment;
+
+	private ByteBuffer data;
+
+	private long timestamp;
+
+	private int direction;
+
+	private boolean captureStart;
+
+	/**
+	 * true if {@link #next()} returns the current record again
+	 */
+	private boolean pending;
+
+	/**
+	 * Reads the segments existing at the moment.
+	 *
+	 * @param directory
+	 *            the directory of the capture
+	 * @param portIdentifier
+	 *            the port identifier of the capture
+	 */
+	public CaptureReader(File directory, String portIdentifier) {
+		this.directory = directory;
+		this.name = CaptureWriter.nameOf(portIdentifier);
+		this.sequences = CaptureWriter.sequences(directory, name);
+	}
+
+	/**
+	 * @return the number of the segment files
+	 */
+	public int getSegments() {
+		return sequences.length;
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return false if no more record
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public boolean next() throws IOException {
+		if (pending) {
+			pending = false;
+			return true;
+		}
+		while (true) {
+			final ByteBuffer segment = this.segment;
+			if (segment != null
+					&& segment.remaining() >= CaptureWriter.RECORD_HEADER_SIZE) {
+				final int start = segment.position();
+				final int direction = segment.get(start + 12);
+				final int length = segment.getInt(start + 8);
+				final int end = start + CaptureWriter.RECORD_HEADER_SIZE
+						+ length;
+				if (direction != 0 && length >= 0 && end <= segment.limit()) {
+					this.timestamp = segment.getLong(start);
+					this.direction = direction;
+					// a segment rotated by the writer starts after the
+					// timestamp of its first record, taken beforehand
+					this.captureStart = start == CaptureWriter.SEGMENT_HEADER_SIZE
+							&& timestamp >= segment.getLong(8);
+					this.data.clear();
+					this.data.limit(end);
+					this.data.position(end - length);
+					segment.position(end);
+					return true;
+				}
+			}
+			if (!openSegment(current + 1)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Moves to the first record at or after the given time, so that
+	 * {@link #next()} returns it.
+	 *
+	 * @param timestamp
+	 *            microseconds since the epoch
+	 * @return false if no record at or after the time
+	 * @throws IOException
+	 */
+	public boolean seek(long timestamp) throws IOException {
+		int i = sequences.length - 1;
+		while (i > 0 && startTimeOf(i) > timestamp) {
+			i--;
+		}
+		pending = false;
+		if (!openSegment(Math.max(i, 0))) {
+			return false;
+		}
+		segment.position(indexedOffset(timestamp));
+		while (next()) {
+			if (this.timestamp >= timestamp) {
+				pending = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the timestamp of the record in microseconds since the epoch
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns whether the record is the first one of a capture, after which
+	 * the time may jump from the record before, e.g. to the next day.
+	 *
+	 * @return true if the first record of a capture
+	 */
+	public boolean isCaptureStart() {
+		return captureStart;
+	}
+
+	/**
+	 * @return {@link #RECEIVED} or {@link #WRITTEN}
+	 */
+	public int getDirection() {
+		return direction;
+	}
+
+	/**
+	 * Returns the data of the record, valid until the next record.
+	 *
+	 * @return the read-only data
+	 */
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	private File fileOf(int index, String suffix) {
+		return CaptureWriter.fileOf(directory, name, sequences[index], suffix);
+	}
+
+	private long startTimeOf(int index) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(fileOf(index,
+				CaptureWriter.SEGMENT_SUFFIX), "r");
+		try {
+			file.seek(8);
+			return file.readLong();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the offset of the last record indexed before the time in the
+	 * current segment.
+	 *
+	 * @param timestamp
+	 * @return
+	 * @throws IOException
+	 */
+	private int indexedOffset(long timestamp) throws IOException {
+		final RandomAccessFile file;
+		try {
+			file = new RandomAccessFile(fileOf(current,
+					CaptureWriter.INDEX_SUFFIX), "r");
+		} catch (FileNotFoundException missing) {
+			return CaptureWriter.SEGMENT_HEADER_SIZE;
+		}
+		try {
+			int low = 0;
+			int high = (int) (file.length() / CaptureWriter.INDEX_ENTRY_SIZE) - 1;
+			int offset = CaptureWriter.SEGMENT_HEADER_SIZE;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				file.seek((long) middle * CaptureWriter.INDEX_ENTRY_SIZE);
+				if (file.readLong() <= timestamp) {
+					offset = file.readInt();
+					low = middle + 1;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return Math.min(offset, segment.limit());
+		} finally {
+			file.close();
+		}
+	}
+
+	private boolean openSegment(int index) throws IOException {
+		this.segment = null;
+		if (index >= sequences.length) {
+			return false;
+		}
+		final File file = fileOf(index, CaptureWriter.SEGMENT_SUFFIX);
+		final RandomAccessFile segmentFile = new RandomAccessFile(file, "r");
+		final ByteBuffer segment;
+		try {
+			// the mapping stays valid after closing
+			segment = segmentFile.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, segmentFile.length());
+		} finally {
+			segmentFile.close();
+		}
+		if (segment.limit() < CaptureWriter.SEGMENT_HEADER_SIZE
+				|| segment.getInt(0) != CaptureWriter.MAGIC
+				|| segment.getInt(4) != CaptureWriter.VERSION) {
+			throw new IOException("Not a capture segment: " + file);
+		}
+		segment.position(CaptureWriter.SEGMENT_HEADER_SIZE);
+		this.current = index;
+		this.segment = segment;
+		this.data = segment.duplicate();
+		return true;
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Appends the traffic of a port to memory-mapped segment files, copying each
+ * chunk once into the mapping. See {@link CaptureReader} for the format.
+ *
+ * A new segment is started when the current one is full, and the oldest
+ * segments of the capture are deleted beyond the max number of segments. The
+ * segments of the previous captures in the directory are kept.
+ *
+ * Any I/O error stops the capture without affecting the port.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class CaptureWriter {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(CaptureWriter.class);
+
+	/**
+	 * "SCAP"
+	 */
+	static final int MAGIC = 0x53434150;
+
+	static final int VERSION = 1;
+
+	/**
+	 * magic, version and the start time of the segment
+	 */
+	static final int SEGMENT_HEADER_SIZE = 16;
+
+	/**
+	 * timestamp, length and direction, which is written last to commit
+	 */
+	static final int RECORD_HEADER_SIZE = 13;
+
+	/**
+	 * timestamp and offset in the segment
+	 */
+	static final int INDEX_ENTRY_SIZE = 12;
+
+	/**
+	 * The min number of bytes between the records indexed
+	 */
+	static final int INDEX_INTERVAL = 64 * 1024;
+
+	static final String SEGMENT_SUFFIX = ".cap";
+
+	static final String INDEX_SUFFIX = ".idx";
+
+	private final File directory;
+
+	private final String name;
+
+	private final int segmentSize;
+
+	private final int maxSegments;
+
+	private final long baseMicros;
+
+	private final long baseNanos;
+
+	private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+	/**
+	 * The sequence number of the current segment
+	 */
+	private int sequence;
+
+	/**
+	 * The sequence number of the oldest segment of this capture
+	 */
+	private int firstSequence;
+
+	private RandomAccessFile segmentFile;
+
+	private MappedByteBuffer segment;
+
+	private FileChannel index;
+
+	/**
+	 * The offset of the record indexed last
+	 */
+	private int lastIndexed;
+
+	private boolean closed;
+
+	/**
+	 *
+	 * @param directory
+	 * @param name
+	 *            the prefix of the segment files, see {@link #nameOf(String)}
+	 * @param segmentSize
+	 *            the size of a segment file in bytes
+	 * @param maxSegments
+	 *            the max number of the segments kept, 0 for unlimited
+	 * @throws IOException
+	 *             if the first segment can't be created
+	 */
+	CaptureWriter(File directory, String name, int segmentSize, int maxSegments)
+			throws IOException {
+		if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Invalid segmentSize: "
+					+ segmentSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create the directory: "
+					+ directory);
+		}
+		this.directory = directory;
+		this.name = name;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		this.baseMicros = System.currentTimeMillis() * 1000L;
+		this.baseNanos = System.nanoTime();
+		final int[] sequences = sequences(directory, name);
+		this.sequence = sequences.length == 0 ? 0
+				: sequences[sequences.length - 1] + 1;
+		this.firstSequence = sequence;
+		openSegment();
+	}
+
+	/**
+	 * Returns the prefix of the segment files of the port.
+	 *
+	 * @param portIdentifier
+	 * @return the identifier with the characters other than letters, digits,
+	 *         '.', '_' and '-' replaced by '_'
+	 */
+	static String nameOf(String portIdentifier) {
+		if (portIdentifier == null) {
+			return "serial";
+		}
+		return portIdentifier.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	/**
+	 * Returns the sequence numbers of the segments in the directory.
+	 *
+	 * @param directory
+	 * @param name
+	 * @return in ascending order
+	 */
+	static int[] sequences(File directory, String name) {
+		final String[] files = directory.list();
+		if (files == null) {
+			return new int[0];
+		}
+		final String prefix = name + "-";
+		int[] sequences = new int[files.length];
+		int count = 0;
+		for (String file : files) {
+			if (!file.startsWith(prefix) || !file.endsWith(SEGMENT_SUFFIX)) {
+				continue;
+			}
+			final String number = file.substring(prefix.length(),
+					file.length() - SEGMENT_SUFFIX.length());
+			if (number.length() > 0 && number.matches("[0-9]+")) {
+				sequences[count++] = Integer.parseInt(number);
+			}
+		}
+		sequences = Arrays.copyOf(sequences, count);
+		Arrays.sort(sequences);
+		return sequences;
+	}
+
+	/**
+	 * @param directory
+	 * @param name
+	 * @param sequence
+	 * @param suffix
+	 * @return the file of the segment or its index
+	 */
+	static File fileOf(File directory, String name, int sequence, String suffix) {
+		return new File(directory, String.format(Locale.US, "%s-%06d%s",
+				name, sequence, suffix));
+	}
+
+	/**
+	 * Appends a chunk, split into records when it doesn't fit the segment.
+	 *
+	 * @param direction
+	 *            {@link CaptureReader#RECEIVED} or
+	 *            {@link CaptureReader#WRITTEN}
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	synchronized void append(int direction, byte[] data, int offset, int length) {
+		append(direction, data, null, offset, length);
+	}
+
+	/**
+	 * Appends a chunk without changing the position of the buffer.
+	 *
+	 * @param direction
+	 * @param data
+	 * @param position
+	 *            the position of the chunk in the buffer
+	 * @param length
+	 */
+	synchronized void append(int direction, ByteBuffer data, int position,
+			int length) {
+		if (data.hasArray()) {
+			append(direction, data.array(), null, data.arrayOffset()
+					+ position, length);
+		} else {
+			final ByteBuffer view = data.duplicate();
+			view.position(position);
+			append(direction, null, view, position, length);
+		}
+	}
+
+	/**
+	 * Copies from either the array or the view.
+	 */
+	private void append(int direction, byte[] array, ByteBuffer view,
+			int offset, int length) {
+		if (closed || length <= 0) {
+			return;
+		}
+		final long timestamp = now();
+		try {
+			while (length > 0) {
+				if (segment.remaining() <= RECORD_HEADER_SIZE) {
+					rotate();
+				}
+				final int start = segment.position();
+				final int n = Math.min(length, segment.remaining()
+						- RECORD_HEADER_SIZE);
+				segment.position(start + RECORD_HEADER_SIZE);
+				if (array != null) {
+					segment.put(array, offset, n);
+				} else {
+					view.limit(view.position() + n);
+					segment.put(view);
+				}
+				segment.putLong(start, timestamp);
+				segment.putInt(start + 8, n);
+				segment.put(start + 12, (byte) direction);
+				if (start - lastIndexed >= INDEX_INTERVAL) {
+					writeIndex(timestamp, start);
+				}
+				offset += n;
+				length -= n;
+			}
+		} catch (IOException exception) {
+			LOGGER.error("Failed to capture. Stopped: {}", name, exception);
+			close();
+		}
+	}
+
+	/**
+	 * @return the microseconds since the epoch
+	 */
+	private long now() {
+		return baseMicros + (System.nanoTime() - baseNanos) / 1000L;
+	}
+
+	private void writeIndex(long timestamp, int offset) throws IOException {
+		indexEntry.clear();
+		indexEntry.putLong(timestamp).putInt(offset);
+		indexEntry.flip();
+		while (indexEntry.hasRemaining()) {
+			index.write(indexEntry);
+		}
+		lastIndexed = offset;
+	}
+
+	private void openSegment() throws IOException {
+		final RandomAccessFile segmentFile = new RandomAccessFile(fileOf(
+				directory, name, sequence, SEGMENT_SUFFIX), "rw");
+		try {
+			this.segment = segmentFile.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+			this.index = new FileOutputStream(fileOf(directory, name,
+					sequence, INDEX_SUFFIX)).getChannel();
+		} catch (IOException exception) {
+			segmentFile.close();
+			throw exception;
+		}
+		this.segmentFile = segmentFile;
+		this.segment.putInt(MAGIC).putInt(VERSION).putLong(now());
+		this.lastIndexed = -INDEX_INTERVAL;
+	}
+
+	private void closeSegment() throws IOException {
+		final int length = segment.position();
+		segment = null;
+		try {
+			index.close();
+			try {
+				// trims the unused part, kept where the mapping prevents it
+				segmentFile.setLength(length);
+			} catch (IOException ignored) {
+			}
+		} finally {
+			segmentFile.close();
+		}
+	}
+
+	private void rotate() throws IOException {
+		closeSegment();
+		sequence++;
+		while (maxSegments > 0 && sequence - firstSequence >= maxSegments) {
+			fileOf(directory, name, firstSequence, SEGMENT_SUFFIX).delete();
+			fileOf(directory, name, firstSequence, INDEX_SUFFIX).delete();
+			firstSequence++;
+		}
+		openSegment();
+	}
+
+	/**
+	 * Closes the current segment. Nothing is appended afterward.
+	 */
+	synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (segment == null) {
+			// failed to rotate
+			return;
+		}
+		try {
+			closeSegment();
+		} catch (IOException exception) {
+			LOGGER.error("Failed to close the capture: {}", name, exception);
+		}
+	}
+}
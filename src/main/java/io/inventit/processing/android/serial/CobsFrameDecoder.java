@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Decodes the frames encoded with Consistent Overhead Byte Stuffing (COBS) and
+ * terminated by a zero byte.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public class CobsFrameDecoder extends AbstractFrameDecoder {
+
+	/**
+	 * The number of bytes left in the current block, 0 when expecting a code
+	 */
+	private int blockRemaining = 0;
+
+	/**
+	 * Whether the current block ends with an implicit zero
+	 */
+	private boolean zeroPending = false;
+
+	/**
+	 * 
+	 * @param maxFrameLength
+	 *            the max length of a decoded frame
+	 */
+	public CobsFrameDecoder(int maxFrameLength) {
+		super(maxFrameLength);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see FrameDecoder#decode(byte[], int, int, FrameDecoder.Listener)
+	 */
+	public void decode(byte[] data, int offset, int length, Listener listener) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final int b = data[i] & 0xff;
+			if (b == 0) {
+				if (blockRemaining > 0) {
+					// truncated block
+					discard();
+				} else if (getFrameLength() > 0 || zeroPending) {
+					emit(listener);
+				}
+				blockRemaining = 0;
+				zeroPending = false;
+				continue;
+			}
+			if (blockRemaining == 0) {
+				if (zeroPending) {
+					append((byte) 0);
+				}
+				blockRemaining = b - 1;
+				zeroPending = b < 0xff;
+				continue;
+			}
+			append((byte) b);
+			blockRemaining--;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see AbstractFrameDecoder#reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		blockRemaining = 0;
+		zeroPending = false;
+	}
+}
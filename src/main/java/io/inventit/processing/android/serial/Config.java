@@ -14,6 +14,56 @@ final class Config {
 
 	private static long waitOnException = 5000;
 
+	private static int receiveBufferSize = 64 * 1024;
+
+	private static RingBuffer.OverflowPolicy receiveBufferOverflowPolicy = RingBuffer.OverflowPolicy.DROP_OLDEST;
+
+	private static int frameBufferSize = 64 * 1024;
+
+	private static int frameBufferFrames = 1024;
+
+	private static boolean asyncReadEnabled = true;
+
+	private static int writeBufferSize = 64 * 1024;
+
+	private static WriteQueue.OverflowPolicy writeBufferOverflowPolicy = WriteQueue.OverflowPolicy.BLOCK;
+
+	private static int asyncReadRequests = 4;
+
+	private static EventDispatchMode eventDispatchMode = EventDispatchMode.IO_THREAD;
+
+	private static int ioThreads = 0;
+
+	private static long reconnectInitialDelay = 100;
+
+	private static float reconnectJitter = 0.2f;
+
+	private static boolean metricsEnabled = false;
+
+	private static long metricsDumpInterval = 0;
+
+	private static String charset = null;
+
+	private static String captureDirectory = null;
+
+	private static int captureSegmentSize = 16 * 1024 * 1024;
+
+	private static int captureMaxSegments = 0;
+
+	private static float replaySpeed = 1.0f;
+
+	private static int maxInFlightRequests = 8;
+
+	private static int eventBatchMillis = 0;
+
+	private static int eventBatchBytes = 4096;
+
+	private static int parserThreads = 0;
+
+	private static int parserQueueSize = 1024;
+
+	private static int parserBackpressureMillis = 100;
+
 	/**
 	 * @return the debugEnabled
 	 */
@@ -30,7 +80,8 @@ final class Config {
 	}
 
 	/**
-	 * @return the waitOnException
+	 * @return the waitOnException, the max delay between the reconnect
+	 *         attempts
 	 */
 	public static long getWaitOnException() {
 		return waitOnException;
@@ -44,6 +95,384 @@ final class Config {
 		Config.waitOnException = waitOnException;
 	}
 
+	/**
+	 * @return the receiveBufferSize
+	 */
+	public static int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param receiveBufferSize
+	 *            the receiveBufferSize to set
+	 */
+	public static void setReceiveBufferSize(int receiveBufferSize) {
+		Config.receiveBufferSize = receiveBufferSize;
+	}
+
+	/**
+	 * @return the receiveBufferOverflowPolicy
+	 */
+	public static RingBuffer.OverflowPolicy getReceiveBufferOverflowPolicy() {
+		return receiveBufferOverflowPolicy;
+	}
+
+	/**
+	 * @param receiveBufferOverflowPolicy
+	 *            the receiveBufferOverflowPolicy to set
+	 */
+	public static void setReceiveBufferOverflowPolicy(
+			RingBuffer.OverflowPolicy receiveBufferOverflowPolicy) {
+		Config.receiveBufferOverflowPolicy = receiveBufferOverflowPolicy;
+	}
+
+	/**
+	 * @return the frameBufferSize
+	 */
+	public static int getFrameBufferSize() {
+		return frameBufferSize;
+	}
+
+	/**
+	 * @param frameBufferSize
+	 *            the frameBufferSize to set
+	 */
+	public static void setFrameBufferSize(int frameBufferSize) {
+		Config.frameBufferSize = frameBufferSize;
+	}
+
+	/**
+	 * @return the frameBufferFrames
+	 */
+	public static int getFrameBufferFrames() {
+		return frameBufferFrames;
+	}
+
+	/**
+	 * @param frameBufferFrames
+	 *            the frameBufferFrames to set, a power of two
+	 */
+	public static void setFrameBufferFrames(int frameBufferFrames) {
+		Config.frameBufferFrames = frameBufferFrames;
+	}
+
+	/**
+	 * @return the asyncReadEnabled
+	 */
+	public static boolean isAsyncReadEnabled() {
+		return asyncReadEnabled;
+	}
+
+	/**
+	 * @param asyncReadEnabled
+	 *            the asyncReadEnabled to set
+	 */
+	public static void setAsyncReadEnabled(boolean asyncReadEnabled) {
+		Config.asyncReadEnabled = asyncReadEnabled;
+	}
+
+	/**
+	 * @return the asyncReadRequests
+	 */
+	public static int getAsyncReadRequests() {
+		return asyncReadRequests;
+	}
+
+	/**
+	 * @param asyncReadRequests
+	 *            the asyncReadRequests to set
+	 */
+	public static void setAsyncReadRequests(int asyncReadRequests) {
+		Config.asyncReadRequests = asyncReadRequests;
+	}
+
+	/**
+	 * @return the writeBufferSize
+	 */
+	public static int getWriteBufferSize() {
+		return writeBufferSize;
+	}
+
+	/**
+	 * @param writeBufferSize
+	 *            the writeBufferSize to set
+	 */
+	public static void setWriteBufferSize(int writeBufferSize) {
+		Config.writeBufferSize = writeBufferSize;
+	}
+
+	/**
+	 * @return the writeBufferOverflowPolicy
+	 */
+	public static WriteQueue.OverflowPolicy getWriteBufferOverflowPolicy() {
+		return writeBufferOverflowPolicy;
+	}
+
+	/**
+	 * @param writeBufferOverflowPolicy
+	 *            the writeBufferOverflowPolicy to set
+	 */
+	public static void setWriteBufferOverflowPolicy(
+			WriteQueue.OverflowPolicy writeBufferOverflowPolicy) {
+		Config.writeBufferOverflowPolicy = writeBufferOverflowPolicy;
+	}
+
+	/**
+	 * @return the eventDispatchMode
+	 */
+	public static EventDispatchMode getEventDispatchMode() {
+		return eventDispatchMode;
+	}
+
+	/**
+	 * @param eventDispatchMode
+	 *            the eventDispatchMode to set
+	 */
+	public static void setEventDispatchMode(EventDispatchMode eventDispatchMode) {
+		Config.eventDispatchMode = eventDispatchMode;
+	}
+
+	/**
+	 * @return the ioThreads
+	 */
+	public static int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * @param ioThreads
+	 *            the ioThreads to set
+	 */
+	public static void setIoThreads(int ioThreads) {
+		Config.ioThreads = ioThreads;
+	}
+
+	/**
+	 * @return the reconnectInitialDelay
+	 */
+	public static long getReconnectInitialDelay() {
+		return reconnectInitialDelay;
+	}
+
+	/**
+	 * @param reconnectInitialDelay
+	 *            the reconnectInitialDelay to set
+	 */
+	public static void setReconnectInitialDelay(long reconnectInitialDelay) {
+		Config.reconnectInitialDelay = reconnectInitialDelay;
+	}
+
+	/**
+	 * @return the reconnectJitter
+	 */
+	public static float getReconnectJitter() {
+		return reconnectJitter;
+	}
+
+	/**
+	 * @param reconnectJitter
+	 *            the reconnectJitter to set
+	 */
+	public static void setReconnectJitter(float reconnectJitter) {
+		Config.reconnectJitter = reconnectJitter;
+	}
+
+	/**
+	 * @return the metricsEnabled
+	 */
+	public static boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	/**
+	 * @param metricsEnabled
+	 *            the metricsEnabled to set
+	 */
+	public static void setMetricsEnabled(boolean metricsEnabled) {
+		Config.metricsEnabled = metricsEnabled;
+	}
+
+	/**
+	 * @return the metricsDumpInterval
+	 */
+	public static long getMetricsDumpInterval() {
+		return metricsDumpInterval;
+	}
+
+	/**
+	 * @param metricsDumpInterval
+	 *            the interval in milliseconds of logging the metrics of each
+	 *            port, 0 not to log
+	 */
+	public static void setMetricsDumpInterval(long metricsDumpInterval) {
+		Config.metricsDumpInterval = metricsDumpInterval;
+	}
+
+	/**
+	 * @return the charset
+	 */
+	public static String getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @param charset
+	 *            the charset to set
+	 */
+	public static void setCharset(String charset) {
+		Config.charset = charset;
+	}
+
+	/**
+	 * @return the captureDirectory
+	 */
+	public static String getCaptureDirectory() {
+		return captureDirectory;
+	}
+
+	/**
+	 * @param captureDirectory
+	 *            the captureDirectory to set
+	 */
+	public static void setCaptureDirectory(String captureDirectory) {
+		Config.captureDirectory = captureDirectory;
+	}
+
+	/**
+	 * @return the captureSegmentSize
+	 */
+	public static int getCaptureSegmentSize() {
+		return captureSegmentSize;
+	}
+
+	/**
+	 * @param captureSegmentSize
+	 *            the captureSegmentSize to set
+	 */
+	public static void setCaptureSegmentSize(int captureSegmentSize) {
+		Config.captureSegmentSize = captureSegmentSize;
+	}
+
+	/**
+	 * @return the captureMaxSegments
+	 */
+	public static int getCaptureMaxSegments() {
+		return captureMaxSegments;
+	}
+
+	/**
+	 * @param captureMaxSegments
+	 *            the captureMaxSegments to set
+	 */
+	public static void setCaptureMaxSegments(int captureMaxSegments) {
+		Config.captureMaxSegments = captureMaxSegments;
+	}
+
+	/**
+	 * @return the replaySpeed
+	 */
+	public static float getReplaySpeed() {
+		return replaySpeed;
+	}
+
+	/**
+	 * @param replaySpeed
+	 *            the replaySpeed to set
+	 */
+	public static void setReplaySpeed(float replaySpeed) {
+		Config.replaySpeed = replaySpeed;
+	}
+
+	/**
+	 * @return the maxInFlightRequests
+	 */
+	public static int getMaxInFlightRequests() {
+		return maxInFlightRequests;
+	}
+
+	/**
+	 * @param maxInFlightRequests
+	 *            the maxInFlightRequests to set
+	 */
+	public static void setMaxInFlightRequests(int maxInFlightRequests) {
+		Config.maxInFlightRequests = maxInFlightRequests;
+	}
+
+	/**
+	 * @return the eventBatchMillis
+	 */
+	public static int getEventBatchMillis() {
+		return eventBatchMillis;
+	}
+
+	/**
+	 * @param eventBatchMillis
+	 *            the eventBatchMillis to set
+	 */
+	public static void setEventBatchMillis(int eventBatchMillis) {
+		Config.eventBatchMillis = eventBatchMillis;
+	}
+
+	/**
+	 * @return the eventBatchBytes
+	 */
+	public static int getEventBatchBytes() {
+		return eventBatchBytes;
+	}
+
+	/**
+	 * @param eventBatchBytes
+	 *            the eventBatchBytes to set
+	 */
+	public static void setEventBatchBytes(int eventBatchBytes) {
+		Config.eventBatchBytes = eventBatchBytes;
+	}
+
+	/**
+	 * @return the parserThreads
+	 */
+	public static int getParserThreads() {
+		return parserThreads;
+	}
+
+	/**
+	 * @param parserThreads
+	 *            the parserThreads to set
+	 */
+	public static void setParserThreads(int parserThreads) {
+		Config.parserThreads = parserThreads;
+	}
+
+	/**
+	 * @return the parserQueueSize
+	 */
+	public static int getParserQueueSize() {
+		return parserQueueSize;
+	}
+
+	/**
+	 * @param parserQueueSize
+	 *            the parserQueueSize to set
+	 */
+	public static void setParserQueueSize(int parserQueueSize) {
+		Config.parserQueueSize = parserQueueSize;
+	}
+
+	/**
+	 * @return the parserBackpressureMillis
+	 */
+	public static int getParserBackpressureMillis() {
+		return parserBackpressureMillis;
+	}
+
+	/**
+	 * @param parserBackpressureMillis
+	 *            the parserBackpressureMillis to set
+	 */
+	public static void setParserBackpressureMillis(int parserBackpressureMillis) {
+		Config.parserBackpressureMillis = parserBackpressureMillis;
+	}
+
 	private Config() {
 	}
 
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * The thread on which serialEvent(Serial) and frameEvent(Serial) are invoked.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public enum EventDispatchMode {
+
+	/**
+	 * Invokes the events on the serial I/O thread as soon as the data
+	 * arrives. The handlers must synchronize against draw().
+	 */
+	IO_THREAD,
+
+	/**
+	 * Queues the events and invokes them on the sketch thread before each
+	 * draw(). The pending events are coalesced into one callback per frame.
+	 */
+	SKETCH_THREAD
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Splits the stream into records of the same size.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public class FixedSizeFrameDecoder extends AbstractFrameDecoder {
+
+	private final int frameSize;
+
+	/**
+	 * 
+	 * @param frameSize
+	 *            the size of a record
+	 */
+	public FixedSizeFrameDecoder(int frameSize) {
+		super(frameSize);
+		this.frameSize = frameSize;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see FrameDecoder#decode(byte[], int, int, FrameDecoder.Listener)
+	 */
+	public void decode(byte[] data, int offset, int length, Listener listener) {
+		final int end = offset + length;
+		while (offset < end) {
+			final int partial = getFrameLength();
+			if (partial == 0 && end - offset >= frameSize) {
+				// a whole record in the chunk
+				listener.onFrame(data, offset, frameSize);
+				offset += frameSize;
+				continue;
+			}
+			final int n = Math.min(end - offset, frameSize - partial);
+			append(data, offset, n);
+			offset += n;
+			if (getFrameLength() == frameSize) {
+				emit(listener);
+			}
+		}
+	}
+}
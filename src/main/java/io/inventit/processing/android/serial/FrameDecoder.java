@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Splits the received byte stream into frames. Set an implementation by
+ * {@link SerialCommunicator#setFrameDecoder(FrameDecoder)}, then the complete
+ * frames are available from {@link SerialCommunicator#readFrame()} and
+ * "frameEvent(Serial)" is invoked on each frame.
+ * 
+ * The decoding is incremental, i.e. a frame may span several chunks. An
+ * implementation is invoked by the serial I/O thread only.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public interface FrameDecoder {
+
+	/**
+	 * Receives the decoded frames.
+	 */
+	interface Listener {
+
+		/**
+		 * Called when a frame is complete. The array may be reused by the
+		 * decoder, so it must not be retained after returning.
+		 * 
+		 * @param frame
+		 * @param offset
+		 * @param length
+		 */
+		void onFrame(byte[] frame, int offset, int length);
+	}
+
+	/**
+	 * Decodes the received chunk.
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param listener
+	 *            invoked for each complete frame
+	 */
+	void decode(byte[] data, int offset, int length, Listener listener);
+
+	/**
+	 * Discards the partially decoded frame.
+	 */
+	void reset();
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An index of the frame boundaries in a {@link RingBuffer}, recorded by the
+ * producer while it scans the received chunks for the delimiter.
+ *
+ * Each entry is the ring position right after a delimiter. The consumer finds
+ * the end of the next frame without scanning the ring again. All delimiters
+ * written since {@link #getStartPosition()} are indexed unless the index has
+ * overflowed, so the consumer must fall back to scanning otherwise.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class FrameIndex {
+
+	/**
+	 * Returned when the index can't tell and the ring must be scanned.
+	 */
+	static final int UNKNOWN = -2;
+
+	private final int delimiter;
+
+	private final long startPosition;
+
+	private final long[] ends;
+
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile boolean overflowed = false;
+
+	/**
+	 *
+	 * @param delimiter
+	 * @param startPosition
+	 *            the ring position from which the delimiters are indexed
+	 * @param capacity
+	 *            the max number of entries, a power of two
+	 */
+	FrameIndex(int delimiter, long startPosition, int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Invalid capacity: "
+					+ capacity);
+		}
+		this.delimiter = delimiter;
+		this.startPosition = startPosition;
+		this.ends = new long[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * @return the delimiter
+	 */
+	int getDelimiter() {
+		return delimiter;
+	}
+
+	/**
+	 * @return the startPosition
+	 */
+	long getStartPosition() {
+		return startPosition;
+	}
+
+	/**
+	 * Records a frame boundary. Invoked by the producer only.
+	 *
+	 * @param end
+	 *            the ring position right after the delimiter
+	 * @param readPosition
+	 *            the current read position of the ring, used to discard the
+	 *            stale entries when full
+	 */
+	void add(long end, long readPosition) {
+		if (overflowed) {
+			return;
+		}
+		final long t = tail.get();
+		while (t - head.get() >= ends.length) {
+			final long h = head.get();
+			if (ends[(int) h & mask] > readPosition) {
+				// too many frames not read yet
+				overflowed = true;
+				return;
+			}
+			head.compareAndSet(h, h + 1);
+		}
+		ends[(int) t & mask] = end;
+		tail.lazySet(t + 1);
+	}
+
+	/**
+	 * Returns the length of the next frame. Invoked by the consumer only.
+	 *
+	 * @param interesting
+	 *            the delimiter the consumer is looking for
+	 * @param readPosition
+	 *            the current read position of the ring
+	 * @return the length including the delimiter, -1 if no frame is complete,
+	 *         or {@link #UNKNOWN}
+	 */
+	int nextFrameLength(int interesting, long readPosition) {
+		if (overflowed || (byte) interesting != (byte) delimiter
+				|| readPosition < startPosition) {
+			return UNKNOWN;
+		}
+		while (true) {
+			final long h = head.get();
+			if (h == tail.get()) {
+				return -1;
+			}
+			final long end = ends[(int) h & mask];
+			if (head.get() != h) {
+				// discarded by the producer meanwhile
+				continue;
+			}
+			if (end > readPosition) {
+				return (int) (end - readPosition);
+			}
+			// already read
+			head.compareAndSet(h, h + 1);
+		}
+	}
+}
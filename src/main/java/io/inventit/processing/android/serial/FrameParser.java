@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Parses a complete frame into a value off the I/O thread, e.g. validates
+ * its checksum and converts its numbers. Set an implementation by
+ * {@link SerialCommunicator#setFrameParser(FrameParser)}.
+ * 
+ * The frames of a port are parsed concurrently on the worker pool, so an
+ * implementation must be thread-safe. The values are still delivered in the
+ * order of the frames.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ * @param <T>
+ *            the type of the parsed value
+ */
+public interface FrameParser<T> {
+
+	/**
+	 * Parses the frame. The array must not be retained after returning.
+	 * 
+	 * @param frame
+	 *            including the delimiter of bufferUntil()
+	 * @param offset
+	 * @param length
+	 * @return null to discard the frame
+	 * @throws Exception
+	 *             counted as a parse error, and the frame is discarded
+	 */
+	T parse(byte[] frame, int offset, int length) throws Exception;
+}
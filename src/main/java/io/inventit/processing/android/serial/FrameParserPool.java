@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A worker pool shared by the {@link ParsingPipeline}s of all the ports, so
+ * that the frames are parsed on the cores other than the I/O threads.
+ * 
+ * The pool is created when the first pipeline is registered and shut down
+ * when the last one is unregistered.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class FrameParserPool {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(FrameParserPool.class);
+
+	/**
+	 * Logs an {@link Error} thrown by a parser, and the worker is replaced
+	 */
+	private static final Thread.UncaughtExceptionHandler UNCAUGHT_ERROR_HANDLER = new Thread.UncaughtExceptionHandler() {
+		public void uncaughtException(Thread thread, Throwable throwable) {
+			LOGGER.error("A parser failed on " + thread.getName() + ".",
+					throwable);
+		}
+	};
+
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	private final ThreadFactory threadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "SerialParser-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setUncaughtExceptionHandler(UNCAUGHT_ERROR_HANDLER);
+			return thread;
+		}
+	};
+
+	// Written while holding 'this'
+	private volatile ExecutorService executor;
+
+	// Synchronized by 'this'
+	private int pipelines = 0;
+
+	/**
+	 * Returns the number of workers for the given configuration.
+	 * 
+	 * @param parserThreads
+	 *            0 or less to follow the number of cores
+	 * @return
+	 */
+	static int getWorkers(int parserThreads) {
+		if (parserThreads > 0) {
+			return parserThreads;
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Registers a pipeline, creating the pool if necessary.
+	 */
+	synchronized void register() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(
+					getWorkers(Config.getParserThreads()), threadFactory);
+		}
+		pipelines++;
+	}
+
+	/**
+	 * Unregisters a pipeline, shutting down the pool after the last one. The
+	 * tasks already submitted still run.
+	 */
+	synchronized void unregister() {
+		if (pipelines == 0) {
+			return;
+		}
+		if (--pipelines == 0) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Submits a task without holding 'this', as invoked for each frame.
+	 * 
+	 * @param task
+	 * @return false if no pipeline is registered
+	 */
+	boolean execute(Runnable task) {
+		final ExecutorService executor = this.executor;
+		if (executor == null) {
+			return false;
+		}
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException exception) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single-producer/single-consumer lock-free queue of the decoded frames.
+ *
+ * The frame bytes are stored in a {@link RingBuffer} and their lengths in a
+ * separate ring. A length is published after its bytes, so the consumer sees
+ * only complete frames. A frame which doesn't fit is discarded as a whole.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class FrameQueue {
+
+	private final RingBuffer bytes;
+
+	private final int[] lengths;
+
+	private final int mask;
+
+	private final AtomicLong head = new AtomicLong();
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	/**
+	 *
+	 * @param capacity
+	 *            the capacity of the frame bytes
+	 * @param maxFrames
+	 *            the max number of frames, a power of two
+	 */
+	FrameQueue(int capacity, int maxFrames) {
+		if (Integer.bitCount(maxFrames) != 1) {
+			throw new IllegalArgumentException("Invalid maxFrames: "
+					+ maxFrames);
+		}
+		this.bytes = new RingBuffer(capacity, RingBuffer.OverflowPolicy.DROP_NEWEST);
+		this.lengths = new int[maxFrames];
+		this.mask = maxFrames - 1;
+	}
+
+	/**
+	 * Appends a frame. Invoked by the producer only.
+	 *
+	 * @param frame
+	 * @param offset
+	 * @param length
+	 * @return false if discarded
+	 */
+	boolean offer(byte[] frame, int offset, int length) {
+		final long t = tail.get();
+		if (t - head.get() >= lengths.length
+				|| bytes.capacity() - bytes.available() < length) {
+			droppedFrames.incrementAndGet();
+			return false;
+		}
+		bytes.write(frame, offset, length);
+		lengths[(int) t & mask] = length;
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * @return the number of the frames available
+	 */
+	int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * Returns the length of the next frame without removing it. Invoked by
+	 * the consumer only.
+	 *
+	 * @return -1 if empty
+	 */
+	int peekLength() {
+		final long h = head.get();
+		if (h == tail.get()) {
+			return -1;
+		}
+		return lengths[(int) h & mask];
+	}
+
+	/**
+	 * Removes the next frame into the given array. Invoked by the consumer
+	 * only.
+	 *
+	 * @param dst
+	 *            must be large enough for {@link #peekLength()}
+	 * @param offset
+	 * @return the length of the frame, -1 if empty
+	 */
+	int poll(byte[] dst, int offset) {
+		final int length = peekLength();
+		if (length < 0) {
+			return -1;
+		}
+		bytes.read(dst, offset, length);
+		head.lazySet(head.get() + 1);
+		return length;
+	}
+
+	/**
+	 * Discards all frames. Invoked by the consumer only.
+	 */
+	void clear() {
+		int length;
+		while ((length = peekLength()) >= 0) {
+			bytes.skip(length);
+			head.lazySet(head.get() + 1);
+		}
+	}
+
+	/**
+	 * @return the number of frames discarded as the queue was full
+	 */
+	long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+}
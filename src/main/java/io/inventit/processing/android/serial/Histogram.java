@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with log-linear buckets, i.e.
+ * each power of two range is split into {@link #SUB_BUCKETS} buckets, so a
+ * value is recorded with the relative error of about 1/16 in constant memory.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The number of buckets per power of two
+	 */
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Covers up to {@link Long#MAX_VALUE}
+	 */
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS)
+			* SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final AtomicLong count = new AtomicLong();
+
+	private final AtomicLong sum = new AtomicLong();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Returns the bucket of the value.
+	 *
+	 * @param value
+	 * @return
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(value, 0);
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the largest value of the bucket.
+	 *
+	 * @param index
+	 * @return
+	 */
+	static long highestValueOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		final long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records the value.
+	 *
+	 * @param value
+	 *            a negative value is recorded as 0
+	 */
+	void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the copies of the counts, which may be slightly inconsistent
+	 * with each other while values are recorded.
+	 *
+	 * @return
+	 */
+	SerialMetrics.Distribution snapshot() {
+		final long[] buckets = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = counts.get(i);
+		}
+		return new SerialMetrics.Distribution(buckets, sum.get(), max.get());
+	}
+}
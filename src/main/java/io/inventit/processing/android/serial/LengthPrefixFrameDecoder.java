@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the frames preceded by their length. The prefix is 1, 2 or 4 bytes
+ * in either byte order and doesn't count itself. The decoded frame excludes
+ * the prefix.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public class LengthPrefixFrameDecoder extends AbstractFrameDecoder {
+
+	private final int prefixLength;
+
+	private final boolean bigEndian;
+
+	private int prefixRead = 0;
+
+	private long payloadLength = 0;
+
+	private long payloadRead = 0;
+
+	/**
+	 * 
+	 * @param prefixLength
+	 *            1, 2 or 4
+	 * @param byteOrder
+	 *            the byte order of the prefix
+	 * @param maxFrameLength
+	 *            the frames longer than this are discarded
+	 */
+	public LengthPrefixFrameDecoder(int prefixLength, ByteOrder byteOrder,
+			int maxFrameLength) {
+		super(maxFrameLength);
+		if (prefixLength != 1 && prefixLength != 2 && prefixLength != 4) {
+			throw new IllegalArgumentException("Invalid prefixLength: "
+					+ prefixLength);
+		}
+		this.prefixLength = prefixLength;
+		this.bigEndian = ByteOrder.BIG_ENDIAN.equals(byteOrder);
+	}
+
+	/**
+	 * Creates a decoder of the big endian prefix.
+	 * 
+	 * @param prefixLength
+	 *            1, 2 or 4
+	 * @param maxFrameLength
+	 */
+	public LengthPrefixFrameDecoder(int prefixLength, int maxFrameLength) {
+		this(prefixLength, ByteOrder.BIG_ENDIAN, maxFrameLength);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see FrameDecoder#decode(byte[], int, int, FrameDecoder.Listener)
+	 */
+	public void decode(byte[] data, int offset, int length, Listener listener) {
+		final int end = offset + length;
+		while (offset < end) {
+			if (prefixRead < prefixLength) {
+				final long b = data[offset++] & 0xff;
+				if (bigEndian) {
+					payloadLength = (payloadLength << 8) | b;
+				} else {
+					payloadLength |= b << (8 * prefixRead);
+				}
+				if (++prefixRead == prefixLength && payloadLength == 0) {
+					emit(listener);
+					reset();
+				}
+				continue;
+			}
+			final int n = (int) Math.min(end - offset, payloadLength
+					- payloadRead);
+			if (payloadRead == 0 && n == payloadLength
+					&& n <= getMaxFrameLength()) {
+				// the whole payload in the chunk
+				listener.onFrame(data, offset, n);
+				offset += n;
+				reset();
+				continue;
+			}
+			append(data, offset, n);
+			offset += n;
+			payloadRead += n;
+			if (payloadRead == payloadLength) {
+				emit(listener);
+				reset();
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see AbstractFrameDecoder#reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		prefixRead = 0;
+		payloadLength = 0;
+		payloadRead = 0;
+	}
+}
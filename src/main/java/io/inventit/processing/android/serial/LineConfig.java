@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ * An immutable serial line configuration in the Processing notation, e.g.
+ * <code>new LineConfig(9600, 'E', 7, 1.0f)</code> for 9600 7E1.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public final class LineConfig {
+
+	/**
+	 * 9600 8N1, the default of Processing
+	 */
+	public static final LineConfig DEFAULT = new LineConfig(9600, 'N', 8, 1.0f);
+
+	private final int baudRate;
+
+	private final char parity;
+
+	private final int dataBits;
+
+	private final float stopBits;
+
+	/**
+	 * 
+	 * @param baudRate
+	 * @param parity
+	 *            'N' for none, 'E' for even, 'O' for odd, 'M' for mark or 'S'
+	 *            for space
+	 * @param dataBits
+	 *            5 to 8
+	 * @param stopBits
+	 *            1.0, 1.5 or 2.0
+	 * @throws IllegalArgumentException
+	 *             if any parameter is not supported
+	 */
+	public LineConfig(int baudRate, char parity, int dataBits, float stopBits) {
+		if (baudRate <= 0) {
+			throw new IllegalArgumentException("Invalid baud rate: "
+					+ baudRate);
+		}
+		this.baudRate = baudRate;
+		this.parity = Character.toUpperCase(parity);
+		this.dataBits = dataBits;
+		this.stopBits = stopBits;
+		// validates the parameters
+		getPortParity();
+		getPortDataBits();
+		getPortStopBits();
+	}
+
+	/**
+	 * Converts the parameters of
+	 * {@link UsbSerialPort#setParameters(int, int, int, int)}.
+	 * 
+	 * @param baudRate
+	 * @param dataBits
+	 * @param stopBits
+	 * @param parity
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if any parameter is not supported
+	 */
+	static LineConfig fromPort(int baudRate, int dataBits, int stopBits,
+			int parity) {
+		final char parityChar;
+		switch (parity) {
+		case UsbSerialPort.PARITY_NONE:
+			parityChar = 'N';
+			break;
+		case UsbSerialPort.PARITY_EVEN:
+			parityChar = 'E';
+			break;
+		case UsbSerialPort.PARITY_ODD:
+			parityChar = 'O';
+			break;
+		case UsbSerialPort.PARITY_MARK:
+			parityChar = 'M';
+			break;
+		case UsbSerialPort.PARITY_SPACE:
+			parityChar = 'S';
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid parity: " + parity);
+		}
+		final float stopBitsValue;
+		switch (stopBits) {
+		case UsbSerialPort.STOPBITS_1:
+			stopBitsValue = 1.0f;
+			break;
+		case UsbSerialPort.STOPBITS_1_5:
+			stopBitsValue = 1.5f;
+			break;
+		case UsbSerialPort.STOPBITS_2:
+			stopBitsValue = 2.0f;
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid stop bits: "
+					+ stopBits);
+		}
+		return new LineConfig(baudRate, parityChar, dataBits, stopBitsValue);
+	}
+
+	/**
+	 * @param baudRate
+	 * @return a copy with the given baud rate
+	 */
+	public LineConfig withBaudRate(int baudRate) {
+		return new LineConfig(baudRate, parity, dataBits, stopBits);
+	}
+
+	/**
+	 * @return the baudRate
+	 */
+	public int getBaudRate() {
+		return baudRate;
+	}
+
+	/**
+	 * @return the parity
+	 */
+	public char getParity() {
+		return parity;
+	}
+
+	/**
+	 * @return the dataBits
+	 */
+	public int getDataBits() {
+		return dataBits;
+	}
+
+	/**
+	 * @return the stopBits
+	 */
+	public float getStopBits() {
+		return stopBits;
+	}
+
+	/**
+	 * @return the parity constant of {@link UsbSerialPort}
+	 */
+	int getPortParity() {
+		switch (parity) {
+		case 'N':
+			return UsbSerialPort.PARITY_NONE;
+		case 'E':
+			return UsbSerialPort.PARITY_EVEN;
+		case 'O':
+			return UsbSerialPort.PARITY_ODD;
+		case 'M':
+			return UsbSerialPort.PARITY_MARK;
+		case 'S':
+			return UsbSerialPort.PARITY_SPACE;
+		default:
+			throw new IllegalArgumentException("Invalid parity: " + parity);
+		}
+	}
+
+	/**
+	 * @return the data bits constant of {@link UsbSerialPort}
+	 */
+	int getPortDataBits() {
+		switch (dataBits) {
+		case 5:
+			return UsbSerialPort.DATABITS_5;
+		case 6:
+			return UsbSerialPort.DATABITS_6;
+		case 7:
+			return UsbSerialPort.DATABITS_7;
+		case 8:
+			return UsbSerialPort.DATABITS_8;
+		default:
+			throw new IllegalArgumentException("Invalid data bits: "
+					+ dataBits);
+		}
+	}
+
+	/**
+	 * @return the stop bits constant of {@link UsbSerialPort}
+	 */
+	int getPortStopBits() {
+		if (stopBits == 1.0f) {
+			return UsbSerialPort.STOPBITS_1;
+		} else if (stopBits == 1.5f) {
+			return UsbSerialPort.STOPBITS_1_5;
+		} else if (stopBits == 2.0f) {
+			return UsbSerialPort.STOPBITS_2;
+		}
+		throw new IllegalArgumentException("Invalid stop bits: " + stopBits);
+	}
+
+	/**
+	 * @return the number of bits on the wire per character, including the
+	 *         start bit
+	 */
+	float getBitsPerCharacter() {
+		return 1 + dataBits + (parity == 'N' ? 0 : 1) + stopBits;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof LineConfig)) {
+			return false;
+		}
+		final LineConfig other = (LineConfig) obj;
+		return baudRate == other.baudRate && parity == other.parity
+				&& dataBits == other.dataBits && stopBits == other.stopBits;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = baudRate;
+		result = 31 * result + parity;
+		result = 31 * result + dataBits;
+		result = 31 * result + Float.floatToIntBits(stopBits);
+		return result;
+	}
+
+	/**
+	 * e.g. "9600 7E1"
+	 */
+	@Override
+	public String toString() {
+		return baudRate + " " + dataBits + parity
+				+ (stopBits == 1.5f ? "1.5" : String.valueOf((int) stopBits));
+	}
+}
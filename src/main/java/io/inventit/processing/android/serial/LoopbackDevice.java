@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simulated serial device opened by the "loopback" type in place of a USB
+ * serial device, so that the whole I/O pipeline runs without any hardware.
+ *
+ * The device is looked up by the port identifier, and echoes the received
+ * data by default. Set a {@link Responder} to script another behavior, or
+ * {@link #send(byte[])} to push data to the host at any time. The reads and
+ * writes of the host can be paced by the baud rate, split into packets,
+ * delayed by a random jitter and made to fail.
+ *
+ * <pre>
+ * LoopbackDevice.get(&quot;sensor&quot;).setPaced(true);
+ * Serial port = new Serial(&quot;loopback&quot;, this);
+ * port.start(&quot;sensor&quot;, 115200);
+ * </pre>
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public final class LoopbackDevice {
+
+	/**
+	 * Scripts the reaction of a device to the data written by the host.
+	 */
+	public interface Responder {
+
+		/**
+		 * Invoked on the I/O thread for each write of the host. The data must
+		 * not be retained after returning.
+		 *
+		 * @param device
+		 * @param data
+		 * @param offset
+		 * @param length
+		 */
+		void onReceived(LoopbackDevice device, byte[] data, int offset,
+				int length);
+	}
+
+	/**
+	 * Sends back the received data as it is
+	 */
+	public static final Responder ECHO = new Responder() {
+		public void onReceived(LoopbackDevice device, byte[] data, int offset,
+				int length) {
+			device.send(data, offset, length);
+		}
+	};
+
+	/**
+	 * The size of the FIFO towards the host
+	 */
+	private static final int FIFO_SIZE = 64 * 1024;
+
+	/**
+	 * Synchronized by the class
+	 */
+	private static final Map<String, LoopbackDevice> DEVICES = new TreeMap<String, LoopbackDevice>();
+
+	private final String name;
+
+	/**
+	 * The data towards the host, synchronized by 'this'
+	 */
+	private final RingBuffer fifo = new RingBuffer(FIFO_SIZE,
+			RingBuffer.OverflowPolicy.DROP_NEWEST);
+
+	private final Random random = new Random();
+
+	private final AtomicInteger injectedErrors = new AtomicInteger();
+
+	private final AtomicLong receivedBytes = new AtomicLong();
+
+	private volatile Responder responder = ECHO;
+
+	private volatile int packetSize = 64;
+
+	private volatile boolean paced = false;
+
+	private volatile long jitterMillis = 0;
+
+	private volatile float errorRate = 0;
+
+	private volatile LineConfig lineConfig = LineConfig.DEFAULT;
+
+	private LoopbackDevice(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Returns the device of the given name, created unless exists.
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static LoopbackDevice get(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("name is required.");
+		}
+		synchronized (LoopbackDevice.class) {
+			LoopbackDevice device = DEVICES.get(name);
+			if (device == null) {
+				device = new LoopbackDevice(name);
+				DEVICES.put(name, device);
+			}
+			return device;
+		}
+	}
+
+	/**
+	 * Removes the device of the given name. The open ports of the device keep
+	 * working.
+	 *
+	 * @param name
+	 */
+	public static void remove(String name) {
+		synchronized (LoopbackDevice.class) {
+			DEVICES.remove(name);
+		}
+	}
+
+	/**
+	 * @return the names of the devices
+	 */
+	static String[] list() {
+		synchronized (LoopbackDevice.class) {
+			return DEVICES.keySet().toArray(new String[DEVICES.size()]);
+		}
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param responder
+	 *            the responder to set, null to discard the received data
+	 */
+	public void setResponder(Responder responder) {
+		this.responder = responder;
+	}
+
+	/**
+	 * @param packetSize
+	 *            the max number of bytes returned by a read of the host, 64 by
+	 *            default
+	 */
+	public void setPacketSize(int packetSize) {
+		if (packetSize < 1) {
+			throw new IllegalArgumentException("Invalid packetSize: "
+					+ packetSize);
+		}
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * @param paced
+	 *            true to take as long as the line configuration of the host
+	 *            requires to transfer the data, false by default
+	 */
+	public void setPaced(boolean paced) {
+		this.paced = paced;
+	}
+
+	/**
+	 * @param jitterMillis
+	 *            the max random delay added to each read and write of the host,
+	 *            0 by default
+	 */
+	public void setJitterMillis(long jitterMillis) {
+		this.jitterMillis = jitterMillis;
+	}
+
+	/**
+	 * @param errorRate
+	 *            the probability of failing each read and write of the host, 0
+	 *            by default
+	 */
+	public void setErrorRate(float errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Makes the given number of the next reads or writes of the host fail.
+	 *
+	 * @param count
+	 */
+	public void injectErrors(int count) {
+		injectedErrors.addAndGet(count);
+	}
+
+	/**
+	 * @return the line configuration set by the host
+	 */
+	public LineConfig getLineConfig() {
+		return lineConfig;
+	}
+
+	/**
+	 * @return the number of bytes written by the host
+	 */
+	public long getReceivedBytes() {
+		return receivedBytes.get();
+	}
+
+	/**
+	 * @return the number of bytes sent to the host and discarded as the FIFO
+	 *         was full
+	 */
+	public long getDroppedBytes() {
+		synchronized (this) {
+			return fifo.getDroppedBytes();
+		}
+	}
+
+	/**
+	 * Sends the data to the host.
+	 *
+	 * @param data
+	 */
+	public void send(byte[] data) {
+		send(data, 0, data.length);
+	}
+
+	/**
+	 * Sends the data to the host. The data which doesn't fit the FIFO is
+	 * discarded.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	public void send(byte[] data, int offset, int length) {
+		synchronized (this) {
+			fifo.write(data, offset, length);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Discards the data not read by the host yet.
+	 */
+	public void clear() {
+		synchronized (this) {
+			fifo.clear();
+		}
+	}
+
+	/**
+	 * Invoked by the host to set the line configuration.
+	 *
+	 * @param lineConfig
+	 */
+	void setLineConfig(LineConfig lineConfig) {
+		this.lineConfig = lineConfig;
+	}
+
+	/**
+	 * Invoked by the host to read a packet.
+	 *
+	 * @param dst
+	 * @param timeoutMillis
+	 *            0 not to wait
+	 * @return the number of bytes read, 0 on timeout
+	 * @throws IOException
+	 *             if an error is injected
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting
+	 */
+	int read(byte[] dst, long timeoutMillis) throws IOException {
+		failIfInjected("read");
+		final int length;
+		synchronized (this) {
+			final long deadline = System.currentTimeMillis() + timeoutMillis;
+			long wait = timeoutMillis;
+			while (fifo.available() == 0 && wait > 0) {
+				try {
+					wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				wait = deadline - System.currentTimeMillis();
+			}
+			length = fifo.read(dst, 0, Math.min(packetSize, dst.length));
+		}
+		if (length > 0) {
+			delay(length);
+		}
+		return length;
+	}
+
+	/**
+	 * Invoked by the host to write the data, which is passed to the
+	 * {@link Responder}.
+	 *
+	 * @param src
+	 * @param length
+	 * @throws IOException
+	 *             if an error is injected
+	 */
+	void write(byte[] src, int length) throws IOException {
+		failIfInjected("write");
+		delay(length);
+		receivedBytes.addAndGet(length);
+		final Responder responder = this.responder;
+		if (responder != null) {
+			responder.onReceived(this, src, 0, length);
+		}
+	}
+
+	private void failIfInjected(String operation) throws IOException {
+		int errors;
+		while ((errors = injectedErrors.get()) > 0) {
+			if (injectedErrors.compareAndSet(errors, errors - 1)) {
+				throw new IOException("Injected " + operation + " error: "
+						+ name);
+			}
+		}
+		final float errorRate = this.errorRate;
+		if (errorRate > 0 && random.nextFloat() < errorRate) {
+			throw new IOException("Injected " + operation + " error: " + name);
+		}
+	}
+
+	/**
+	 * Sleeps for the transfer time of the given number of bytes plus jitter.
+	 *
+	 * @param length
+	 * @throws IOException
+	 */
+	private void delay(int length) throws IOException {
+		long nanos = 0;
+		if (paced) {
+			final LineConfig lineConfig = this.lineConfig;
+			// in double, as the float bits per character loses the
+			// nanoseconds at low baud rates
+			nanos = Math.round(length
+					* (double) lineConfig.getBitsPerCharacter() * 1000000000L
+					/ lineConfig.getBaudRate());
+		}
+		final long jitterMillis = this.jitterMillis;
+		if (jitterMillis > 0) {
+			nanos += (long) (random.nextDouble() * jitterMillis * 1000000L);
+		}
+		if (nanos > 0) {
+			try {
+				Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+}
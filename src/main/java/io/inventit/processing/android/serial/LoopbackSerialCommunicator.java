@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import io.inventit.processing.android.serial.SerialInputOutputManager.Listener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import processing.core.PApplet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serial class implementation with a {@link LoopbackDevice}, running the same
+ * {@link SerialInputOutputManager} pipeline as the USB serial without any
+ * hardware, e.g. for tests and benchmarks off the device.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class LoopbackSerialCommunicator extends AbstractAndroidSerialCommunicator
+		implements Listener {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(LoopbackSerialCommunicator.class);
+
+	/**
+	 * {@link LoopbackSerialPort}
+	 */
+	private LoopbackSerialPort loopbackSerialPort;
+
+	/**
+	 * {@link UsbDeviceSession} servicing the port on the shared scheduler
+	 */
+	private UsbDeviceSession deviceSession;
+
+	/**
+	 * {@link SerialInputOutputManager}
+	 */
+	private SerialInputOutputManager serialInputOutputManager;
+
+	/**
+	 * {@link ReconnectController}
+	 */
+	private final ReconnectController reconnectController;
+
+	/**
+	 * @param parent
+	 *            null if no serialEvent() is delivered
+	 */
+	public LoopbackSerialCommunicator(PApplet parent) {
+		super(parent, null);
+		this.reconnectController = new ReconnectController(
+				new ReconnectController.Target() {
+					public void disconnect() {
+						closeSerialPort();
+					}
+
+					public boolean reconnect() {
+						return openSerialPort(getPortIdentifier(),
+								getLineConfig());
+					}
+				}, this, SerialCommunicatorFacory.getInstance()
+						.getIoScheduler());
+		if (getMetrics() != null) {
+			reconnectController.addListener(getMetrics()
+					.getReconnectListener());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doStart(java.lang.String, int,
+	 *      char, int, float)
+	 */
+	@Override
+	protected void doStart(String portIdentifier, int baudrate, char parity,
+			int dataBits, float stopBits) {
+		if (openSerialPort(portIdentifier, getLineConfig())) {
+			reconnectController.connected();
+		} else {
+			LOGGER.error("Failed to start: port={}", portIdentifier);
+		}
+	}
+
+	/**
+	 * Opens the port of the device named by the port identifier.
+	 *
+	 * @param portIdentifier
+	 * @param lineConfig
+	 * @return true if the port is ready
+	 */
+	protected synchronized boolean openSerialPort(String portIdentifier,
+			LineConfig lineConfig) {
+		if (this.loopbackSerialPort != null) {
+			return true;
+		}
+		if (portIdentifier == null) {
+			LOGGER.error("The loopback device name is required.");
+			return false;
+		}
+		final LoopbackSerialPort port = new LoopbackSerialPort(
+				LoopbackDevice.get(portIdentifier));
+		final UsbDeviceSession session = UsbDeviceSession
+				.acquire(portIdentifier);
+		try {
+			port.open(null);
+			port.setParameters(lineConfig.getBaudRate(),
+					lineConfig.getPortDataBits(), lineConfig.getPortStopBits(),
+					lineConfig.getPortParity());
+		} catch (IOException exception) {
+			LOGGER.error("Failed to open the port: port={}, config={}",
+					portIdentifier, lineConfig);
+			session.release();
+			return false;
+		}
+		this.deviceSession = session;
+		this.loopbackSerialPort = port;
+		this.serialInputOutputManager = new SerialInputOutputManager(port,
+				null, this);
+		this.serialInputOutputManager.setMetrics(getMetrics());
+		session.attach(serialInputOutputManager, null);
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doSetLineConfig(LineConfig)
+	 */
+	@Override
+	protected synchronized void doSetLineConfig(final LineConfig lineConfig) {
+		final LoopbackSerialPort port = loopbackSerialPort;
+		if (port == null) {
+			// applied when (re)connected
+			return;
+		}
+		final UsbDeviceSession session = deviceSession;
+		// the data written so far goes out with the current configuration
+		getSerialInputOutputManager().flush();
+		try {
+			session.runQuiesced(new UsbDeviceSession.QuiescedTask() {
+				public void run() throws IOException {
+					port.setParameters(lineConfig.getBaudRate(),
+							lineConfig.getPortDataBits(),
+							lineConfig.getPortStopBits(),
+							lineConfig.getPortParity());
+				}
+			});
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	/**
+	 * @return the serialInputOutputManager
+	 */
+	protected SerialInputOutputManager getSerialInputOutputManager() {
+		final SerialInputOutputManager serialInputOutputManager = this.serialInputOutputManager;
+		if (serialInputOutputManager == null) {
+			throw new IllegalStateException(
+					"The serial connection is already closed.");
+		}
+		return serialInputOutputManager;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doStop()
+	 */
+	@Override
+	protected void doStop() {
+		reconnectController.stop();
+		closeSerialPort();
+	}
+
+	/**
+	 * Closes the port, leaving the received data.
+	 */
+	private void closeSerialPort() {
+		final SerialInputOutputManager serialInputOutputManager = this.serialInputOutputManager;
+		if (serialInputOutputManager != null) {
+			serialInputOutputManager.stop();
+			this.serialInputOutputManager = null;
+		}
+		final LoopbackSerialPort port = this.loopbackSerialPort;
+		if (port != null) {
+			try {
+				port.close();
+			} catch (IOException ignored) {
+			}
+			try {
+				deviceSession.release();
+			} finally {
+				this.loopbackSerialPort = null;
+				this.deviceSession = null;
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialInputOutputManager.Listener#onNewData(byte[], int, int)
+	 */
+	public void onNewData(byte[] data, int offset, int length) {
+		sendBuffer(data, offset, length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialInputOutputManager.Listener#onRunError(java.lang.Exception)
+	 */
+	public boolean onRunError(Exception e) {
+		LOGGER.warn("Exception detected. Reconnecting.", e);
+		reconnectController.disconnected(e);
+		return true; // stop
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#addReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void addReconnectListener(ReconnectListener listener) {
+		reconnectController.addListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#removeReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void removeReconnectListener(ReconnectListener listener) {
+		reconnectController.removeListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#list()
+	 */
+	@Override
+	public String[] list() {
+		return LoopbackDevice.list();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(byte[])
+	 */
+	@Override
+	public void write(byte[] what) {
+		final int written = getSerialInputOutputManager().writeAsync(what);
+		recordWritten(what, 0, written);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int write(ByteBuffer what) {
+		final int position = what.position();
+		final int written = getSerialInputOutputManager().writeAsync(what);
+		recordWritten(what, position, written);
+		return written;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#flush()
+	 */
+	@Override
+	public void flush() {
+		getSerialInputOutputManager().flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#pendingWriteBytes()
+	 */
+	@Override
+	public int pendingWriteBytes() {
+		return getSerialInputOutputManager().getPendingWriteBytes();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#droppedWriteBytes()
+	 */
+	@Override
+	public long droppedWriteBytes() {
+		return getSerialInputOutputManager().getDroppedWriteBytes();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(int)
+	 */
+	@Override
+	public void write(int what) {
+		write(new byte[] { (byte) what });
+	}
+}
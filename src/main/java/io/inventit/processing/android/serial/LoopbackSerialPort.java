@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.hardware.usb.UsbDeviceConnection;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+
+/**
+ * {@link UsbSerialPort} connected to a {@link LoopbackDevice} in memory.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+class LoopbackSerialPort implements UsbSerialPort {
+
+	private final LoopbackDevice device;
+
+	private volatile boolean open = false;
+
+	private boolean dtr = false;
+
+	private boolean rts = false;
+
+	/**
+	 * 
+	 * @param device
+	 */
+	LoopbackSerialPort(LoopbackDevice device) {
+		this.device = device;
+	}
+
+	/**
+	 * @return the device
+	 */
+	LoopbackDevice getDevice() {
+		return device;
+	}
+
+	public UsbSerialDriver getDriver() {
+		return null;
+	}
+
+	public int getPortNumber() {
+		return 0;
+	}
+
+	public String getSerial() {
+		return device.getName();
+	}
+
+	/**
+	 * @param connection
+	 *            ignored, may be null
+	 */
+	public void open(UsbDeviceConnection connection) throws IOException {
+		if (open) {
+			throw new IOException("Already open");
+		}
+		open = true;
+	}
+
+	public void close() throws IOException {
+		if (!open) {
+			throw new IOException("Already closed");
+		}
+		open = false;
+	}
+
+	public int read(byte[] dest, int timeoutMillis) throws IOException {
+		verifyOpen();
+		return device.read(dest, timeoutMillis);
+	}
+
+	public int write(byte[] src, int timeoutMillis) throws IOException {
+		verifyOpen();
+		device.write(src, src.length);
+		return src.length;
+	}
+
+	public void setParameters(int baudRate, int dataBits, int stopBits,
+			int parity) throws IOException {
+		verifyOpen();
+		try {
+			device.setLineConfig(LineConfig.fromPort(baudRate, dataBits,
+					stopBits, parity));
+		} catch (IllegalArgumentException exception) {
+			throw new IOException(exception.getMessage());
+		}
+	}
+
+	public boolean getCD() throws IOException {
+		return false;
+	}
+
+	public boolean getCTS() throws IOException {
+		return rts;
+	}
+
+	public boolean getDSR() throws IOException {
+		return dtr;
+	}
+
+	public boolean getDTR() throws IOException {
+		return dtr;
+	}
+
+	public void setDTR(boolean value) throws IOException {
+		dtr = value;
+	}
+
+	public boolean getRI() throws IOException {
+		return false;
+	}
+
+	public boolean getRTS() throws IOException {
+		return rts;
+	}
+
+	public void setRTS(boolean value) throws IOException {
+		rts = value;
+	}
+
+	public boolean purgeHwBuffers(boolean flushReadBuffers,
+			boolean flushWriteBuffers) throws IOException {
+		if (flushReadBuffers) {
+			device.clear();
+		}
+		return true;
+	}
+
+	private void verifyOpen() throws IOException {
+		if (!open) {
+			throw new IOException("Port not open");
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Parses the frames of a port on the {@link FrameParserPool}, and queues the
+ * values in the order of the frames for the sketch, returned by
+ * {@link SerialCommunicator#setFrameParser(FrameParser)}.
+ *
+ * Each frame takes the slot of its sequence number in a ring, which also
+ * holds the copy of the frame, so a value is published by a worker into its
+ * own slot and polled lock-free in order. When all the slots are taken by
+ * the frames being parsed or not polled yet, the I/O thread waits for up to
+ * "parserBackpressureMillis", which stops reading from the device, and then
+ * discards the frame.
+ *
+ * <pre>
+ * ParsingPipeline&lt;Sample&gt; samples = port.setFrameParser(new SampleParser());
+ * Sample sample;
+ * while ((sample = samples.poll()) != null) {
+ * 	plot(sample);
+ * }
+ * </pre>
+ *
+ * @author dbaba@yourinventit.com
+ *
+ * @param <T>
+ *            the type of the parsed values
+ */
+public final class ParsingPipeline<T> {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ParsingPipeline.class);
+
+	/**
+	 * The value of a frame discarded by the parser
+	 */
+	private static final Object DISCARDED = new Object();
+
+	/**
+	 * The interval of checking the slots while waiting
+	 */
+	private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MICROSECONDS
+			.toNanos(100);
+
+	/**
+	 * Parses the frame of a slot, reused for the sequence numbers of the slot
+	 */
+	private final class Task implements Runnable {
+
+		private byte[] frame = new byte[64];
+
+		private int length;
+
+		private long sequence;
+
+		/**
+		 * Invoked by the I/O thread while the slot is free.
+		 */
+		void set(long sequence, byte[] frame, int offset, int length) {
+			if (this.frame.length < length) {
+				this.frame = new byte[Math.max(length, this.frame.length * 2)];
+			}
+			System.arraycopy(frame, offset, this.frame, 0, length);
+			this.length = length;
+			this.sequence = sequence;
+		}
+
+		public void run() {
+			Object value = null;
+			try {
+				value = parser.parse(frame, 0, length);
+			} catch (Exception exception) {
+				parseErrors.incrementAndGet();
+				LOGGER.debug("Failed to parse a frame.", exception);
+			} catch (Error error) {
+				parseErrors.incrementAndGet();
+				throw error;
+			} finally {
+				// fills the slot in any case, or the values after it are
+				// never polled
+				publish(sequence, value);
+			}
+		}
+	}
+
+	private final FrameParser<T> parser;
+
+	private final FrameParserPool pool;
+
+	private final long backpressureNanos;
+
+	private final int mask;
+
+	private final AtomicReferenceArray<Object> values;
+
+	private final ArrayList<Task> tasks;
+
+	/**
+	 * The sequence number of the next value to poll
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The sequence number of the next frame, written by the I/O thread only
+	 */
+	private volatile long tail = 0;
+
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	private final AtomicLong parseErrors = new AtomicLong();
+
+	private volatile boolean closed;
+
+	/**
+	 * Registers to the pool until closed.
+	 *
+	 * @param parser
+	 * @param pool
+	 * @param capacity
+	 *            the number of the slots, rounded up to a power of two
+	 * @param backpressureMillis
+	 *            the max time the I/O thread waits for a slot
+	 */
+	ParsingPipeline(FrameParser<T> parser, FrameParserPool pool, int capacity,
+			long backpressureMillis) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid capacity: "
+					+ capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.parser = parser;
+		this.pool = pool;
+		this.backpressureNanos = TimeUnit.MILLISECONDS
+				.toNanos(backpressureMillis);
+		this.mask = size - 1;
+		this.values = new AtomicReferenceArray<Object>(size);
+		this.tasks = new ArrayList<Task>(size);
+		for (int i = 0; i < size; i++) {
+			this.tasks.add(new Task());
+		}
+		pool.register();
+	}
+
+	/**
+	 * Hands a frame to the workers, waiting for a free slot while the
+	 * workers or the sketch fall behind. Invoked by the I/O thread only.
+	 *
+	 * @param frame
+	 * @param offset
+	 * @param length
+	 */
+	void offer(byte[] frame, int offset, int length) {
+		final long sequence = tail;
+		if (sequence - head.get() > mask && !awaitSlot(sequence)) {
+			droppedFrames.incrementAndGet();
+			return;
+		}
+		final Task task = tasks.get((int) sequence & mask);
+		task.set(sequence, frame, offset, length);
+		tail = sequence + 1;
+		if (!pool.execute(task)) {
+			// closed
+			publish(sequence, null);
+		}
+	}
+
+	private boolean awaitSlot(long sequence) {
+		final long deadline = System.nanoTime() + backpressureNanos;
+		while (sequence - head.get() > mask) {
+			if (closed || System.nanoTime() - deadline >= 0) {
+				return false;
+			}
+			LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+		}
+		return true;
+	}
+
+	private void publish(long sequence, Object value) {
+		values.set((int) sequence & mask, value == null ? DISCARDED : value);
+	}
+
+	/**
+	 * Returns the next value in the order of the frames. Invoked by one
+	 * thread at a time, usually the sketch thread.
+	 *
+	 * @return null if the value of the next frame is not ready
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		while (true) {
+			final long h = head.get();
+			if (h == tail) {
+				return null;
+			}
+			final int index = (int) h & mask;
+			final Object value = values.get(index);
+			if (value == null) {
+				// being parsed
+				return null;
+			}
+			values.set(index, null);
+			head.set(h + 1);
+			if (value != DISCARDED) {
+				return (T) value;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of the frames being parsed or not polled yet
+	 */
+	public int pending() {
+		return (int) (tail - head.get());
+	}
+
+	/**
+	 * @return the number of the frames discarded as no slot was freed in time
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+	/**
+	 * @return the number of the frames failed to parse
+	 */
+	public long getParseErrors() {
+		return parseErrors.get();
+	}
+
+	/**
+	 * Unregisters from the pool. The frames being parsed are still published.
+	 */
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		pool.unregister();
+	}
+}
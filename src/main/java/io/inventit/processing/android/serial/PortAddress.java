@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * The address of a port of a USB serial device, formatted as
+ * "&lt;device name&gt;#&lt;port index&gt;" e.g. "/dev/bus/usb/001/002#3". The
+ * port index can be omitted for the first port.
+ * 
+ * The bundled usb-serial-for-android b96f9ca reports only the first port of
+ * every device, so the other ports are available only with a newer revision.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class PortAddress {
+
+	private static final char SEPARATOR = '#';
+
+	private final String deviceName;
+
+	private final int portIndex;
+
+	/**
+	 * 
+	 * @param deviceName
+	 *            null for any device
+	 * @param portIndex
+	 */
+	PortAddress(String deviceName, int portIndex) {
+		this.deviceName = deviceName;
+		this.portIndex = portIndex;
+	}
+
+	/**
+	 * Parses the port identifier.
+	 * 
+	 * @param portIdentifier
+	 *            null or empty for the first port of any device
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the port index is invalid
+	 */
+	static PortAddress parse(String portIdentifier) {
+		if (portIdentifier == null || portIdentifier.length() == 0) {
+			return new PortAddress(null, 0);
+		}
+		final int separator = portIdentifier.lastIndexOf(SEPARATOR);
+		if (separator < 0) {
+			return new PortAddress(portIdentifier, 0);
+		}
+		final int portIndex;
+		try {
+			portIndex = Integer.parseInt(portIdentifier
+					.substring(separator + 1));
+		} catch (NumberFormatException exception) {
+			throw new IllegalArgumentException("Invalid port index: "
+					+ portIdentifier);
+		}
+		if (portIndex < 0) {
+			throw new IllegalArgumentException("Invalid port index: "
+					+ portIdentifier);
+		}
+		return new PortAddress(separator == 0 ? null
+				: portIdentifier.substring(0, separator), portIndex);
+	}
+
+	/**
+	 * Formats the port identifier, omitting the index of the first port.
+	 * 
+	 * @param deviceName
+	 * @param portIndex
+	 * @return
+	 */
+	static String format(String deviceName, int portIndex) {
+		if (portIndex == 0) {
+			return deviceName;
+		}
+		return deviceName + SEPARATOR + portIndex;
+	}
+
+	/**
+	 * @return the deviceName, null for any device
+	 */
+	String getDeviceName() {
+		return deviceName;
+	}
+
+	/**
+	 * @return the portIndex
+	 */
+	int getPortIndex() {
+		return portIndex;
+	}
+
+	@Override
+	public String toString() {
+		return format(deviceName == null ? "" : deviceName, portIndex);
+	}
+}
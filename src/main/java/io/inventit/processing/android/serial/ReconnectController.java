@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Reconnects a lost port with exponential backoff and jitter. The attempts
+ * are scheduled on {@link SerialIoScheduler}, so no thread sleeps while
+ * waiting, and an attempt is made immediately when the device is attached
+ * again.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class ReconnectController {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ReconnectController.class);
+
+	/**
+	 * The port to reconnect
+	 */
+	interface Target {
+
+		/**
+		 * Closes the lost port.
+		 */
+		void disconnect();
+
+		/**
+		 * Opens the port again.
+		 * 
+		 * @return true if succeeded
+		 */
+		boolean reconnect();
+	}
+
+	enum State {
+		CONNECTED, WAITING, STOPPED
+	}
+
+	private final Target target;
+
+	private final Serial serial;
+
+	private final SerialIoScheduler scheduler;
+
+	private final Random random = new Random();
+
+	private final List<ReconnectListener> listeners = new CopyOnWriteArrayList<ReconnectListener>();
+
+	private final Runnable attempt = new Runnable() {
+		public void run() {
+			attempt();
+		}
+	};
+
+	// Synchronized by 'this'
+	private State state = State.CONNECTED;
+
+	// Synchronized by 'this'
+	private int attempts = 0;
+
+	// Synchronized by 'this'
+	private ScheduledFuture<?> pendingAttempt;
+
+	/**
+	 * 
+	 * @param target
+	 * @param serial
+	 *            passed to the listeners
+	 * @param scheduler
+	 */
+	ReconnectController(Target target, Serial serial,
+			SerialIoScheduler scheduler) {
+		this.target = target;
+		this.serial = serial;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param listener
+	 */
+	void addListener(ReconnectListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	void removeListener(ReconnectListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the state
+	 */
+	synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Marks the port connected by start().
+	 */
+	synchronized void connected() {
+		state = State.CONNECTED;
+	}
+
+	/**
+	 * Closes the lost port and schedules the first attempt. Ignored unless
+	 * connected.
+	 * 
+	 * @param cause
+	 */
+	void disconnected(Exception cause) {
+		synchronized (this) {
+			if (state != State.CONNECTED) {
+				return;
+			}
+			state = State.WAITING;
+			attempts = 0;
+			// keeps the workers alive while no port is open
+			scheduler.register();
+			target.disconnect();
+			schedule(nextDelay());
+		}
+		for (ReconnectListener listener : listeners) {
+			listener.onDisconnected(serial, cause);
+		}
+	}
+
+	/**
+	 * Makes an attempt immediately if waiting, e.g. when the device is
+	 * attached again.
+	 */
+	synchronized void retryNow() {
+		if (state != State.WAITING) {
+			return;
+		}
+		if (pendingAttempt != null) {
+			pendingAttempt.cancel(false);
+		}
+		schedule(0);
+	}
+
+	/**
+	 * Stops reconnecting. Waits for the attempt in progress if any.
+	 */
+	synchronized void stop() {
+		if (state == State.WAITING) {
+			if (pendingAttempt != null) {
+				pendingAttempt.cancel(false);
+				pendingAttempt = null;
+			}
+			scheduler.unregister();
+		}
+		state = State.STOPPED;
+	}
+
+	private void attempt() {
+		final int attempts;
+		synchronized (this) {
+			if (state != State.WAITING) {
+				return;
+			}
+			attempts = ++this.attempts;
+			if (!target.reconnect()) {
+				final long delay = nextDelay();
+				LOGGER.info("Reconnect attempt {} failed, retrying in {} ms.",
+						attempts, delay);
+				schedule(delay);
+				return;
+			}
+			state = State.CONNECTED;
+			pendingAttempt = null;
+			scheduler.unregister();
+		}
+		LOGGER.info("Reconnected after {} attempt(s).", attempts);
+		for (ReconnectListener listener : listeners) {
+			listener.onReconnected(serial, attempts);
+		}
+	}
+
+	private void schedule(long delayMillis) {
+		pendingAttempt = scheduler.schedule(attempt, delayMillis);
+	}
+
+	/**
+	 * Returns the delay before the next attempt, doubled on each attempt up
+	 * to the max with the jitter applied.
+	 * 
+	 * @return
+	 */
+	long nextDelay() {
+		return nextDelay(attempts, Config.getReconnectInitialDelay(),
+				Config.getWaitOnException(), Config.getReconnectJitter(),
+				random.nextDouble());
+	}
+
+	/**
+	 * 
+	 * @param attempts
+	 *            the number of the failed attempts
+	 * @param initialDelay
+	 * @param maxDelay
+	 * @param jitter
+	 *            the max ratio of the random variation
+	 * @param random
+	 *            from 0 to 1
+	 * @return
+	 */
+	static long nextDelay(int attempts, long initialDelay, long maxDelay,
+			float jitter, double random) {
+		final long delay = Math.min(maxDelay,
+				initialDelay << Math.min(attempts, 30));
+		return Math.max(0, (long) (delay * (1 - jitter + 2 * jitter * random)));
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Notified when the port is lost and when it is reconnected. The port is
+ * reconnected with exponential backoff until it succeeds or
+ * {@link Serial#stop()} is called, and the received data not read yet is
+ * preserved.
+ * 
+ * The methods are invoked on the serial I/O threads.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public interface ReconnectListener {
+
+	/**
+	 * Invoked when the port is lost due to an error.
+	 * 
+	 * @param serial
+	 * @param cause
+	 */
+	void onDisconnected(Serial serial, Exception cause);
+
+	/**
+	 * Invoked when the port is reconnected.
+	 * 
+	 * @param serial
+	 * @param attempts
+	 *            the number of attempts made
+	 */
+	void onReconnected(Serial serial, int attempts);
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes an event method of the sketch reflectively, for the sketches not
+ * implementing {@link SerialEventListener}. The method is resolved and made
+ * accessible once, and the arguments array is reused.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class ReflectiveEventListener implements SerialEventListener {
+
+	private final Object target;
+
+	private final Method method;
+
+	private final Object[] args = new Object[1];
+
+	/**
+	 * 
+	 * @param target
+	 * @param method
+	 */
+	ReflectiveEventListener(Object target, Method method) {
+		this.target = target;
+		this.method = method;
+		try {
+			method.setAccessible(true);
+		} catch (SecurityException ignored) {
+			// the public method is still invocable
+		}
+	}
+
+	/**
+	 * Finds the event method taking a {@link Serial} from the target.
+	 * 
+	 * @param target
+	 * @param name
+	 * @return null if missing
+	 */
+	static ReflectiveEventListener create(Object target, String name) {
+		for (Method method : target.getClass().getMethods()) {
+			if (name.equals(method.getName())) {
+				final Class<?>[] paramTypes = method.getParameterTypes();
+				if (paramTypes != null
+						&& paramTypes.length == 1
+						&& (SerialCommunicator.class
+								.isAssignableFrom(paramTypes[0]) || Serial.class
+								.isAssignableFrom(paramTypes[0]))) {
+					return new ReflectiveEventListener(target, method);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the method
+	 */
+	Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialEventListener#serialEvent(Serial)
+	 */
+	public void serialEvent(Serial serial) {
+		// invoked on the I/O thread only
+		args[0] = serial;
+		try {
+			method.invoke(target, args);
+		} catch (IllegalAccessException unexpected) {
+			throw new IllegalStateException(unexpected);
+		} catch (InvocationTargetException unexpected) {
+			throw new IllegalStateException(unexpected);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import processing.core.PApplet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Serial class implementation replaying the data received in a capture, see
+ * {@link SerialCommunicator#startCapture(String)}, through the same
+ * {@link #sendBuffer(byte[], int, int)} and serialEvent() path as a device.
+ *
+ * The port identifier is the path of the capture, i.e. the directory and the
+ * port name of the segment files like "/sdcard/capture/ttyUSB0". The chunks
+ * are replayed with the original intervals scaled by "replaySpeed", or as
+ * fast as possible when it's 0. The captures in the directory are replayed
+ * back to back, without the time between them. The data written by the
+ * sketch is discarded.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class ReplaySerialCommunicator extends AbstractAndroidSerialCommunicator {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(ReplaySerialCommunicator.class);
+
+	/**
+	 * The max time of a step delivering the chunks due, so that the other
+	 * loops sharing the workers keep running
+	 */
+	private static final long STEP_NANOS = 10 * 1000000L;
+
+	private final SerialIoScheduler ioScheduler = SerialCommunicatorFacory
+			.getInstance().getIoScheduler();
+
+	private final Runnable replayStep = new Runnable() {
+		public void run() {
+			replay();
+		}
+	};
+
+	/**
+	 * The following fields are accessed by the steps, one at a time
+	 */
+	private CaptureReader reader;
+
+	private byte[] chunk = new byte[4096];
+
+	/**
+	 * true if the current record of the reader is not delivered yet
+	 */
+	private boolean pending;
+
+	private float speed;
+
+	private long startNanos;
+
+	private long firstTimestamp;
+
+	private long lastTimestamp;
+
+	private volatile boolean replaying;
+
+	// Synchronized by 'this'
+	private ScheduledFuture<?> nextStep;
+
+	/**
+	 * @param parent
+	 *            null if no serialEvent() is delivered
+	 */
+	public ReplaySerialCommunicator(PApplet parent) {
+		super(parent, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doStart(java.lang.String, int,
+	 *      char, int, float)
+	 */
+	@Override
+	protected synchronized void doStart(String portIdentifier, int baudrate,
+			char parity, int dataBits, float stopBits) {
+		if (replaying) {
+			return;
+		}
+		final File capture = new File(portIdentifier);
+		final File directory = capture.getParentFile() == null ? new File(".")
+				: capture.getParentFile();
+		final CaptureReader reader = new CaptureReader(directory,
+				capture.getName());
+		if (reader.getSegments() == 0) {
+			LOGGER.error("No capture found: port={}", portIdentifier);
+			return;
+		}
+		this.reader = reader;
+		this.pending = false;
+		this.speed = Config.getReplaySpeed();
+		this.firstTimestamp = -1;
+		this.startNanos = System.nanoTime();
+		ioScheduler.register();
+		this.replaying = true;
+		scheduleReplay(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doSetLineConfig(LineConfig)
+	 */
+	@Override
+	protected void doSetLineConfig(LineConfig lineConfig) {
+		// the timing comes from the capture
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AbstractAndroidSerialCommunicator#doStop()
+	 */
+	@Override
+	protected void doStop() {
+		finish();
+	}
+
+	/**
+	 * @return true while replaying
+	 */
+	boolean isReplaying() {
+		return replaying;
+	}
+
+	private synchronized void scheduleReplay(long delayMillis) {
+		if (replaying) {
+			nextStep = ioScheduler.schedule(replayStep, delayMillis);
+		}
+	}
+
+	private synchronized void finish() {
+		if (!replaying) {
+			return;
+		}
+		replaying = false;
+		if (nextStep != null) {
+			nextStep.cancel(false);
+			nextStep = null;
+		}
+		ioScheduler.unregister();
+	}
+
+	/**
+	 * Delivers the chunks due, and schedules the next step.
+	 */
+	private void replay() {
+		final long deadline = System.nanoTime() + STEP_NANOS;
+		try {
+			while (replaying) {
+				if (!pending) {
+					if (!reader.next()) {
+						LOGGER.info("Replay finished: port={}",
+								getPortIdentifier());
+						finish();
+						return;
+					}
+					if (reader.isCaptureStart()) {
+						rebase(reader.getTimestamp());
+					}
+					lastTimestamp = reader.getTimestamp();
+					if (reader.getDirection() != CaptureReader.RECEIVED) {
+						continue;
+					}
+					pending = true;
+				}
+				final long delayMillis = delayMillisOf(reader.getTimestamp());
+				if (delayMillis > 0) {
+					scheduleReplay(delayMillis);
+					return;
+				}
+				deliver(reader.getData());
+				pending = false;
+				if (System.nanoTime() - deadline >= 0) {
+					scheduleReplay(0);
+					return;
+				}
+			}
+		} catch (IOException exception) {
+			LOGGER.error("Failed to replay: port={}", getPortIdentifier(),
+					exception);
+			finish();
+		}
+	}
+
+	/**
+	 * Returns how long to wait for the record of the given timestamp.
+	 *
+	 * @param timestamp
+	 * @return 0 if due
+	 */
+	private long delayMillisOf(long timestamp) {
+		if (speed <= 0) {
+			return 0;
+		}
+		if (firstTimestamp < 0) {
+			firstTimestamp = timestamp;
+		}
+		return (dueNanosOf(timestamp) - System.nanoTime()) / 1000000L;
+	}
+
+	/**
+	 * Starts the timing of the next capture in the directory at the due time
+	 * of the last record, skipping the time between the captures.
+	 *
+	 * @param timestamp
+	 *            the first timestamp of the capture
+	 */
+	private void rebase(long timestamp) {
+		if (speed > 0 && firstTimestamp >= 0) {
+			startNanos = dueNanosOf(lastTimestamp);
+		}
+		firstTimestamp = timestamp;
+	}
+
+	/**
+	 * @param timestamp
+	 * @return the time the record of the given timestamp is due
+	 */
+	private long dueNanosOf(long timestamp) {
+		// in double, as the elapsed microseconds exceed the float precision
+		return startNanos
+				+ (long) ((timestamp - firstTimestamp) * 1000.0 / speed);
+	}
+
+	/**
+	 * Copies the chunk out of the mapped capture into the buffer.
+	 *
+	 * @param data
+	 */
+	private void deliver(ByteBuffer data) {
+		final int length = data.remaining();
+		if (chunk.length < length) {
+			chunk = new byte[Math.max(length, chunk.length * 2)];
+		}
+		data.get(chunk, 0, length);
+		sendBuffer(chunk, 0, length);
+	}
+
+	/**
+	 * Returns the captures in the "captureDirectory".
+	 *
+	 * @see SerialCommunicator#list()
+	 */
+	@Override
+	public String[] list() {
+		return list(Config.getCaptureDirectory());
+	}
+
+	/**
+	 * Returns the paths of the captures in the directory.
+	 *
+	 * @param directory
+	 *            null for none
+	 * @return
+	 */
+	static String[] list(String directory) {
+		final String[] files = directory == null ? null : new File(directory)
+				.list();
+		if (files == null) {
+			return new String[0];
+		}
+		final Set<String> captures = new TreeSet<String>();
+		for (String file : files) {
+			if (file.matches(".+-[0-9]+\\" + CaptureWriter.SEGMENT_SUFFIX)) {
+				captures.add(new File(directory, file.substring(0,
+						file.lastIndexOf('-'))).getPath());
+			}
+		}
+		return captures.toArray(new String[captures.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(byte[])
+	 */
+	@Override
+	public void write(byte[] what) {
+		recordWritten(what, 0, what.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(java.nio.ByteBuffer)
+	 */
+	@Override
+	public int write(ByteBuffer what) {
+		final int position = what.position();
+		final int length = what.remaining();
+		what.position(what.limit());
+		recordWritten(what, position, length);
+		return length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#write(int)
+	 */
+	@Override
+	public void write(int what) {
+		write(new byte[] { (byte) what });
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#flush()
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#pendingWriteBytes()
+	 */
+	@Override
+	public int pendingWriteBytes() {
+		return 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see SerialCommunicator#droppedWriteBytes()
+	 */
+	@Override
+	public long droppedWriteBytes() {
+		return 0;
+	}
+}
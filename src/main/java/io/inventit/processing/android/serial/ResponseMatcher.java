@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Tells whether a received frame is the response of a request made by
+ * {@link SerialCommunicator#request(byte[], ResponseMatcher, long, Transaction.Listener)}.
+ * See {@link ResponseMatchers} for the common ones.
+ * 
+ * The frames are offered to the requests in flight from the oldest, and the
+ * first request matching a frame takes it. An implementation is invoked by
+ * the serial I/O thread.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public interface ResponseMatcher {
+
+	/**
+	 * Returns whether the frame is the response. The array must not be
+	 * retained after returning.
+	 * 
+	 * @param frame
+	 *            including the delimiter of bufferUntil()
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	boolean matches(byte[] frame, int offset, int length);
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * The common {@link ResponseMatcher}s.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public final class ResponseMatchers {
+
+	/**
+	 * Matches any frame, i.e. the responses come in the order of the requests
+	 */
+	public static final ResponseMatcher NEXT = new ResponseMatcher() {
+		public boolean matches(byte[] frame, int offset, int length) {
+			return true;
+		}
+	};
+
+	private ResponseMatchers() {
+	}
+
+	/**
+	 * Returns a matcher of the frames carrying the sequence ID of the request
+	 * at the given position, so that the responses may come in any order.
+	 * 
+	 * @param position
+	 *            the position of the ID in the frame
+	 * @param sequenceId
+	 *            the ID byte
+	 * @return
+	 */
+	public static ResponseMatcher sequenceId(final int position,
+			final int sequenceId) {
+		return new ResponseMatcher() {
+			public boolean matches(byte[] frame, int offset, int length) {
+				return position < length
+						&& frame[offset + position] == (byte) sequenceId;
+			}
+		};
+	}
+
+	/**
+	 * Returns a matcher of the frames starting with the given bytes.
+	 * 
+	 * @param prefix
+	 * @return
+	 */
+	public static ResponseMatcher startsWith(final byte[] prefix) {
+		return new ResponseMatcher() {
+			public boolean matches(byte[] frame, int offset, int length) {
+				if (length < prefix.length) {
+					return false;
+				}
+				for (int i = 0; i < prefix.length; i++) {
+					if (frame[offset + i] != prefix[i]) {
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+	}
+}
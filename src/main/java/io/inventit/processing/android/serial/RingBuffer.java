@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer/single-consumer lock-free byte ring buffer.
+ *
+ * The producer is the serial I/O thread calling {@link #write(byte[], int, int)}
+ * and the consumer is the sketch thread calling the read methods. Consumers
+ * must be serialized by the caller (e.g. by <code>synchronized</code>
+ * methods), whereas the producer never takes a lock.
+ *
+ * The positions are monotonically increasing byte counters and the index in
+ * the backing array is derived by masking them, so the capacity is always
+ * rounded up to a power of two.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class RingBuffer {
+
+	/**
+	 * What the producer does when the buffer is full.
+	 */
+	enum OverflowPolicy {
+		/**
+		 * Waits until the consumer frees enough space.
+		 */
+		BLOCK,
+		/**
+		 * Discards the oldest unread bytes to make room.
+		 */
+		DROP_OLDEST,
+		/**
+		 * Discards the bytes which don't fit.
+		 */
+		DROP_NEWEST
+	}
+
+	/**
+	 * The park duration while the producer is waiting for space.
+	 */
+	private static final long BLOCK_PARK_NANOS = 100000L;
+
+	private final byte[] buffer;
+
+	private final int mask;
+
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * The next position to read, advanced by the consumer (and by the producer
+	 * with {@link OverflowPolicy#DROP_OLDEST}).
+	 */
+	private final AtomicLong head = new AtomicLong();
+
+	/**
+	 * The next position to write, advanced by the producer only.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * The number of bytes discarded due to overflow.
+	 */
+	private final AtomicLong droppedBytes = new AtomicLong();
+
+	private volatile boolean closed = false;
+
+	/**
+	 *
+	 * @param capacity
+	 *            the minimum capacity in bytes
+	 * @param overflowPolicy
+	 */
+	RingBuffer(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid capacity: "
+					+ capacity);
+		}
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("overflowPolicy is missing.");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.buffer = new byte[size];
+		this.mask = size - 1;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return the capacity
+	 */
+	int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return the overflowPolicy
+	 */
+	OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return the number of bytes discarded due to overflow
+	 */
+	long getDroppedBytes() {
+		return droppedBytes.get();
+	}
+
+	/**
+	 * @return the position of the next byte to read
+	 */
+	long getReadPosition() {
+		return head.get();
+	}
+
+	/**
+	 * @return the position of the next byte to write
+	 */
+	long getWritePosition() {
+		return tail.get();
+	}
+
+	/**
+	 * Closes this buffer. A blocked producer is released and the further
+	 * writes are discarded, while the remaining bytes are still readable.
+	 */
+	void close() {
+		closed = true;
+	}
+
+	/**
+	 * @return true if closed
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Appends the given bytes. Invoked by the producer only.
+	 *
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return the number of bytes stored
+	 */
+	int write(byte[] src, int offset, int length) {
+		if (closed || length <= 0) {
+			return 0;
+		}
+		final int capacity = buffer.length;
+		switch (overflowPolicy) {
+		case BLOCK:
+			int written = 0;
+			while (written < length) {
+				final int n = Math.min(length - written, free());
+				if (n > 0) {
+					put(src, offset + written, n);
+					written += n;
+				} else if (closed) {
+					droppedBytes.addAndGet(length - written);
+					break;
+				} else {
+					LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				}
+			}
+			return written;
+
+		case DROP_NEWEST:
+			final int accepted = Math.min(length, free());
+			if (accepted < length) {
+				droppedBytes.addAndGet(length - accepted);
+			}
+			put(src, offset, accepted);
+			return accepted;
+
+		default:
+			if (length > capacity) {
+				// only the last bytes can survive
+				droppedBytes.addAndGet(length - capacity);
+				offset += length - capacity;
+				length = capacity;
+			}
+			final long t = tail.get();
+			while (true) {
+				final long h = head.get();
+				final long overflow = (t - h) + length - capacity;
+				if (overflow <= 0) {
+					break;
+				}
+				// the consumer retries its read when this CAS wins
+				if (head.compareAndSet(h, h + overflow)) {
+					droppedBytes.addAndGet(overflow);
+					break;
+				}
+			}
+			put(src, offset, length);
+			return length;
+		}
+	}
+
+	/**
+	 * @return the free space seen from the producer
+	 */
+	private int free() {
+		return buffer.length - (int) (tail.get() - head.get());
+	}
+
+	/**
+	 * Copies the bytes and publishes the new tail.
+	 */
+	private void put(byte[] src, int offset, int length) {
+		if (length <= 0) {
+			return;
+		}
+		final long t = tail.get();
+		final int index = (int) t & mask;
+		final int first = Math.min(length, buffer.length - index);
+		System.arraycopy(src, offset, buffer, index, first);
+		if (first < length) {
+			System.arraycopy(src, offset + first, buffer, 0, length - first);
+		}
+		tail.lazySet(t + length);
+	}
+
+	/**
+	 * @return the number of readable bytes
+	 */
+	int available() {
+		while (true) {
+			final long h = head.get();
+			final long t = tail.get();
+			if (h == head.get()) {
+				return (int) Math.max(0, t - h);
+			}
+		}
+	}
+
+	/**
+	 * Reads a byte. Invoked by the consumer only.
+	 *
+	 * @return the byte value from 0 to 255, or -1 if empty
+	 */
+	int read() {
+		while (true) {
+			final long h = head.get();
+			if (h == tail.get()) {
+				return -1;
+			}
+			final int b = buffer[(int) h & mask] & 0xff;
+			if (head.compareAndSet(h, h + 1)) {
+				return b;
+			}
+		}
+	}
+
+	/**
+	 * Reads bytes into the given array. Invoked by the consumer only.
+	 *
+	 * @param dst
+	 * @param offset
+	 * @param length
+	 * @return the number of bytes read, 0 if empty
+	 */
+	int read(byte[] dst, int offset, int length) {
+		while (true) {
+			final long h = head.get();
+			final int n = (int) Math.min(length, tail.get() - h);
+			if (n <= 0) {
+				return 0;
+			}
+			copy(h, dst, offset, n);
+			if (head.compareAndSet(h, h + n)) {
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Reads bytes into the remaining space of the given buffer, which may be
+	 * direct. Invoked by the consumer only.
+	 *
+	 * @param dst
+	 * @return the number of bytes read, 0 if empty
+	 */
+	int read(ByteBuffer dst) {
+		final int position = dst.position();
+		while (true) {
+			final long h = head.get();
+			final int n = (int) Math.min(dst.remaining(), tail.get() - h);
+			if (n <= 0) {
+				return 0;
+			}
+			final int index = (int) h & mask;
+			final int first = Math.min(n, buffer.length - index);
+			dst.put(buffer, index, first);
+			if (first < n) {
+				dst.put(buffer, 0, n - first);
+			}
+			if (head.compareAndSet(h, h + n)) {
+				return n;
+			}
+			// overwritten by the producer while copying
+			dst.position(position);
+		}
+	}
+
+	/**
+	 * Reads bytes as characters into the given array, mapping each byte to the
+	 * character of the same value. Invoked by the consumer only.
+	 *
+	 * @param dst
+	 * @param offset
+	 * @param length
+	 * @param maxChar
+	 *            the largest character mapped as it is
+	 * @param replacement
+	 *            the character of the bytes above maxChar
+	 * @return the number of characters read, 0 if empty
+	 */
+	int readChars(char[] dst, int offset, int length, int maxChar,
+			char replacement) {
+		while (true) {
+			final long h = head.get();
+			final int n = (int) Math.min(length, tail.get() - h);
+			if (n <= 0) {
+				return 0;
+			}
+			for (int i = 0; i < n; i++) {
+				final int b = buffer[(int) (h + i) & mask] & 0xff;
+				dst[offset + i] = b <= maxChar ? (char) b : replacement;
+			}
+			if (head.compareAndSet(h, h + n)) {
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Copies bytes into the given buffer without consuming them. Invoked by
+	 * the consumer only.
+	 *
+	 * @param dst
+	 * @return the number of bytes copied, 0 if empty
+	 */
+	int peek(ByteBuffer dst) {
+		final int position = dst.position();
+		while (true) {
+			final long h = head.get();
+			final int n = (int) Math.min(dst.remaining(), tail.get() - h);
+			if (n <= 0) {
+				return 0;
+			}
+			final int index = (int) h & mask;
+			final int first = Math.min(n, buffer.length - index);
+			dst.put(buffer, index, first);
+			if (first < n) {
+				dst.put(buffer, 0, n - first);
+			}
+			if (head.get() == h) {
+				return n;
+			}
+			// overwritten by the producer while copying
+			dst.position(position);
+		}
+	}
+
+	/**
+	 * Discards bytes. Invoked by the consumer only.
+	 *
+	 * @param length
+	 * @return the number of bytes discarded
+	 */
+	int skip(int length) {
+		while (true) {
+			final long h = head.get();
+			final int n = (int) Math.min(length, tail.get() - h);
+			if (n <= 0) {
+				return 0;
+			}
+			if (head.compareAndSet(h, h + n)) {
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Returns the distance from the read position to the first occurrence of
+	 * the given byte. Invoked by the consumer only.
+	 *
+	 * @param b
+	 * @return the number of bytes up to and including the byte, or -1 if
+	 *         missing
+	 */
+	int indexOf(int b) {
+		final byte target = (byte) b;
+		while (true) {
+			final long h = head.get();
+			final long t = tail.get();
+			long found = -1;
+			for (long p = h; p < t; p++) {
+				if (buffer[(int) p & mask] == target) {
+					found = p - h + 1;
+					break;
+				}
+			}
+			if (head.get() == h) {
+				return (int) found;
+			}
+			// overwritten by the producer, scan again
+		}
+	}
+
+	/**
+	 * Discards all readable bytes. Invoked by the consumer only.
+	 */
+	void clear() {
+		while (true) {
+			final long h = head.get();
+			final long t = tail.get();
+			if (h >= t || head.compareAndSet(h, t)) {
+				return;
+			}
+		}
+	}
+
+	private void copy(long position, byte[] dst, int offset, int length) {
+		final int index = (int) position & mask;
+		final int first = Math.min(length, buffer.length - index);
+		System.arraycopy(buffer, index, dst, offset, first);
+		if (first < length) {
+			System.arraycopy(buffer, 0, dst, offset + first, length - first);
+		}
+	}
+}
@@ -5,6 +5,8 @@ package io.inventit.processing.android.serial;
 
 import processing.core.PApplet;
 
+import java.nio.ByteBuffer;
+
 /**
  * This class is used for retaining the compatibility with
  * processing.serial.Serial class.
@@ -197,6 +199,15 @@ public class Serial {
 		return delegate.readBytes(byteBuffer);
 	}
 
+	/**
+	 * @param byteBuffer
+	 * @return
+	 * @see SerialCommunicator#read(ByteBuffer)
+	 */
+	public int read(ByteBuffer byteBuffer) {
+		return delegate.read(byteBuffer);
+	}
+
 	/**
 	 * @param interesting
 	 * @return
@@ -234,6 +245,210 @@ public class Serial {
 		return delegate.readStringUntil(interesting);
 	}
 
+	/**
+	 * @param interesting
+	 * @return
+	 * @see SerialCommunicator#readCharsUntil(int)
+	 */
+	public CharSequence readCharsUntil(int interesting) {
+		return delegate.readCharsUntil(interesting);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#readLine()
+	 */
+	public CharSequence readLine() {
+		return delegate.readLine();
+	}
+
+	/**
+	 * @param charsetName
+	 * @see SerialCommunicator#setCharset(java.lang.String)
+	 */
+	public void setCharset(String charsetName) {
+		delegate.setCharset(charsetName);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#getCharset()
+	 */
+	public String getCharset() {
+		return delegate.getCharset();
+	}
+
+	/**
+	 * @param lineConfig
+	 * @see SerialCommunicator#setLineConfig(LineConfig)
+	 */
+	public void setLineConfig(LineConfig lineConfig) {
+		delegate.setLineConfig(lineConfig);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#metrics()
+	 */
+	public SerialMetrics.Snapshot metrics() {
+		return delegate.metrics();
+	}
+
+	/**
+	 * @param request
+	 * @param timeoutMillis
+	 * @return
+	 * @see SerialCommunicator#request(byte[], long)
+	 */
+	public Transaction request(byte[] request, long timeoutMillis) {
+		return delegate.request(request, timeoutMillis);
+	}
+
+	/**
+	 * @param request
+	 * @param matcher
+	 * @param timeoutMillis
+	 * @param listener
+	 * @return
+	 * @see SerialCommunicator#request(byte[], ResponseMatcher, long,
+	 *      Transaction.Listener)
+	 */
+	public Transaction request(byte[] request, ResponseMatcher matcher,
+			long timeoutMillis, Transaction.Listener listener) {
+		return delegate.request(request, matcher, timeoutMillis, listener);
+	}
+
+	/**
+	 * @param parser
+	 * @return
+	 * @see SerialCommunicator#setFrameParser(FrameParser)
+	 */
+	public <T> ParsingPipeline<T> setFrameParser(FrameParser<T> parser) {
+		return delegate.setFrameParser(parser);
+	}
+
+	/**
+	 * @param directory
+	 * @see SerialCommunicator#startCapture(java.lang.String)
+	 */
+	public void startCapture(String directory) {
+		delegate.startCapture(directory);
+	}
+
+	/**
+	 * 
+	 * @see SerialCommunicator#stopCapture()
+	 */
+	public void stopCapture() {
+		delegate.stopCapture();
+	}
+
+	/**
+	 * @param baudRate
+	 * @see SerialCommunicator#setBaudRate(int)
+	 */
+	public void setBaudRate(int baudRate) {
+		delegate.setBaudRate(baudRate);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#getLineConfig()
+	 */
+	public LineConfig getLineConfig() {
+		return delegate.getLineConfig();
+	}
+
+	/**
+	 * @param listener
+	 * @see SerialCommunicator#addReconnectListener(ReconnectListener)
+	 */
+	public void addReconnectListener(ReconnectListener listener) {
+		delegate.addReconnectListener(listener);
+	}
+
+	/**
+	 * @param listener
+	 * @see SerialCommunicator#removeReconnectListener(ReconnectListener)
+	 */
+	public void removeReconnectListener(ReconnectListener listener) {
+		delegate.removeReconnectListener(listener);
+	}
+
+	/**
+	 * @param listener
+	 * @see SerialCommunicator#setSerialEventListener(SerialEventListener)
+	 */
+	public void setSerialEventListener(SerialEventListener listener) {
+		delegate.setSerialEventListener(listener);
+	}
+
+	/**
+	 * @param mode
+	 * @see SerialCommunicator#setEventDispatchMode(EventDispatchMode)
+	 */
+	public void setEventDispatchMode(EventDispatchMode mode) {
+		delegate.setEventDispatchMode(mode);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#getEventDispatchMode()
+	 */
+	public EventDispatchMode getEventDispatchMode() {
+		return delegate.getEventDispatchMode();
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#eventCount()
+	 */
+	public int eventCount() {
+		return delegate.eventCount();
+	}
+
+	/**
+	 * @param maxDelayMillis
+	 * @param maxBytes
+	 * @see SerialCommunicator#setEventBatching(int, int)
+	 */
+	public void setEventBatching(int maxDelayMillis, int maxBytes) {
+		delegate.setEventBatching(maxDelayMillis, maxBytes);
+	}
+
+	/**
+	 * @param decoder
+	 * @see SerialCommunicator#setFrameDecoder(FrameDecoder)
+	 */
+	public void setFrameDecoder(FrameDecoder decoder) {
+		delegate.setFrameDecoder(decoder);
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#availableFrames()
+	 */
+	public int availableFrames() {
+		return delegate.availableFrames();
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#readFrame()
+	 */
+	public byte[] readFrame() {
+		return delegate.readFrame();
+	}
+
+	/**
+	 * @param byteBuffer
+	 * @return
+	 * @see SerialCommunicator#readFrame(byte[])
+	 */
+	public int readFrame(byte[] byteBuffer) {
+		return delegate.readFrame(byteBuffer);
+	}
+
 	/**
 	 * @param what
 	 * @see SerialCommunicator#write(int)
@@ -250,6 +465,15 @@ public class Serial {
 		delegate.write(what);
 	}
 
+	/**
+	 * @param what
+	 * @return
+	 * @see SerialCommunicator#write(ByteBuffer)
+	 */
+	public int write(ByteBuffer what) {
+		return delegate.write(what);
+	}
+
 	/**
 	 * @param what
 	 * @see SerialCommunicator#write(java.lang.String)
@@ -258,6 +482,30 @@ public class Serial {
 		delegate.write(what);
 	}
 
+	/**
+	 * 
+	 * @see SerialCommunicator#flush()
+	 */
+	public void flush() {
+		delegate.flush();
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#pendingWriteBytes()
+	 */
+	public int pendingWriteBytes() {
+		return delegate.pendingWriteBytes();
+	}
+
+	/**
+	 * @return
+	 * @see SerialCommunicator#droppedWriteBytes()
+	 */
+	public long droppedWriteBytes() {
+		return delegate.droppedWriteBytes();
+	}
+
 	/**
 	 * @return
 	 * @see SerialCommunicator#list()
@@ -272,12 +520,8 @@ public class Serial {
 	 * @return
 	 */
 	public static String[] list(PApplet parent) {
-		final Serial serial = new Serial(parent);
-		try {
-			return serial.list();
-		} finally {
-			serial.stop();
-		}
+		return SerialCommunicatorFacory.getInstance().list(parent,
+				DEFAULT_TYPE);
 	}
 
 }
@@ -3,6 +3,8 @@
  */
 package io.inventit.processing.android.serial;
 
+import java.nio.ByteBuffer;
+
 /**
  * This interface represents a serial port and encapsulates its implementation.
  * 
@@ -206,6 +208,16 @@ public interface SerialCommunicator {
 	 */
 	int readBytes(byte[] byteBuffer);
 
+	/**
+	 * Reads the buffered bytes into the remaining space of the given buffer,
+	 * which may be direct, without any intermediate array. The position of the
+	 * buffer advances by the number of bytes read.
+	 * 
+	 * @param byteBuffer
+	 * @return the number of bytes read, 0 if nothing is buffered
+	 */
+	int read(ByteBuffer byteBuffer);
+
 	/**
 	 * Reads from the port into a buffer of bytes up to and including a
 	 * particular character. If the character isn't in the buffer, 'null' is
@@ -243,10 +255,9 @@ public interface SerialCommunicator {
 	int readBytesUntil(int interesting, byte[] byteBuffer);
 
 	/**
-	 * Returns all the data from the buffer as a String. This method assumes the
-	 * incoming characters are ASCII. If you want to transfer Unicode data,
-	 * first convert the String to a byte stream in the representation of your
-	 * choice (i.e. UTF8 or two-byte Unicode data), and send it as a byte array.
+	 * Returns all the data from the buffer as a String decoded with the
+	 * charset of the port, see {@link #setCharset(String)}. A multi-byte
+	 * character not received completely is left in the buffer.
 	 * 
 	 * From <a href=
 	 * "http://processing.org/reference/libraries/serial/Serial_readString_.html"
@@ -270,6 +281,247 @@ public interface SerialCommunicator {
 	 */
 	String readStringUntil(int interesting);
 
+	/**
+	 * Same as {@link #readStringUntil(int)} without creating a String. The
+	 * returned characters are overwritten by the next read of characters, so
+	 * copy them to retain.
+	 * 
+	 * @param interesting
+	 *            character designated to mark the end of the data
+	 * @return null if not found
+	 */
+	CharSequence readCharsUntil(int interesting);
+
+	/**
+	 * Returns the next line without the line terminator, "\n" or "\r\n". The
+	 * returned characters are overwritten by the next read of characters, so
+	 * copy them to retain.
+	 * 
+	 * @return null if no line is received completely
+	 */
+	CharSequence readLine();
+
+	/**
+	 * Sets the charset of the Strings read and written, the platform default
+	 * unless configured by "charset". US-ASCII and ISO-8859-1 are the fastest.
+	 * 
+	 * @param charsetName
+	 * @throws IllegalArgumentException
+	 *             if the charset is not supported
+	 */
+	void setCharset(String charsetName);
+
+	/**
+	 * @return the name of the charset of the Strings read and written
+	 */
+	String getCharset();
+
+	/**
+	 * Changes the line configuration of the open port without reopening it.
+	 * The data written so far is sent with the current configuration first,
+	 * and the connection and the received data are kept. Nothing is sent to
+	 * the device if the configuration is unchanged.
+	 * 
+	 * @param lineConfig
+	 */
+	void setLineConfig(LineConfig lineConfig);
+
+	/**
+	 * Changes the baud rate of the open port in the same way as
+	 * {@link #setLineConfig(LineConfig)}.
+	 * 
+	 * @param baudRate
+	 */
+	void setBaudRate(int baudRate);
+
+	/**
+	 * Returns a snapshot of the I/O metrics of the port, recorded only while
+	 * enabled by the "metrics" configuration.
+	 * 
+	 * @return null while disabled
+	 */
+	SerialMetrics.Snapshot metrics();
+
+	/**
+	 * Same as {@link #request(byte[], ResponseMatcher, long, Transaction.Listener)}
+	 * with {@link ResponseMatchers#NEXT}, i.e. for the devices responding in
+	 * order.
+	 * 
+	 * @param request
+	 * @param timeoutMillis
+	 *            0 or less for no timeout
+	 * @return
+	 */
+	Transaction request(byte[] request, long timeoutMillis);
+
+	/**
+	 * Writes a request, and returns the transaction completed with the
+	 * response without blocking. Up to "maxInFlightRequests" requests are in
+	 * flight, and the others are written as they complete.
+	 * 
+	 * The responses are the frames delimited by {@link #bufferUntil(int)} or
+	 * decoded by a {@link FrameDecoder}. A frame taken as a response is not
+	 * delivered to the sketch, while the other frames are delivered as usual.
+	 * While bufferUntil() is used with requests, the bytes of an incomplete
+	 * frame become available when the frame is complete.
+	 * 
+	 * @param request
+	 * @param matcher
+	 *            see {@link ResponseMatchers}
+	 * @param timeoutMillis
+	 *            from the request written, 0 or less for no timeout
+	 * @param listener
+	 *            null if not notified
+	 * @return
+	 * @throws IllegalStateException
+	 *             if neither bufferUntil() nor a {@link FrameDecoder} is set
+	 */
+	Transaction request(byte[] request, ResponseMatcher matcher,
+			long timeoutMillis, Transaction.Listener listener);
+
+	/**
+	 * Parses the frames delimited by {@link #bufferUntil(int)} or decoded by a
+	 * {@link FrameDecoder} on the worker threads shared by the ports, and
+	 * returns the pipeline from which the sketch polls the values in the order
+	 * of the frames. The frames parsed are not delivered to the sketch as
+	 * bytes, and no serialEvent is fired for them.
+	 * 
+	 * The workers are sized by "parserThreads", 0 for the number of cores.
+	 * Up to "parserQueueSize" frames are being parsed or not polled yet, and
+	 * then the I/O thread waits for up to "parserBackpressureMillis" before
+	 * dropping a frame. The previous pipeline, if any, is closed.
+	 * 
+	 * @param parser
+	 *            invoked concurrently for the frames, null to stop parsing
+	 * @return null if the parser is null
+	 * @throws IllegalStateException
+	 *             if neither bufferUntil() nor a {@link FrameDecoder} is set
+	 */
+	<T> ParsingPipeline<T> setFrameParser(FrameParser<T> parser);
+
+	/**
+	 * Starts capturing the data received and written with timestamps into the
+	 * segment files of the port in the directory, read by
+	 * {@link CaptureReader}. The segments are sized by "captureSegmentSize"
+	 * and limited by "captureMaxSegments". The capture also starts with the
+	 * port when "captureDirectory" is configured.
+	 * 
+	 * @param directory
+	 * @throws IllegalStateException
+	 *             if the capture can't be created
+	 */
+	void startCapture(String directory);
+
+	/**
+	 * Stops the capture, also stopped with the port.
+	 */
+	void stopCapture();
+
+	/**
+	 * @return the current line configuration
+	 */
+	LineConfig getLineConfig();
+
+	/**
+	 * Adds a {@link ReconnectListener}, notified when the port is lost and
+	 * reconnected.
+	 * 
+	 * @param listener
+	 */
+	void addReconnectListener(ReconnectListener listener);
+
+	/**
+	 * Removes the {@link ReconnectListener}.
+	 * 
+	 * @param listener
+	 */
+	void removeReconnectListener(ReconnectListener listener);
+
+	/**
+	 * Sets the {@link SerialEventListener} receiving the serial events in
+	 * place of the "serialEvent(Serial)" method of the sketch.
+	 * 
+	 * @param listener
+	 *            null to stop the events
+	 */
+	void setSerialEventListener(SerialEventListener listener);
+
+	/**
+	 * Sets the thread on which the events are invoked.
+	 * 
+	 * @param mode
+	 */
+	void setEventDispatchMode(EventDispatchMode mode);
+
+	/**
+	 * @return the thread on which the events are invoked
+	 */
+	EventDispatchMode getEventDispatchMode();
+
+	/**
+	 * Returns the number of events merged into the event being invoked, which
+	 * is 1 with {@link EventDispatchMode#IO_THREAD} unless batched by
+	 * {@link #setEventBatching(int, int)}.
+	 * 
+	 * @return
+	 */
+	int eventCount();
+
+	/**
+	 * Merges the serialEvents of the chunks received back to back, while
+	 * neither buffer(), bufferUntil() nor a {@link FrameDecoder} is used. A
+	 * chunk after an idle line fires the event at once, and the following
+	 * chunks are accumulated up to the max delay or the max bytes, so the
+	 * handler runs much less often under load. The number of chunks merged is
+	 * available from {@link #eventCount()}. Configured by "eventBatchMillis"
+	 * and "eventBatchBytes" by default, disabled unless the delay is set.
+	 * 
+	 * @param maxDelayMillis
+	 *            the max delay of an event, 0 to disable the batching
+	 * @param maxBytes
+	 *            the number of bytes firing the event at once
+	 * @throws IllegalArgumentException
+	 *             if the delay is negative, or the max bytes is less than 1
+	 *             while batching
+	 */
+	void setEventBatching(int maxDelayMillis, int maxBytes);
+
+	/**
+	 * Sets the {@link FrameDecoder} splitting the received data into frames.
+	 * While set, the received data is available only from
+	 * {@link #readFrame()}, and "frameEvent(Serial)" is invoked instead of
+	 * "serialEvent(Serial)" on each frame.
+	 * 
+	 * @param decoder
+	 *            null to stop decoding
+	 */
+	void setFrameDecoder(FrameDecoder decoder);
+
+	/**
+	 * Returns the number of decoded frames available.
+	 * 
+	 * @return
+	 */
+	int availableFrames();
+
+	/**
+	 * Returns the next decoded frame, or null if nothing is there.
+	 * 
+	 * @return
+	 */
+	byte[] readFrame();
+
+	/**
+	 * Reads the next decoded frame into the byte array passed in and returns
+	 * the length of the frame. If the byte buffer is not large enough, -1 is
+	 * returned, an error is printed to the message area and the frame is left
+	 * in the buffer. If nothing is in the buffer, 0 is returned.
+	 * 
+	 * @param byteBuffer
+	 * @return
+	 */
+	int readFrame(byte[] byteBuffer);
+
 	/**
 	 * Writes bytes, chars, ints, bytes[], Strings to the serial port
 	 * 
@@ -295,7 +547,21 @@ public interface SerialCommunicator {
 	void write(byte[] what);
 
 	/**
-	 * Writes bytes, chars, ints, bytes[], Strings to the serial port
+	 * Writes the remaining bytes of the given buffer, which may be direct,
+	 * without any intermediate array. The position of the buffer advances by
+	 * the number of bytes enqueued, which is less than the remaining bytes
+	 * only when the write buffer overflows.
+	 * 
+	 * @param what
+	 * @return the number of bytes enqueued
+	 * @throws WriteBufferOverflowException
+	 *             if the write buffer overflows with the "fail" policy
+	 */
+	int write(ByteBuffer what);
+
+	/**
+	 * Writes bytes, chars, ints, bytes[], Strings to the serial port. The
+	 * String is encoded with the charset of the port.
 	 * 
 	 * From <a href=
 	 * "http://processing.org/reference/libraries/serial/Serial_write_.html"
@@ -306,6 +572,28 @@ public interface SerialCommunicator {
 	 */
 	void write(String what);
 
+	/**
+	 * Blocks until all the data written so far is passed to the serial
+	 * driver.
+	 */
+	void flush();
+
+	/**
+	 * Returns the number of written bytes which are not passed to the serial
+	 * driver yet.
+	 * 
+	 * @return
+	 */
+	int pendingWriteBytes();
+
+	/**
+	 * Returns the total number of written bytes discarded because the write
+	 * buffer was full or the port was closed.
+	 * 
+	 * @return
+	 */
+	long droppedWriteBytes();
+
 	/**
 	 * Gets a list of all available serial ports. Use println() to write the
 	 * information to the text window.
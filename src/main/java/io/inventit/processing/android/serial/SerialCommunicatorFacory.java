@@ -7,6 +7,9 @@ import android.os.Build;
 import processing.core.PApplet;
 import processing.data.JSONObject;
 
+import java.nio.charset.Charset;
+import java.util.Locale;
+
 /**
  *
  * @author dbaba@yourinventit.com
@@ -19,10 +22,6 @@ public final class SerialCommunicatorFacory {
 	 */
 	private static final SerialCommunicatorFacory INSTANCE = new SerialCommunicatorFacory();
 
-	static {
-		verifyVersion();
-	}
-
 	/**
 	 * @return the instance
 	 */
@@ -30,12 +29,36 @@ public final class SerialCommunicatorFacory {
 		return INSTANCE;
 	}
 
+	/**
+	 * {@link SerialIoScheduler} shared by all the open ports
+	 */
+	private final SerialIoScheduler ioScheduler = new SerialIoScheduler();
+
+	/**
+	 * {@link FrameParserPool} shared by all the parsing pipelines
+	 */
+	private final FrameParserPool parserPool = new FrameParserPool();
+
 	/**
 	 * Suppress instantiation.
 	 */
 	private SerialCommunicatorFacory() {
 	}
 
+	/**
+	 * @return the ioScheduler
+	 */
+	SerialIoScheduler getIoScheduler() {
+		return ioScheduler;
+	}
+
+	/**
+	 * @return the parserPool
+	 */
+	FrameParserPool getParserPool() {
+		return parserPool;
+	}
+
 	/**
 	 * Configures the serial library.
 	 *
@@ -52,10 +75,114 @@ public final class SerialCommunicatorFacory {
 	 */
 	public void configure(JSONObject jsonObject) {
 		Config.setDebugEnabled(jsonObject.getBoolean("debug"));
+		if (jsonObject.hasKey("receiveBufferSize")) {
+			Config.setReceiveBufferSize(jsonObject.getInt("receiveBufferSize"));
+		}
+		if (jsonObject.hasKey("receiveBufferOverflowPolicy")) {
+			Config.setReceiveBufferOverflowPolicy(RingBuffer.OverflowPolicy
+					.valueOf(toConstantName(jsonObject
+							.getString("receiveBufferOverflowPolicy"))));
+		}
+		if (jsonObject.hasKey("frameBufferSize")) {
+			Config.setFrameBufferSize(jsonObject.getInt("frameBufferSize"));
+		}
+		if (jsonObject.hasKey("frameBufferFrames")) {
+			Config.setFrameBufferFrames(jsonObject.getInt("frameBufferFrames"));
+		}
+		if (jsonObject.hasKey("writeBufferSize")) {
+			Config.setWriteBufferSize(jsonObject.getInt("writeBufferSize"));
+		}
+		if (jsonObject.hasKey("writeBufferOverflowPolicy")) {
+			Config.setWriteBufferOverflowPolicy(WriteQueue.OverflowPolicy
+					.valueOf(toConstantName(jsonObject
+							.getString("writeBufferOverflowPolicy"))));
+		}
+		if (jsonObject.hasKey("asyncRead")) {
+			Config.setAsyncReadEnabled(jsonObject.getBoolean("asyncRead"));
+		}
+		if (jsonObject.hasKey("asyncReadRequests")) {
+			Config.setAsyncReadRequests(jsonObject.getInt("asyncReadRequests"));
+		}
+		if (jsonObject.hasKey("waitOnException")) {
+			Config.setWaitOnException(jsonObject.getInt("waitOnException"));
+		}
+		if (jsonObject.hasKey("reconnectInitialDelay")) {
+			Config.setReconnectInitialDelay(jsonObject
+					.getInt("reconnectInitialDelay"));
+		}
+		if (jsonObject.hasKey("reconnectJitter")) {
+			Config.setReconnectJitter(jsonObject.getFloat("reconnectJitter"));
+		}
+		if (jsonObject.hasKey("ioThreads")) {
+			Config.setIoThreads(jsonObject.getInt("ioThreads"));
+		}
+		if (jsonObject.hasKey("metrics")) {
+			Config.setMetricsEnabled(jsonObject.getBoolean("metrics"));
+		}
+		if (jsonObject.hasKey("metricsDumpInterval")) {
+			Config.setMetricsDumpInterval(jsonObject
+					.getInt("metricsDumpInterval"));
+		}
+		if (jsonObject.hasKey("charset")) {
+			// fails fast on an unsupported charset
+			Config.setCharset(Charset.forName(jsonObject.getString("charset"))
+					.name());
+		}
+		if (jsonObject.hasKey("captureDirectory")) {
+			Config.setCaptureDirectory(jsonObject.getString("captureDirectory"));
+		}
+		if (jsonObject.hasKey("captureSegmentSize")) {
+			Config.setCaptureSegmentSize(jsonObject
+					.getInt("captureSegmentSize"));
+		}
+		if (jsonObject.hasKey("captureMaxSegments")) {
+			Config.setCaptureMaxSegments(jsonObject
+					.getInt("captureMaxSegments"));
+		}
+		if (jsonObject.hasKey("replaySpeed")) {
+			Config.setReplaySpeed(jsonObject.getFloat("replaySpeed"));
+		}
+		if (jsonObject.hasKey("maxInFlightRequests")) {
+			Config.setMaxInFlightRequests(jsonObject
+					.getInt("maxInFlightRequests"));
+		}
+		if (jsonObject.hasKey("eventBatchMillis")) {
+			Config.setEventBatchMillis(jsonObject.getInt("eventBatchMillis"));
+		}
+		if (jsonObject.hasKey("eventBatchBytes")) {
+			Config.setEventBatchBytes(jsonObject.getInt("eventBatchBytes"));
+		}
+		if (jsonObject.hasKey("parserThreads")) {
+			Config.setParserThreads(jsonObject.getInt("parserThreads"));
+		}
+		if (jsonObject.hasKey("parserQueueSize")) {
+			Config.setParserQueueSize(jsonObject.getInt("parserQueueSize"));
+		}
+		if (jsonObject.hasKey("parserBackpressureMillis")) {
+			Config.setParserBackpressureMillis(jsonObject
+					.getInt("parserBackpressureMillis"));
+		}
+		if (jsonObject.hasKey("eventDispatchMode")) {
+			Config.setEventDispatchMode(EventDispatchMode
+					.valueOf(toConstantName(jsonObject
+							.getString("eventDispatchMode"))));
+		}
+	}
+
+	/**
+	 * Converts a configuration value like "drop-oldest" into an enum constant
+	 * name.
+	 *
+	 * @param value
+	 * @return
+	 */
+	static String toConstantName(String value) {
+		return value.trim().replace('-', '_').toUpperCase(Locale.US);
 	}
 
 	/**
-	 * Returns a {@link SerialCommunicator} instance specified by the type.
+	 * Returns a {@link SerialCommunicator} instance specified by the type,
+	 * "usb", "loopback" for a {@link LoopbackDevice} or "replay" for a capture.
 	 *
 	 * @param parent
 	 * @param type
@@ -63,7 +190,34 @@ public final class SerialCommunicatorFacory {
 	 */
 	public SerialCommunicator create(PApplet parent, String type) {
 		if ("usb".equalsIgnoreCase(type)) {
+			verifyVersion();
 			return new UsbSerialCommunicator(parent);
+		} else if ("loopback".equalsIgnoreCase(type)) {
+			return new LoopbackSerialCommunicator(parent);
+		} else if ("replay".equalsIgnoreCase(type)) {
+			return new ReplaySerialCommunicator(parent);
+		} else {
+			throw new UnsupportedOperationException(type + " is not supported.");
+		}
+	}
+
+	/**
+	 * Returns the port identifiers available for the type without opening
+	 * any port.
+	 *
+	 * @param parent
+	 * @param type
+	 * @return
+	 */
+	public String[] list(PApplet parent, String type) {
+		if ("usb".equalsIgnoreCase(type)) {
+			verifyVersion();
+			return UsbDeviceRegistry.getInstance(
+					parent.getActivity().getApplicationContext()).list();
+		} else if ("loopback".equalsIgnoreCase(type)) {
+			return LoopbackDevice.list();
+		} else if ("replay".equalsIgnoreCase(type)) {
+			return ReplaySerialCommunicator.list(Config.getCaptureDirectory());
 		} else {
 			throw new UnsupportedOperationException(type + " is not supported.");
 		}
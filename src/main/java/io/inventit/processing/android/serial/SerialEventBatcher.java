@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Merges the serialEvents of the chunks arriving back to back into one, in
+ * the plain mode without buffer(), bufferUntil() or a {@link FrameDecoder}.
+ *
+ * A chunk arriving after the line has been idle for the max delay fires the
+ * event at once, so the latency is unchanged under light load. Otherwise the
+ * chunks are accumulated until the max bytes, or until the max delay passes
+ * since the first of them. The number of the chunks merged is available
+ * from {@link SerialCommunicator#eventCount()}.
+ *
+ * The events are fired while holding this batcher, so that a delayed event
+ * never overlaps the next one.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class SerialEventBatcher {
+
+	private final AbstractAndroidSerialCommunicator communicator;
+
+	private final SerialIoScheduler ioScheduler;
+
+	private final long maxDelayMillis;
+
+	private final long maxDelayNanos;
+
+	private final int maxBytes;
+
+	private final Runnable flushStep = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	// Synchronized by 'this'
+	private int chunks;
+
+	// Synchronized by 'this'
+	private int bytes;
+
+	// Synchronized by 'this'
+	private long lastNanos;
+
+	// Synchronized by 'this'
+	private ScheduledFuture<?> delayedFlush;
+
+	// Synchronized by 'this'
+	private boolean closed;
+
+	/**
+	 * Registers to the scheduler for the delayed events until closed.
+	 *
+	 * @param communicator
+	 * @param ioScheduler
+	 * @param maxDelayMillis
+	 *            positive
+	 * @param maxBytes
+	 *            positive
+	 */
+	SerialEventBatcher(AbstractAndroidSerialCommunicator communicator,
+			SerialIoScheduler ioScheduler, int maxDelayMillis, int maxBytes) {
+		if (maxDelayMillis < 1) {
+			throw new IllegalArgumentException("Invalid maxDelayMillis: "
+					+ maxDelayMillis);
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Invalid maxBytes: "
+					+ maxBytes);
+		}
+		this.communicator = communicator;
+		this.ioScheduler = ioScheduler;
+		this.maxDelayMillis = maxDelayMillis;
+		this.maxDelayNanos = maxDelayMillis * 1000000L;
+		this.maxBytes = maxBytes;
+		this.lastNanos = System.nanoTime() - maxDelayNanos;
+		ioScheduler.register();
+	}
+
+	/**
+	 * Records a chunk written to the receive buffer. Invoked by the I/O
+	 * thread.
+	 *
+	 * @param length
+	 */
+	synchronized void received(int length) {
+		final long now = System.nanoTime();
+		final boolean idle = now - lastNanos >= maxDelayNanos;
+		lastNanos = now;
+		chunks++;
+		bytes += length;
+		if (closed || (idle && chunks == 1) || bytes >= maxBytes) {
+			fire();
+		} else if (delayedFlush == null) {
+			delayedFlush = ioScheduler.schedule(flushStep, maxDelayMillis);
+			if (delayedFlush == null) {
+				// the scheduler is shut down
+				fire();
+			}
+		}
+	}
+
+	/**
+	 * Fires the pending event after the max delay.
+	 */
+	private synchronized void flush() {
+		delayedFlush = null;
+		if (chunks > 0) {
+			fire();
+		}
+	}
+
+	/**
+	 * Invoked while holding 'this'.
+	 */
+	private void fire() {
+		if (delayedFlush != null) {
+			delayedFlush.cancel(false);
+			delayedFlush = null;
+		}
+		final int chunks = this.chunks;
+		final int bytes = this.bytes;
+		this.chunks = 0;
+		this.bytes = 0;
+		communicator.batchedSerialEvent(chunks, bytes);
+	}
+
+	/**
+	 * Fires the pending event, and unregisters from the scheduler.
+	 */
+	synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (chunks > 0) {
+			fire();
+		} else if (delayedFlush != null) {
+			delayedFlush.cancel(false);
+			delayedFlush = null;
+		}
+		ioScheduler.unregister();
+	}
+}
@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Receives the serial events without reflection. A sketch implementing this
+ * interface is registered automatically, otherwise its "serialEvent(Serial)"
+ * method is invoked reflectively.
+ * 
+ * The events are delivered on the serial I/O thread.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public interface SerialEventListener {
+
+	/**
+	 * Invoked when the data is available according to buffer() or
+	 * bufferUntil().
+	 * 
+	 * @param serial
+	 */
+	void serialEvent(Serial serial);
+}
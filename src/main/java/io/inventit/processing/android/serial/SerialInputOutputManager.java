@@ -4,9 +4,10 @@
 package io.inventit.processing.android.serial;
 
 import android.hardware.usb.UsbRequest;
-import android.util.Log;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -21,20 +22,23 @@ import java.nio.ByteBuffer;
  * 
  * @author mike wakerly (opensource@hoho.com)
  */
-class SerialInputOutputManager implements Runnable {
+class SerialInputOutputManager implements Runnable,
+		AsyncReadEngine.Callback {
 
-	private static final String TAG = SerialInputOutputManager.class
-			.getSimpleName();
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(SerialInputOutputManager.class);
 
 	private static final int READ_WAIT_MILLIS = 200;
 	private static final int BUFSIZ = 4096;
 
 	private final UsbSerialPort mDriver;
 
+	// null while reading with timeout
+	private final AsyncReadEngine mReadEngine;
+
 	private final ByteBuffer mReadBuffer = ByteBuffer.allocate(BUFSIZ);
 
-	// Synchronized by 'mWriteBuffer'
-	private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFSIZ);
+	private final SerialWriter mWriter;
 
 	private enum State {
 		STOPPED, RUNNING, STOPPING
@@ -46,11 +50,15 @@ class SerialInputOutputManager implements Runnable {
 	// Synchronized by 'this'
 	private Listener mListener;
 
+	// null unless the metrics are enabled
+	private volatile SerialMetrics mMetrics;
+
 	public interface Listener {
 		/**
-		 * Called when new incoming data is available.
+		 * Called when new incoming data is available. The buffer is reused
+		 * for the next data, so it must not be retained after returning.
 		 */
-		public void onNewData(byte[] data);
+		public void onNewData(byte[] data, int offset, int length);
 
 		/**
 		 * Called when {@link SerialInputOutputManager#run()} aborts due to an
@@ -71,8 +79,22 @@ class SerialInputOutputManager implements Runnable {
 	 * Creates a new instance with the provided listener.
 	 */
 	public SerialInputOutputManager(UsbSerialPort driver, Listener listener) {
+		this(driver, null, listener);
+	}
+
+	/**
+	 * Creates a new instance reading asynchronously through the provided
+	 * transport, or with read timeout if the transport is null.
+	 */
+	public SerialInputOutputManager(UsbSerialPort driver,
+			AsyncReadEngine.Transport transport, Listener listener) {
 		mDriver = driver;
 		mListener = listener;
+		mWriter = new SerialWriter(driver, SerialWriter.getPacketSize(driver),
+				BUFSIZ, new WriteQueue(Config.getWriteBufferSize(),
+						Config.getWriteBufferOverflowPolicy(), BUFSIZ));
+		mReadEngine = transport == null ? null : new AsyncReadEngine(
+				transport, Config.getAsyncReadRequests(), BUFSIZ);
 	}
 
 	public synchronized void setListener(Listener listener) {
@@ -83,95 +105,251 @@ class SerialInputOutputManager implements Runnable {
 		return mListener;
 	}
 
-	public void writeAsync(byte[] data) {
-		synchronized (mWriteBuffer) {
-			mWriteBuffer.put(data);
-		}
+	/**
+	 * @param metrics
+	 *            records the read timeouts, null not to record
+	 */
+	void setMetrics(SerialMetrics metrics) {
+		mMetrics = metrics;
+	}
+
+	/**
+	 * @return the writer which must be run in another thread
+	 */
+	public SerialWriter getWriter() {
+		return mWriter;
+	}
+
+	/**
+	 * @param data
+	 * @return the number of bytes enqueued
+	 */
+	public int writeAsync(byte[] data) {
+		return mWriter.enqueue(data);
+	}
+
+	/**
+	 * @param data
+	 * @return the number of bytes enqueued
+	 */
+	public int writeAsync(ByteBuffer data) {
+		return mWriter.enqueue(data);
+	}
+
+	/**
+	 * @return the number of bytes waiting to be written
+	 */
+	public int getPendingWriteBytes() {
+		return mWriter.getQueue().getPendingBytes();
+	}
+
+	/**
+	 * @return the number of bytes discarded by the write queue
+	 */
+	public long getDroppedWriteBytes() {
+		return mWriter.getQueue().getDroppedBytes();
+	}
+
+	/**
+	 * Blocks until the data written so far is passed to the driver.
+	 */
+	public void flush() {
+		mWriter.flush();
 	}
 
 	public synchronized void stop() {
+		mWriter.stop();
 		if (getState() == State.RUNNING) {
-			Log.i(TAG, "Stop requested");
+			LOGGER.info("Stop requested");
 			mState = State.STOPPING;
 		}
 	}
 
+	/**
+	 * Stops this manager as the writer failed, and reports the failure to
+	 * the listener, which usually reconnects. Invoked by a loop servicing
+	 * the writer with {@link SerialWriter#writeStep()}, without holding its
+	 * locks.
+	 * 
+	 * @param e
+	 */
+	void writeFailed(IOException e) {
+		LOGGER.warn("Run ending due to write exception: " + e.getMessage(), e);
+		stop();
+		final Listener listener = getListener();
+		if (listener != null) {
+			listener.onRunError(e);
+		}
+	}
+
 	private synchronized State getState() {
 		return mState;
 	}
 
 	/**
-	 * Continuously services the read and write buffers until {@link #stop()} is
-	 * called, or until a driver exception is raised.
+	 * Continuously services the read buffer until {@link #stop()} is called,
+	 * or until a driver exception is raised. The data is written by
+	 * {@link #getWriter()} in another thread.
 	 * 
-	 * NOTE(mikey): Uses inefficient read/write-with-timeout. TODO(mikey): Read
-	 * asynchronously with {@link UsbRequest#queue(ByteBuffer, int)}
+	 * Reads asynchronously with {@link UsbRequest} when the transport is
+	 * provided, otherwise uses read-with-timeout.
 	 */
 	public void run() {
+		begin();
+		while (poll(READ_WAIT_MILLIS)) {
+		}
+	}
+
+	/**
+	 * Marks this manager running, for a loop servicing several managers in
+	 * turn instead of {@link #run()}.
+	 */
+	void begin() {
 		synchronized (this) {
 			if (getState() != State.STOPPED) {
 				throw new IllegalStateException("Already running.");
 			}
 			mState = State.RUNNING;
 		}
+		LOGGER.info("Running ..");
+	}
 
-		Log.i(TAG, "Running ..");
-		while (true) {
-			try {
-				if (getState() != State.RUNNING) {
-					Log.i(TAG, "Stopping mState=" + getState());
-					break;
-				}
-				step();
-			} catch (Exception e) {
-				Log.w(TAG, "Run ending due to exception: " + e.getMessage(), e);
-				final Listener listener = getListener();
-				if (listener != null) {
-					if (listener.onRunError(e) == false) {
-						continue;
-					}
-				}
-				break;
+	/**
+	 * Reads once with the given timeout, unless {@link #stop()} is called.
+	 * 
+	 * @param timeoutMillis
+	 * @return false when stopped
+	 */
+	boolean poll(long timeoutMillis) {
+		if (getState() != State.RUNNING) {
+			LOGGER.info("Stopping mState={}", getState());
+			end();
+			return false;
+		}
+		try {
+			step(timeoutMillis);
+			return true;
+		} catch (Exception e) {
+			return handleError(e);
+		}
+	}
+
+	/**
+	 * Queues the read requests unless done, for a loop awaiting their
+	 * completions on a connection shared with the other managers.
+	 * 
+	 * @return false when stopped
+	 */
+	boolean queueRequests() {
+		if (getState() != State.RUNNING) {
+			LOGGER.info("Stopping mState={}", getState());
+			end();
+			return false;
+		}
+		try {
+			mReadEngine.start();
+			return true;
+		} catch (Exception e) {
+			return handleError(e);
+		}
+	}
+
+	/**
+	 * Handles the request completed on a connection shared with the other
+	 * managers, unless {@link #stop()} is called. The requests are queued
+	 * first by {@link #queueRequests()}.
+	 * 
+	 * @param slot
+	 * @return false when stopped
+	 */
+	boolean complete(int slot) {
+		if (getState() != State.RUNNING) {
+			LOGGER.info("Stopping mState={}", getState());
+			end();
+			return false;
+		}
+		try {
+			mReadEngine.complete(slot, this);
+			return true;
+		} catch (Exception e) {
+			return handleError(e);
+		}
+	}
+
+	/**
+	 * @return true if reading asynchronously
+	 */
+	boolean isAsync() {
+		return mReadEngine != null;
+	}
+
+	private boolean handleError(Exception e) {
+		LOGGER.warn("Run ending due to exception: " + e.getMessage(), e);
+		final Listener listener = getListener();
+		if (listener != null) {
+			if (listener.onRunError(e) == false) {
+				return true;
 			}
 		}
+		end();
+		return false;
+	}
+
+	private void end() {
+		if (mReadEngine != null) {
+			mReadEngine.close();
+		}
 		synchronized (this) {
 			mState = State.STOPPED;
-			Log.i(TAG, "Stopped.");
+			LOGGER.info("Stopped.");
 		}
 	}
 
-	private void step() throws IOException {
+	private void step(long timeoutMillis) throws IOException {
+		if (mReadEngine != null) {
+			if (mReadEngine.step(timeoutMillis, this) < 0) {
+				readTimedOut();
+			}
+			return;
+		}
 		// Handle incoming data.
-		int len = mDriver.read(mReadBuffer.array(), READ_WAIT_MILLIS);
+		int len = mDriver.read(mReadBuffer.array(), (int) timeoutMillis);
 		if (len > 0) {
 			if (Config.isDebugEnabled()) {
-				Log.d(TAG, "Read data len=" + len);
+				LOGGER.debug("Read data len={}", len);
 			}
 			final Listener listener = getListener();
 			if (listener != null) {
-				final byte[] data = new byte[len];
-				mReadBuffer.get(data, 0, len);
-				listener.onNewData(data);
-			}
-			mReadBuffer.clear();
-		}
-
-		// Handle outgoing data.
-		byte[] outBuff = null;
-		synchronized (mWriteBuffer) {
-			if (mWriteBuffer.position() > 0) {
-				len = mWriteBuffer.position();
-				outBuff = new byte[len];
-				mWriteBuffer.rewind();
-				mWriteBuffer.get(outBuff, 0, len);
-				mWriteBuffer.clear();
+				listener.onNewData(mReadBuffer.array(), 0, len);
 			}
+		} else {
+			readTimedOut();
 		}
-		if (outBuff != null) {
-			if (Config.isDebugEnabled()) {
-				Log.d(TAG, "Writing data len=" + len);
-			}
-			mDriver.write(outBuff, READ_WAIT_MILLIS);
+	}
+
+	/**
+	 * Records a read completed without data, also invoked by a loop awaiting
+	 * the requests on a shared connection.
+	 */
+	void readTimedOut() {
+		final SerialMetrics metrics = mMetrics;
+		if (metrics != null) {
+			metrics.readTimedOut();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see AsyncReadEngine.Callback#onCompleted(byte[], int)
+	 */
+	public void onCompleted(byte[] buffer, int len) {
+		if (Config.isDebugEnabled()) {
+			LOGGER.debug("Read data len={}", len);
+		}
+		final Listener listener = getListener();
+		if (listener != null) {
+			listener.onNewData(buffer, 0, len);
 		}
 	}
 
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded worker pool shared by the I/O loops of all the open devices. The
+ * loops run as short steps resubmitting themselves, so any number of devices
+ * are multiplexed over a few threads. The delayed tasks like the reconnect
+ * attempts run on the same workers.
+ * 
+ * The pool is created when the first loop is registered and shut down when
+ * the last one is unregistered.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class SerialIoScheduler {
+
+	/**
+	 * The min number of workers, so that a blocking read step leaves a worker
+	 * for the writes
+	 */
+	private static final int MIN_WORKERS = 2;
+
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	private final ThreadFactory threadFactory = new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "SerialIO-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	// Synchronized by 'this'
+	private ScheduledExecutorService executor;
+
+	// Synchronized by 'this'
+	private int workers = 0;
+
+	// Synchronized by 'this'
+	private int loops = 0;
+
+	/**
+	 * Returns the number of workers for the given configuration.
+	 * 
+	 * @param ioThreads
+	 *            0 or less to follow the number of cores
+	 * @return
+	 */
+	static int getWorkers(int ioThreads) {
+		if (ioThreads > 0) {
+			return Math.max(MIN_WORKERS, ioThreads);
+		}
+		return Math.max(MIN_WORKERS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Registers a loop, creating the pool if necessary.
+	 */
+	synchronized void register() {
+		if (executor == null) {
+			workers = getWorkers(Config.getIoThreads());
+			executor = Executors.newScheduledThreadPool(workers, threadFactory);
+		}
+		loops++;
+	}
+
+	/**
+	 * Unregisters a loop, shutting down the pool after the last one. The
+	 * steps already submitted still run.
+	 */
+	synchronized void unregister() {
+		if (loops == 0) {
+			return;
+		}
+		if (--loops == 0) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Submits a step.
+	 * 
+	 * @param step
+	 * @return false if no loop is registered
+	 */
+	synchronized boolean execute(Runnable step) {
+		if (executor == null) {
+			return false;
+		}
+		try {
+			executor.execute(step);
+			return true;
+		} catch (RejectedExecutionException exception) {
+			return false;
+		}
+	}
+
+	/**
+	 * Submits a step to run after the given delay.
+	 * 
+	 * @param step
+	 * @param delayMillis
+	 * @return null if no loop is registered
+	 */
+	synchronized ScheduledFuture<?> schedule(Runnable step, long delayMillis) {
+		if (executor == null) {
+			return null;
+		}
+		try {
+			return executor.schedule(step, delayMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException exception) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns how long a read step may block. A step blocking for long is
+	 * allowed only while there are more workers than the loops.
+	 * 
+	 * @param maxMillis
+	 * @param sharedMillis
+	 *            the timeout when the workers are shared
+	 * @return
+	 */
+	synchronized long getReadWaitMillis(long maxMillis, long sharedMillis) {
+		return loops < workers ? maxMillis : sharedMillis;
+	}
+
+	/**
+	 * @return the number of the loops
+	 */
+	synchronized int getLoops() {
+		return loops;
+	}
+
+	/**
+	 * @return the number of workers, 0 unless running
+	 */
+	synchronized int getWorkers() {
+		return executor == null ? 0 : workers;
+	}
+}
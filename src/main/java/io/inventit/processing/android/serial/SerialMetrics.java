@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import processing.data.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The I/O metrics of a port, recorded with lock-free counters and histograms
+ * while enabled by the "metrics" configuration. Nothing is recorded, and
+ * {@link SerialCommunicator#metrics()} returns null, while disabled.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public final class SerialMetrics {
+
+	/**
+	 * A distribution of the values recorded by a histogram.
+	 */
+	public static final class Distribution {
+
+		private final long[] buckets;
+
+		private final long count;
+
+		private final long sum;
+
+		private final long max;
+
+		Distribution(long[] buckets, long sum, long max) {
+			long count = 0;
+			for (long bucket : buckets) {
+				count += bucket;
+			}
+			this.buckets = buckets;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * @return the number of values
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the mean, 0 if empty
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @return the max, 0 if empty
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the value below which the given percentage of the values
+		 * fall, with the precision of the histogram bucket.
+		 *
+		 * @param percentile
+		 *            0 to 100
+		 * @return 0 if empty
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1,
+					(long) Math.ceil(count * Math.min(percentile, 100) / 100));
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= rank) {
+					return Math.min(Histogram.highestValueOf(i), max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * @return count, mean, p50, p90, p99 and max
+		 */
+		public JSONObject toJSONObject() {
+			final JSONObject json = new JSONObject();
+			json.setLong("count", count);
+			json.setDouble("mean", getMean());
+			json.setLong("p50", getPercentile(50));
+			json.setLong("p90", getPercentile(90));
+			json.setLong("p99", getPercentile(99));
+			json.setLong("max", max);
+			return json;
+		}
+	}
+
+	/**
+	 * The metrics at a point of time.
+	 */
+	public static final class Snapshot {
+
+		private final long timestamp;
+
+		private final long bytesReceived;
+
+		private final long framesReceived;
+
+		private final long bytesWritten;
+
+		private final long readTimeouts;
+
+		private final long disconnects;
+
+		private final long reconnects;
+
+		private final int bufferedBytes;
+
+		private final int bufferCapacity;
+
+		private final long droppedReceiveBytes;
+
+		private final int pendingWriteBytes;
+
+		private final long droppedWriteBytes;
+
+		private final Distribution readSizes;
+
+		private final Distribution eventLatencies;
+
+		private final Distribution batchSizes;
+
+		Snapshot(SerialMetrics metrics, int bufferedBytes, int bufferCapacity,
+				long droppedReceiveBytes, int pendingWriteBytes,
+				long droppedWriteBytes) {
+			this.timestamp = System.currentTimeMillis();
+			this.bytesReceived = metrics.bytesReceived.get();
+			this.framesReceived = metrics.framesReceived.get();
+			this.bytesWritten = metrics.bytesWritten.get();
+			this.readTimeouts = metrics.readTimeouts.get();
+			this.disconnects = metrics.disconnects.get();
+			this.reconnects = metrics.reconnects.get();
+			this.bufferedBytes = bufferedBytes;
+			this.bufferCapacity = bufferCapacity;
+			this.droppedReceiveBytes = droppedReceiveBytes;
+			this.pendingWriteBytes = pendingWriteBytes;
+			this.droppedWriteBytes = droppedWriteBytes;
+			this.readSizes = metrics.readSizes.snapshot();
+			this.eventLatencies = metrics.eventLatencies.snapshot();
+			this.batchSizes = metrics.batchSizes.snapshot();
+		}
+
+		/**
+		 * @return the time taken in milliseconds
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return the number of bytes received from the device
+		 */
+		public long getBytesReceived() {
+			return bytesReceived;
+		}
+
+		/**
+		 * @return the number of frames delimited or decoded
+		 */
+		public long getFramesReceived() {
+			return framesReceived;
+		}
+
+		/**
+		 * @return the number of bytes written by the sketch
+		 */
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		/**
+		 * @return the number of reads with timeout returning no data
+		 */
+		public long getReadTimeouts() {
+			return readTimeouts;
+		}
+
+		/**
+		 * @return the number of times the port was lost
+		 */
+		public long getDisconnects() {
+			return disconnects;
+		}
+
+		/**
+		 * @return the number of times the port was reopened
+		 */
+		public long getReconnects() {
+			return reconnects;
+		}
+
+		/**
+		 * @return the number of bytes received but not read by the sketch
+		 */
+		public int getBufferedBytes() {
+			return bufferedBytes;
+		}
+
+		/**
+		 * @return the capacity of the receive buffer
+		 */
+		public int getBufferCapacity() {
+			return bufferCapacity;
+		}
+
+		/**
+		 * @return the number of bytes discarded by the receive buffer
+		 */
+		public long getDroppedReceiveBytes() {
+			return droppedReceiveBytes;
+		}
+
+		/**
+		 * @return the number of bytes waiting to be written
+		 */
+		public int getPendingWriteBytes() {
+			return pendingWriteBytes;
+		}
+
+		/**
+		 * @return the number of bytes discarded by the write queue
+		 */
+		public long getDroppedWriteBytes() {
+			return droppedWriteBytes;
+		}
+
+		/**
+		 * @return the number of bytes per read from the device
+		 */
+		public Distribution getReadSizes() {
+			return readSizes;
+		}
+
+		/**
+		 * @return the time taken by serialEvent and frameEvent in nanoseconds
+		 */
+		public Distribution getEventLatencies() {
+			return eventLatencies;
+		}
+
+		/**
+		 * @return the number of bytes per batched serialEvent
+		 */
+		public Distribution getBatchSizes() {
+			return batchSizes;
+		}
+
+		/**
+		 * @return
+		 */
+		public JSONObject toJSONObject() {
+			final JSONObject json = new JSONObject();
+			json.setLong("timestamp", timestamp);
+			json.setLong("bytesReceived", bytesReceived);
+			json.setLong("framesReceived", framesReceived);
+			json.setLong("bytesWritten", bytesWritten);
+			json.setLong("readTimeouts", readTimeouts);
+			json.setLong("disconnects", disconnects);
+			json.setLong("reconnects", reconnects);
+			json.setInt("bufferedBytes", bufferedBytes);
+			json.setInt("bufferCapacity", bufferCapacity);
+			json.setLong("droppedReceiveBytes", droppedReceiveBytes);
+			json.setInt("pendingWriteBytes", pendingWriteBytes);
+			json.setLong("droppedWriteBytes", droppedWriteBytes);
+			json.setJSONObject("readSizes", readSizes.toJSONObject());
+			json.setJSONObject("eventLatencyNanos",
+					eventLatencies.toJSONObject());
+			json.setJSONObject("batchSizes", batchSizes.toJSONObject());
+			return json;
+		}
+
+		/**
+		 * @return the JSON in a line
+		 */
+		@Override
+		public String toString() {
+			return toJSONObject().format(-1);
+		}
+	}
+
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private final AtomicLong framesReceived = new AtomicLong();
+
+	private final AtomicLong bytesWritten = new AtomicLong();
+
+	private final AtomicLong readTimeouts = new AtomicLong();
+
+	private final AtomicLong disconnects = new AtomicLong();
+
+	private final AtomicLong reconnects = new AtomicLong();
+
+	private final Histogram readSizes = new Histogram();
+
+	private final Histogram eventLatencies = new Histogram();
+
+	private final Histogram batchSizes = new Histogram();
+
+	/**
+	 * Counts the disconnects and the reconnects
+	 */
+	private final ReconnectListener reconnectListener = new ReconnectListener() {
+		public void onDisconnected(Serial serial, Exception cause) {
+			disconnects.incrementAndGet();
+		}
+
+		public void onReconnected(Serial serial, int attempts) {
+			reconnects.incrementAndGet();
+		}
+	};
+
+	SerialMetrics() {
+	}
+
+	/**
+	 * @return the listener to add to the port
+	 */
+	ReconnectListener getReconnectListener() {
+		return reconnectListener;
+	}
+
+	/**
+	 * Records a read from the device.
+	 *
+	 * @param length
+	 */
+	void received(int length) {
+		bytesReceived.addAndGet(length);
+		readSizes.record(length);
+	}
+
+	/**
+	 * Records a frame delimited or decoded.
+	 */
+	void frameReceived() {
+		framesReceived.incrementAndGet();
+	}
+
+	/**
+	 * Records a write of the sketch.
+	 *
+	 * @param length
+	 */
+	void written(int length) {
+		bytesWritten.addAndGet(length);
+	}
+
+	/**
+	 * Records a read with timeout returning no data.
+	 */
+	void readTimedOut() {
+		readTimeouts.incrementAndGet();
+	}
+
+	/**
+	 * Records the time taken by an event handler.
+	 *
+	 * @param nanos
+	 */
+	void eventHandled(long nanos) {
+		eventLatencies.record(nanos);
+	}
+
+	/**
+	 * Records a batched serialEvent.
+	 *
+	 * @param bytes
+	 */
+	void eventBatched(int bytes) {
+		batchSizes.record(bytes);
+	}
+
+	/**
+	 * Takes a snapshot with the given gauges of the port.
+	 *
+	 * @param bufferedBytes
+	 * @param bufferCapacity
+	 * @param droppedReceiveBytes
+	 * @param pendingWriteBytes
+	 * @param droppedWriteBytes
+	 * @return
+	 */
+	Snapshot snapshot(int bufferedBytes, int bufferCapacity,
+			long droppedReceiveBytes, int pendingWriteBytes,
+			long droppedWriteBytes) {
+		return new Snapshot(this, bufferedBytes, bufferCapacity,
+				droppedReceiveBytes, pendingWriteBytes, droppedWriteBytes);
+	}
+}
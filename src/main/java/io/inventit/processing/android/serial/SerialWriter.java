@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbEndpoint;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the enqueued data to a {@link UsbSerialPort} in its {@link #run()}
+ * method, independently of the read loop.
+ *
+ * Small writes are coalesced into a multiple of the endpoint packet size. The
+ * {@link WriteQueue} decides what happens to the callers when the pending
+ * bytes exceed its high-water mark.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class SerialWriter implements Runnable {
+
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(SerialWriter.class);
+
+	private static final int WRITE_WAIT_MILLIS = 200;
+
+	/**
+	 * The max packet size of a full speed bulk endpoint.
+	 */
+	private static final int DEFAULT_PACKET_SIZE = 64;
+
+	private final UsbSerialPort mDriver;
+
+	private final byte[] mPacketBuffer;
+
+	private final WriteQueue mQueue;
+
+	// Synchronized by 'this'
+	private boolean mRunning = false;
+
+	/**
+	 *
+	 * @param driver
+	 * @param packetSize
+	 *            the max packet size of the bulk-out endpoint
+	 * @param bufferSize
+	 *            the max size of a coalesced write
+	 * @param queue
+	 *            the queue of the pending bytes
+	 */
+	SerialWriter(UsbSerialPort driver, int packetSize, int bufferSize,
+			WriteQueue queue) {
+		mDriver = driver;
+		mPacketBuffer = new byte[Math.max(packetSize, bufferSize / packetSize
+				* packetSize)];
+		mQueue = queue;
+	}
+
+	/**
+	 * Returns the max packet size of the bulk-out endpoint of the given port.
+	 *
+	 * @param driver
+	 * @return
+	 */
+	static int getPacketSize(UsbSerialPort driver) {
+		final UsbEndpoint endpoint = UsbRequestTransport.findBulkEndpoint(
+				driver, UsbConstants.USB_DIR_OUT);
+		if (endpoint == null || endpoint.getMaxPacketSize() <= 0) {
+			return DEFAULT_PACKET_SIZE;
+		}
+		return endpoint.getMaxPacketSize();
+	}
+
+	/**
+	 * Enqueues a copy of the data according to the overflow policy of the
+	 * queue.
+	 *
+	 * @param data
+	 * @return the number of bytes enqueued
+	 * @throws WriteBufferOverflowException
+	 */
+	public int enqueue(byte[] data) {
+		return mQueue.offer(data, 0, data.length);
+	}
+
+	/**
+	 * Enqueues a copy of the remaining data according to the overflow policy
+	 * of the queue.
+	 *
+	 * @param data
+	 * @return the number of bytes enqueued
+	 * @throws WriteBufferOverflowException
+	 */
+	public int enqueue(ByteBuffer data) {
+		return mQueue.offer(data);
+	}
+
+	/**
+	 * Sets the callback invoked whenever data is enqueued, which wakes up the
+	 * loop servicing this writer with {@link #writeStep()}.
+	 *
+	 * @param wakeup
+	 */
+	void setWakeup(Runnable wakeup) {
+		mQueue.setWakeup(wakeup);
+	}
+
+	/**
+	 * Blocks until all the data enqueued so far is passed to
+	 * {@link UsbSerialPort#write(byte[], int)}.
+	 */
+	public void flush() {
+		mQueue.flush();
+	}
+
+	/**
+	 * @return the queue of the pending bytes
+	 */
+	public WriteQueue getQueue() {
+		return mQueue;
+	}
+
+	/**
+	 * Stops the writer and releases the blocked callers. The pending data is
+	 * discarded.
+	 */
+	public void stop() {
+		mQueue.close();
+	}
+
+	/**
+	 * Writes the enqueued data until {@link #stop()} is called.
+	 */
+	public void run() {
+		synchronized (this) {
+			if (mRunning) {
+				throw new IllegalStateException("Already running.");
+			}
+			mRunning = true;
+		}
+		LOGGER.info("Running ..");
+		try {
+			while (true) {
+				final int len = mQueue.take(mPacketBuffer);
+				if (len < 0) {
+					break;
+				}
+				write(len);
+			}
+		} catch (IOException e) {
+			LOGGER.warn("Write failed: " + e.getMessage(), e);
+		} finally {
+			synchronized (this) {
+				mRunning = false;
+			}
+			LOGGER.info("Stopped.");
+		}
+	}
+
+	/**
+	 * Writes the enqueued data if any without waiting, for a loop servicing
+	 * several writers in turn instead of {@link #run()}.
+	 *
+	 * @return the number of bytes written, 0 if nothing is enqueued, -1 after
+	 *         {@link #stop()}
+	 * @throws IOException
+	 *             if the driver failed to write, after which the writer is
+	 *             stopped
+	 */
+	int writeStep() throws IOException {
+		final int len = mQueue.poll(mPacketBuffer);
+		if (len > 0) {
+			write(len);
+		}
+		return len;
+	}
+
+	/**
+	 * Passes the bytes taken from the queue to the driver. The queue is
+	 * closed on failure, so that the bytes are not counted as written and
+	 * the callers waiting in {@link #flush()} see the failure.
+	 *
+	 * @param len
+	 * @throws IOException
+	 */
+	private void write(int len) throws IOException {
+		if (Config.isDebugEnabled()) {
+			LOGGER.debug("Writing data len={}", len);
+		}
+		final byte[] outBuff;
+		if (len == mPacketBuffer.length) {
+			outBuff = mPacketBuffer;
+		} else {
+			outBuff = new byte[len];
+			System.arraycopy(mPacketBuffer, 0, outBuff, 0, len);
+		}
+		try {
+			mDriver.write(outBuff, WRITE_WAIT_MILLIS);
+		} catch (IOException e) {
+			mQueue.failed(len, e);
+			throw e;
+		}
+		mQueue.written(len);
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the events queued by the I/O thread on the sketch thread. This is
+ * registered to the sketch as a "pre" method so {@link #pre()} is invoked
+ * before each draw().
+ * 
+ * The I/O thread only increments a counter, so it never waits on the sketch.
+ * All pending events of a kind are delivered with one callback, and the
+ * number of merged events is available from {@link Serial#eventCount()}
+ * during the callback.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public final class SketchThreadEventDispatcher {
+
+	private final AbstractAndroidSerialCommunicator communicator;
+
+	private final AtomicInteger pendingSerialEvents = new AtomicInteger();
+
+	private final AtomicInteger pendingFrameEvents = new AtomicInteger();
+
+	/**
+	 * 
+	 * @param communicator
+	 */
+	SketchThreadEventDispatcher(AbstractAndroidSerialCommunicator communicator) {
+		this.communicator = communicator;
+	}
+
+	/**
+	 * Queues a serialEvent. Invoked by the I/O thread.
+	 */
+	void postSerialEvent() {
+		pendingSerialEvents.incrementAndGet();
+	}
+
+	/**
+	 * Queues the serialEvents merged by the I/O thread.
+	 * 
+	 * @param count
+	 */
+	void postSerialEvents(int count) {
+		pendingSerialEvents.addAndGet(count);
+	}
+
+	/**
+	 * Queues a frameEvent. Invoked by the I/O thread.
+	 */
+	void postFrameEvent() {
+		pendingFrameEvents.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of the events not delivered yet
+	 */
+	int getPendingEvents() {
+		return pendingSerialEvents.get() + pendingFrameEvents.get();
+	}
+
+	/**
+	 * Delivers the pending events. Invoked by the sketch before draw(), not
+	 * intended to be called from the sketch code.
+	 */
+	public void pre() {
+		final int serialEvents = pendingSerialEvents.getAndSet(0);
+		if (serialEvents > 0) {
+			communicator.deliverSerialEvent(serialEvents);
+		}
+		final int frameEvents = pendingFrameEvents.getAndSet(0);
+		if (frameEvents > 0) {
+			communicator.deliverFrameEvent(frameEvents);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Decodes the frames encoded with SLIP (RFC 1055). Empty frames, e.g. by the
+ * leading END byte, are ignored.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+public class SlipFrameDecoder extends AbstractFrameDecoder {
+
+	private static final int END = 0xc0;
+
+	private static final int ESC = 0xdb;
+
+	private static final int ESC_END = 0xdc;
+
+	private static final int ESC_ESC = 0xdd;
+
+	private boolean escaped = false;
+
+	/**
+	 * 
+	 * @param maxFrameLength
+	 *            the max length of a decoded frame
+	 */
+	public SlipFrameDecoder(int maxFrameLength) {
+		super(maxFrameLength);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see FrameDecoder#decode(byte[], int, int, FrameDecoder.Listener)
+	 */
+	public void decode(byte[] data, int offset, int length, Listener listener) {
+		final int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			final int b = data[i] & 0xff;
+			if (escaped) {
+				escaped = false;
+				if (b == ESC_END) {
+					append((byte) END);
+				} else if (b == ESC_ESC) {
+					append((byte) ESC);
+				} else if (b == END) {
+					// protocol violation
+					discard();
+				} else {
+					append((byte) b);
+				}
+			} else if (b == END) {
+				if (getFrameLength() > 0) {
+					emit(listener);
+				}
+			} else if (b == ESC) {
+				escaped = true;
+			} else {
+				append((byte) b);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see AbstractFrameDecoder#reset()
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		escaped = false;
+	}
+}
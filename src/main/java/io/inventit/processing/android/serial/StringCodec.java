@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Converts between the bytes of a port and the characters with a charset,
+ * reusing its {@link CharsetDecoder}, {@link CharsetEncoder} and buffers.
+ *
+ * US-ASCII and ISO-8859-1 are converted byte by byte without any coder or
+ * intermediate array. The characters which can't be converted are replaced
+ * in the same way as {@link String#getBytes()} and
+ * {@link String#String(byte[])}.
+ *
+ * The decoding methods are invoked by the consumer of the receive buffer
+ * only, and the encoding methods while holding the monitor of this codec.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class StringCodec {
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+	private static final byte REPLACEMENT_BYTE = '?';
+
+	private final Charset charset;
+
+	/**
+	 * The largest character mapped to a byte as it is, -1 unless single byte
+	 */
+	private final int maxDirectChar;
+
+	private final CharsetDecoder decoder;
+
+	private final CharsetEncoder encoder;
+
+	/**
+	 * The bytes to decode
+	 */
+	private ByteBuffer decoding = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * The decoded characters, returned as a view
+	 */
+	private CharBuffer decoded = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * The encoded bytes
+	 */
+	private ByteBuffer encoded = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 *
+	 * @param charset
+	 */
+	StringCodec(Charset charset) {
+		this.charset = charset;
+		final String name = charset.name();
+		if ("US-ASCII".equals(name)) {
+			this.maxDirectChar = 0x7f;
+		} else if ("ISO-8859-1".equals(name)) {
+			this.maxDirectChar = 0xff;
+		} else {
+			this.maxDirectChar = -1;
+		}
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Returns the codec of the charset name.
+	 *
+	 * @param charsetName
+	 *            null for the platform default
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the charset is not supported
+	 */
+	static StringCodec forName(String charsetName) {
+		return new StringCodec(charsetName == null ? Charset.defaultCharset()
+				: Charset.forName(charsetName));
+	}
+
+	/**
+	 * @return the charset
+	 */
+	Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Decodes the given number of bytes from the buffer.
+	 *
+	 * @param ring
+	 * @param length
+	 * @return the characters valid until the next decoding
+	 */
+	CharBuffer decode(RingBuffer ring, int length) {
+		final CharBuffer out = prepareDecoded(length);
+		if (maxDirectChar >= 0) {
+			final int n = ring.readChars(out.array(), 0, length,
+					maxDirectChar, REPLACEMENT_CHAR);
+			out.limit(n);
+			return out;
+		}
+		final ByteBuffer in = prepareDecoding(length);
+		in.limit(length);
+		ring.read(in);
+		in.flip();
+		decode(in, out);
+		return out;
+	}
+
+	/**
+	 * Decodes all the bytes in the buffer, except an incomplete character at
+	 * the end, which is left in the buffer for the next decoding.
+	 *
+	 * @param ring
+	 * @return the characters valid until the next decoding
+	 */
+	CharBuffer decodeAvailable(RingBuffer ring) {
+		final int length = ring.available();
+		if (maxDirectChar >= 0) {
+			return decode(ring, length);
+		}
+		final CharBuffer out = prepareDecoded(length);
+		final ByteBuffer in = prepareDecoding(length);
+		in.limit(length);
+		ring.peek(in);
+		in.flip();
+		decoder.reset();
+		decoder.decode(in, out, false);
+		ring.skip(in.position());
+		out.flip();
+		return out;
+	}
+
+	private void decode(ByteBuffer in, CharBuffer out) {
+		decoder.reset();
+		decoder.decode(in, out, true);
+		decoder.flush(out);
+		out.flip();
+	}
+
+	private ByteBuffer prepareDecoding(int length) {
+		if (decoding.capacity() < length) {
+			decoding = ByteBuffer.allocate(Math.max(length,
+					decoding.capacity() * 2));
+		}
+		decoding.clear();
+		return decoding;
+	}
+
+	private CharBuffer prepareDecoded(int length) {
+		final int capacity = maxDirectChar >= 0 ? length : (int) Math
+				.ceil(length * (double) decoder.maxCharsPerByte());
+		if (decoded.capacity() < capacity) {
+			decoded = CharBuffer.allocate(Math.max(capacity,
+					decoded.capacity() * 2));
+		}
+		decoded.clear();
+		return decoded;
+	}
+
+	/**
+	 * Encodes the characters. Invoked while holding the monitor of this codec.
+	 *
+	 * @param chars
+	 * @return the bytes valid until the next encoding
+	 */
+	ByteBuffer encode(CharSequence chars) {
+		final int length = chars.length();
+		if (maxDirectChar >= 0) {
+			final ByteBuffer out = prepareEncoded(length);
+			final byte[] array = out.array();
+			for (int i = 0; i < length; i++) {
+				final char c = chars.charAt(i);
+				array[i] = c <= maxDirectChar ? (byte) c : REPLACEMENT_BYTE;
+			}
+			out.limit(length);
+			return out;
+		}
+		final CharBuffer in = CharBuffer.wrap(chars);
+		ByteBuffer out = prepareEncoded((int) Math.ceil(length
+				* (double) encoder.averageBytesPerChar()));
+		encoder.reset();
+		// never fails while replacing
+		while (encoder.encode(in, out, true).isOverflow()) {
+			out = growEncoded(out);
+		}
+		while (encoder.flush(out).isOverflow()) {
+			out = growEncoded(out);
+		}
+		out.flip();
+		return out;
+	}
+
+	private ByteBuffer prepareEncoded(int length) {
+		if (encoded.capacity() < length) {
+			encoded = ByteBuffer.allocate(Math.max(length,
+					encoded.capacity() * 2));
+		}
+		encoded.clear();
+		return encoded;
+	}
+
+	private ByteBuffer growEncoded(ByteBuffer out) {
+		final ByteBuffer grown = ByteBuffer.allocate(out.capacity() * 2);
+		out.flip();
+		grown.put(out);
+		encoded = grown;
+		return grown;
+	}
+}
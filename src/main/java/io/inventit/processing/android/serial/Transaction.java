@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A request written to the port and its response, made by
+ * {@link SerialCommunicator#request(byte[], ResponseMatcher, long, Listener)}.
+ *
+ * It completes with the response frame, or fails with a
+ * {@link TimeoutException} when the response doesn't come in time, or with an
+ * {@link IllegalStateException} when the port is stopped or can't write.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public final class Transaction implements Future<byte[]> {
+
+	/**
+	 * Notified when a transaction completes, fails or is cancelled.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked once on the thread completing the transaction, usually a
+		 * serial I/O thread, so it must not block.
+		 *
+		 * @param transaction
+		 */
+		void onCompleted(Transaction transaction);
+	}
+
+	private final byte[] request;
+
+	private final ResponseMatcher matcher;
+
+	private final long timeoutMillis;
+
+	private final Listener listener;
+
+	/**
+	 * Set by {@link TransactionManager}
+	 */
+	private volatile TransactionManager manager;
+
+	/**
+	 * Set by {@link TransactionManager} while holding it
+	 */
+	private ScheduledFuture<?> timeout;
+
+	private volatile long sentNanos;
+
+	// Synchronized by 'this'
+	private boolean done;
+
+	// Synchronized by 'this'
+	private boolean cancelled;
+
+	// Synchronized by 'this'
+	private byte[] response;
+
+	// Synchronized by 'this'
+	private Throwable failure;
+
+	// Synchronized by 'this'
+	private long roundTripNanos = -1;
+
+	/**
+	 *
+	 * @param request
+	 * @param matcher
+	 * @param timeoutMillis
+	 *            0 or less for no timeout
+	 * @param listener
+	 *            null if not notified
+	 */
+	Transaction(byte[] request, ResponseMatcher matcher, long timeoutMillis,
+			Listener listener) {
+		if (matcher == null) {
+			throw new IllegalArgumentException("matcher is required.");
+		}
+		this.request = request;
+		this.matcher = matcher;
+		this.timeoutMillis = timeoutMillis;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the request
+	 */
+	public byte[] getRequest() {
+		return request;
+	}
+
+	/**
+	 * @return the response, null unless completed with it
+	 */
+	public synchronized byte[] getResponse() {
+		return response;
+	}
+
+	/**
+	 * @return the cause of the failure, null unless failed
+	 */
+	public synchronized Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the nanoseconds from the request written to the response
+	 *         received, -1 unless completed with the response
+	 */
+	public synchronized long getRoundTripNanos() {
+		return roundTripNanos;
+	}
+
+	/**
+	 * Cancels the transaction unless completed. The response which comes
+	 * later is offered to the other requests.
+	 *
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		final TransactionManager manager = this.manager;
+		if (manager != null && !manager.remove(this)) {
+			return false;
+		}
+		return complete(null, null, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public synchronized byte[] get() throws InterruptedException,
+			ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return result();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see java.util.concurrent.Future#get(long,
+	 *      java.util.concurrent.TimeUnit)
+	 */
+	public synchronized byte[] get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			final long nanos = deadline - System.nanoTime();
+			if (nanos <= 0) {
+				throw new TimeoutException();
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, nanos);
+		}
+		return result();
+	}
+
+	/**
+	 * Invoked while holding 'this'.
+	 */
+	private byte[] result() throws ExecutionException {
+		if (cancelled) {
+			throw new CancellationException();
+		}
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return response;
+	}
+
+	ResponseMatcher getMatcher() {
+		return matcher;
+	}
+
+	long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	void setManager(TransactionManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Invoked while holding the manager when the request is about to be written.
+	 *
+	 * @param timeout
+	 *            null if none
+	 */
+	void sent(ScheduledFuture<?> timeout) {
+		this.sentNanos = System.nanoTime();
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Invoked while holding the manager when removed from it.
+	 */
+	void removed() {
+		if (timeout != null) {
+			timeout.cancel(false);
+			timeout = null;
+		}
+	}
+
+	boolean succeed(byte[] response) {
+		return complete(response, null, false);
+	}
+
+	boolean fail(Throwable failure) {
+		return complete(null, failure, false);
+	}
+
+	private boolean complete(byte[] response, Throwable failure,
+			boolean cancelled) {
+		synchronized (this) {
+			if (done) {
+				return false;
+			}
+			this.response = response;
+			this.failure = failure;
+			this.cancelled = cancelled;
+			if (response != null) {
+				this.roundTripNanos = System.nanoTime() - sentNanos;
+			}
+			this.done = true;
+			notifyAll();
+		}
+		if (listener != null) {
+			listener.onCompleted(this);
+		}
+		return true;
+	}
+}
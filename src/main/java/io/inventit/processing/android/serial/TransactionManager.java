@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Writes the requests of a port keeping up to the max number of them in
+ * flight, and correlates the received frames with them. The requests beyond
+ * the max wait without blocking the caller, and are written in order as the
+ * others complete.
+ *
+ * A request takes its slot in flight while holding this manager, and is
+ * written outside of it by a single writer at a time, so that the requests
+ * go out in order without blocking the received frames while the write
+ * buffer is full. The requests submitted while no request is being written
+ * are written by the caller, and the others by the writer or a step on the
+ * scheduler.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class TransactionManager {
+
+	private final SerialCommunicator port;
+
+	private final SerialIoScheduler ioScheduler;
+
+	private final int maxInFlight;
+
+	// Synchronized by 'this'
+	private final LinkedList<Transaction> inFlight = new LinkedList<Transaction>();
+
+	// Synchronized by 'this'
+	private final LinkedList<Transaction> waiting = new LinkedList<Transaction>();
+
+	/**
+	 * The requests in flight not written yet, synchronized by 'this'
+	 */
+	private final LinkedList<Transaction> unwritten = new LinkedList<Transaction>();
+
+	/**
+	 * True while any thread is writing the requests, synchronized by 'this'
+	 */
+	private boolean writing;
+
+	// Synchronized by 'this'
+	private boolean closed;
+
+	private final Runnable writeStep = new Runnable() {
+		public void run() {
+			write();
+		}
+	};
+
+	/**
+	 * Registers to the scheduler for the timeouts until closed.
+	 *
+	 * @param port
+	 *            writes the requests
+	 * @param ioScheduler
+	 * @param maxInFlight
+	 */
+	TransactionManager(SerialCommunicator port, SerialIoScheduler ioScheduler,
+			int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("Invalid maxInFlight: "
+					+ maxInFlight);
+		}
+		this.port = port;
+		this.ioScheduler = ioScheduler;
+		this.maxInFlight = maxInFlight;
+		ioScheduler.register();
+	}
+
+	/**
+	 * Writes the request, or queues it while the max number of requests are
+	 * in flight.
+	 *
+	 * @param transaction
+	 * @return the transaction
+	 * @throws IllegalStateException
+	 *             if closed
+	 */
+	Transaction submit(Transaction transaction) {
+		transaction.setManager(this);
+		final boolean writer;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException(
+						"The serial connection is already closed.");
+			}
+			if (inFlight.size() < maxInFlight && waiting.isEmpty()) {
+				reserve(transaction);
+			} else {
+				waiting.add(transaction);
+			}
+			writer = startWriting();
+		}
+		if (writer) {
+			write();
+		}
+		return transaction;
+	}
+
+	/**
+	 * Offers a received frame to the requests in flight from the oldest.
+	 * Invoked by the serial I/O thread.
+	 *
+	 * @param frame
+	 * @param offset
+	 * @param length
+	 * @return true if taken as a response
+	 */
+	boolean offer(byte[] frame, int offset, int length) {
+		final Transaction matched;
+		final boolean writer;
+		synchronized (this) {
+			matched = match(frame, offset, length);
+			if (matched == null) {
+				return false;
+			}
+			reserveWaiting();
+			writer = startWriting();
+		}
+		if (writer) {
+			writeLater();
+		}
+		final byte[] response = new byte[length];
+		System.arraycopy(frame, offset, response, 0, length);
+		matched.succeed(response);
+		return true;
+	}
+
+	/**
+	 * Invoked while holding 'this'.
+	 */
+	private Transaction match(byte[] frame, int offset, int length) {
+		final Iterator<Transaction> iterator = inFlight.iterator();
+		while (iterator.hasNext()) {
+			final Transaction transaction = iterator.next();
+			if (transaction.getMatcher().matches(frame, offset, length)) {
+				iterator.remove();
+				transaction.removed();
+				return transaction;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the transaction unless completed.
+	 *
+	 * @param transaction
+	 * @return false if not found
+	 */
+	boolean remove(Transaction transaction) {
+		final boolean writer;
+		synchronized (this) {
+			if (waiting.remove(transaction)) {
+				return true;
+			}
+			if (!inFlight.remove(transaction)) {
+				return false;
+			}
+			transaction.removed();
+			unwritten.remove(transaction);
+			reserveWaiting();
+			writer = startWriting();
+		}
+		if (writer) {
+			writeLater();
+		}
+		return true;
+	}
+
+	/**
+	 * Fails the transaction unless completed, as the response doesn't come in
+	 * time.
+	 *
+	 * @param transaction
+	 */
+	private void timedOut(Transaction transaction) {
+		if (remove(transaction)) {
+			transaction.fail(new TimeoutException("No response in "
+					+ transaction.getTimeoutMillis() + "ms."));
+		}
+	}
+
+	/**
+	 * Moves the waiting requests in flight while there's room. Invoked while
+	 * holding 'this'.
+	 */
+	private void reserveWaiting() {
+		while (!closed && inFlight.size() < maxInFlight && !waiting.isEmpty()) {
+			reserve(waiting.removeFirst());
+		}
+	}
+
+	/**
+	 * Takes a slot in flight for the request to write. Invoked while holding
+	 * 'this'.
+	 *
+	 * @param transaction
+	 */
+	private void reserve(Transaction transaction) {
+		inFlight.add(transaction);
+		unwritten.add(transaction);
+	}
+
+	/**
+	 * Invoked while holding 'this'.
+	 *
+	 * @return true if the caller is to write the requests
+	 */
+	private boolean startWriting() {
+		if (writing || unwritten.isEmpty()) {
+			return false;
+		}
+		writing = true;
+		return true;
+	}
+
+	/**
+	 * Writes the requests on the scheduler, so that the serial I/O thread
+	 * doesn't wait for the write buffer.
+	 */
+	private void writeLater() {
+		if (!ioScheduler.execute(writeStep)) {
+			// closed
+			synchronized (this) {
+				writing = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes the requests in flight in order until none is left. Invoked by
+	 * the single writer only.
+	 */
+	private void write() {
+		while (true) {
+			final Transaction transaction;
+			synchronized (this) {
+				transaction = unwritten.poll();
+				if (transaction == null) {
+					writing = false;
+					return;
+				}
+				start(transaction);
+			}
+			if (!send(transaction)) {
+				synchronized (this) {
+					if (!inFlight.remove(transaction)) {
+						// completed while writing
+						continue;
+					}
+					transaction.removed();
+					reserveWaiting();
+				}
+				transaction.fail(new IllegalStateException(
+						"Failed to write the request."));
+			}
+		}
+	}
+
+	/**
+	 * Starts the timeout of the request. Invoked while holding 'this'.
+	 *
+	 * @param transaction
+	 */
+	private void start(final Transaction transaction) {
+		final long timeoutMillis = transaction.getTimeoutMillis();
+		transaction.sent(timeoutMillis > 0 ? ioScheduler.schedule(
+				new Runnable() {
+					public void run() {
+						timedOut(transaction);
+					}
+				}, timeoutMillis) : null);
+	}
+
+	/**
+	 * Writes the request without holding 'this'.
+	 *
+	 * @param transaction
+	 * @return false if failed to write
+	 */
+	private boolean send(Transaction transaction) {
+		try {
+			port.write(transaction.getRequest());
+			return true;
+		} catch (RuntimeException exception) {
+			return false;
+		}
+	}
+
+	private static void failAll(List<Transaction> transactions, String message) {
+		if (transactions == null) {
+			return;
+		}
+		for (Transaction transaction : transactions) {
+			transaction.fail(new IllegalStateException(message));
+		}
+	}
+
+	/**
+	 * @return the number of the requests in flight
+	 */
+	synchronized int getInFlight() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return the number of the requests not written yet
+	 */
+	synchronized int getWaiting() {
+		return waiting.size();
+	}
+
+	/**
+	 * Fails all the requests, and unregisters from the scheduler.
+	 */
+	void close() {
+		final List<Transaction> failed = new ArrayList<Transaction>();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Transaction transaction : inFlight) {
+				transaction.removed();
+			}
+			failed.addAll(inFlight);
+			failed.addAll(waiting);
+			inFlight.clear();
+			waiting.clear();
+			unwritten.clear();
+		}
+		ioScheduler.unregister();
+		failAll(failed, "The serial connection is already closed.");
+	}
+}
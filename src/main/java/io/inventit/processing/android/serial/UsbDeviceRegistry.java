@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A cache of the USB serial drivers of the attached devices.
+ * 
+ * Each device is probed once and the result, including "not a serial
+ * device", is cached by its device name along with its vendor and product
+ * IDs. The cache is updated by the attach/detach broadcasts, and the devices
+ * attached without a broadcast are probed on the next lookup by comparing the
+ * device list of {@link UsbManager}, which is cheap unlike the probing.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class UsbDeviceRegistry {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(UsbDeviceRegistry.class);
+
+	/**
+	 * Synchronized by the class
+	 */
+	private static UsbDeviceRegistry instance;
+
+	/**
+	 * A probed device
+	 */
+	private static final class Entry {
+
+		private final int vendorId;
+
+		private final int productId;
+
+		/**
+		 * null if not a serial device
+		 */
+		private final UsbSerialDriver driver;
+
+		Entry(UsbDevice device, UsbSerialDriver driver) {
+			this.vendorId = device.getVendorId();
+			this.productId = device.getProductId();
+			this.driver = driver;
+		}
+
+		boolean isFor(UsbDevice device) {
+			return vendorId == device.getVendorId()
+					&& productId == device.getProductId();
+		}
+	}
+
+	/**
+	 * Notified of the attached serial devices
+	 */
+	interface Listener {
+
+		/**
+		 * Invoked on the main thread.
+		 * 
+		 * @param driver
+		 */
+		void onAttached(UsbSerialDriver driver);
+	}
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final Context context;
+
+	private final UsbManager usbManager;
+
+	private final UsbSerialProber prober;
+
+	/**
+	 * Synchronized by 'this', in the attached order
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private final BroadcastReceiver receiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			final UsbDevice device = intent
+					.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+			if (device == null) {
+				return;
+			}
+			if (UsbManager.ACTION_USB_DEVICE_ATTACHED
+					.equals(intent.getAction())) {
+				attached(device);
+			} else if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(intent
+					.getAction())) {
+				detached(device);
+			}
+		}
+	};
+
+	/**
+	 * 
+	 * @param context
+	 *            the application context
+	 * @param usbManager
+	 * @param prober
+	 */
+	UsbDeviceRegistry(Context context, UsbManager usbManager,
+			UsbSerialProber prober) {
+		this.context = context;
+		this.usbManager = usbManager;
+		this.prober = prober;
+	}
+
+	/**
+	 * Returns the registry for the given application context, which starts
+	 * receiving the attach/detach broadcasts.
+	 * 
+	 * @param context
+	 * @return
+	 */
+	static UsbDeviceRegistry getInstance(Context context) {
+		synchronized (UsbDeviceRegistry.class) {
+			if (instance == null || instance.context != context) {
+				if (instance != null) {
+					instance.close();
+				}
+				instance = new UsbDeviceRegistry(context,
+						(UsbManager) context
+								.getSystemService(Context.USB_SERVICE),
+						UsbSerialProber.getDefaultProber());
+				instance.open();
+			}
+			return instance;
+		}
+	}
+
+	/**
+	 * Starts receiving the attach/detach broadcasts.
+	 */
+	void open() {
+		final IntentFilter filter = new IntentFilter();
+		filter.addAction(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+		filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+		try {
+			context.registerReceiver(receiver, filter);
+		} catch (RuntimeException exception) {
+			// the lookups still catch up with the device list
+			LOGGER.warn("Failed to receive the USB device broadcasts.",
+					exception);
+		}
+	}
+
+	/**
+	 * Stops receiving the broadcasts.
+	 */
+	void close() {
+		try {
+			context.unregisterReceiver(receiver);
+		} catch (RuntimeException ignored) {
+			// not registered
+		}
+	}
+
+	/**
+	 * @param listener
+	 */
+	void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 */
+	void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Probes the attached device unless known, and notifies the listeners of
+	 * a serial device.
+	 * 
+	 * @param device
+	 */
+	void attached(UsbDevice device) {
+		final UsbSerialDriver driver;
+		synchronized (this) {
+			Entry entry = entries.get(device.getDeviceName());
+			if (entry == null || !entry.isFor(device)) {
+				entry = new Entry(device, prober.probeDevice(device));
+				entries.put(device.getDeviceName(), entry);
+			}
+			driver = entry.driver;
+		}
+		if (driver != null) {
+			for (Listener listener : listeners) {
+				listener.onAttached(driver);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the detached device.
+	 * 
+	 * @param device
+	 */
+	synchronized void detached(UsbDevice device) {
+		entries.remove(device.getDeviceName());
+	}
+
+	/**
+	 * Catches up with the device list of {@link UsbManager}, probing the new
+	 * devices only.
+	 */
+	private void update() {
+		final HashMap<String, UsbDevice> devices = usbManager.getDeviceList();
+		if (devices == null) {
+			entries.clear();
+			return;
+		}
+		final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet()
+				.iterator();
+		while (iterator.hasNext()) {
+			final Map.Entry<String, Entry> entry = iterator.next();
+			final UsbDevice device = devices.get(entry.getKey());
+			if (device == null || !entry.getValue().isFor(device)) {
+				iterator.remove();
+			}
+		}
+		for (UsbDevice device : devices.values()) {
+			if (!entries.containsKey(device.getDeviceName())) {
+				entries.put(device.getDeviceName(), new Entry(device,
+						prober.probeDevice(device)));
+			}
+		}
+	}
+
+	/**
+	 * Finds the driver of the given device.
+	 * 
+	 * @param deviceName
+	 *            null for the first serial device
+	 * @return null if missing
+	 */
+	synchronized UsbSerialDriver find(String deviceName) {
+		update();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			final UsbSerialDriver driver = entry.getValue().driver;
+			if (driver != null
+					&& (deviceName == null || deviceName.length() == 0 || deviceName
+							.equals(entry.getKey()))) {
+				return driver;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the drivers of the attached serial devices
+	 */
+	synchronized List<UsbSerialDriver> getDrivers() {
+		update();
+		final List<UsbSerialDriver> drivers = new ArrayList<UsbSerialDriver>();
+		for (Entry entry : entries.values()) {
+			if (entry.driver != null) {
+				drivers.add(entry.driver);
+			}
+		}
+		return drivers;
+	}
+
+	/**
+	 * @return the identifiers of all the ports of the attached serial devices
+	 */
+	String[] list() {
+		final List<String> names = new ArrayList<String>();
+		for (UsbSerialDriver driver : getDrivers()) {
+			final String deviceName = driver.getDevice().getDeviceName();
+			for (int i = 0; i < driver.getPorts().size(); i++) {
+				names.add(PortAddress.format(deviceName, i));
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+}
@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link UsbDeviceConnection} shared by all the open ports of a USB serial
+ * device, e.g. the channels of a multi-channel adapter.
+ * 
+ * The ports are serviced by one read loop and one write loop per device,
+ * running as steps on the shared {@link SerialIoScheduler}. The read loop
+ * awaits the {@link UsbRequest}s of all the ports on the connection at once,
+ * as a completion can't be awaited per endpoint, and polls the ports reading
+ * with timeout in turn. The write loop is scheduled only while any data is
+ * enqueued.
+ * 
+ * The session is reference counted and the connection is closed when the
+ * last port is released. The ports are closed together with the connection,
+ * as the drivers close the connection on closing any port. A session without a connection services the ports
+ * reading with timeout only, e.g. the ports of a loopback device.
+ * 
+ * @author dbaba@yourinventit.com
+ * 
+ */
+final class UsbDeviceSession {
+
+	/**
+	 * {@link Logger}
+	 */
+	private static final Logger LOGGER = LoggerFactory
+			.getLogger(UsbDeviceSession.class);
+
+	private static final long READ_WAIT_MILLIS = 200;
+
+	/**
+	 * The read timeout while the other ports are waiting for their turn
+	 */
+	private static final long SHARED_READ_WAIT_MILLIS = 10;
+
+	private static final long WAIT_ON_NULL_RESPONSE_MILLIS = 10;
+
+	/**
+	 * Synchronized by the class
+	 */
+	private static final Map<String, UsbDeviceSession> SESSIONS = new HashMap<String, UsbDeviceSession>();
+
+	/**
+	 * A task run while the writes are paused
+	 */
+	interface QuiescedTask {
+
+		/**
+		 * @throws IOException
+		 */
+		void run() throws IOException;
+	}
+
+	/**
+	 * A port serviced by this session
+	 */
+	private static final class Port {
+
+		private final SerialInputOutputManager manager;
+
+		private final UsbRequestTransport transport;
+
+		Port(SerialInputOutputManager manager, UsbRequestTransport transport) {
+			this.manager = manager;
+			this.transport = transport;
+		}
+	}
+
+	private final String deviceName;
+
+	private final UsbDeviceConnection connection;
+
+	private final List<Port> ports = new CopyOnWriteArrayList<Port>();
+
+	private final SerialIoScheduler scheduler;
+
+	/**
+	 * Held while a read step is running
+	 */
+	private final Object readLock = new Object();
+
+	/**
+	 * Held while a write step is running
+	 */
+	private final Object writeLock = new Object();
+
+	private final AtomicBoolean readScheduled = new AtomicBoolean();
+
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+	private final Runnable readStep = new Runnable() {
+		public void run() {
+			read();
+		}
+	};
+
+	private final Runnable writeStep = new Runnable() {
+		public void run() {
+			write();
+		}
+	};
+
+	/**
+	 * Invoked by the writers on every enqueue
+	 */
+	private final Runnable wakeup = new Runnable() {
+		public void run() {
+			scheduleWrite();
+		}
+	};
+
+	// Synchronized by the class
+	private int refCount = 0;
+
+	/**
+	 * The ports opened on the connection, synchronized by itself
+	 */
+	private final List<UsbSerialPort> openPorts = new ArrayList<UsbSerialPort>();
+
+	private volatile boolean running = true;
+
+	private UsbDeviceSession(String deviceName,
+			UsbDeviceConnection connection, SerialIoScheduler scheduler) {
+		this.deviceName = deviceName;
+		this.connection = connection;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Opens the device unless another port of the device is open, and
+	 * increments the reference count.
+	 * 
+	 * @param usbManager
+	 * @param driver
+	 * @return
+	 * @throws IOException
+	 *             if the device can't be opened
+	 */
+	static UsbDeviceSession acquire(UsbManager usbManager,
+			UsbSerialDriver driver) throws IOException {
+		final UsbDevice device = driver.getDevice();
+		final String deviceName = device.getDeviceName();
+		synchronized (UsbDeviceSession.class) {
+			UsbDeviceSession session = SESSIONS.get(deviceName);
+			if (session == null) {
+				final UsbDeviceConnection connection = usbManager
+						.openDevice(device);
+				if (connection == null) {
+					throw new IOException("Failed to open the device: "
+							+ deviceName);
+				}
+				session = new UsbDeviceSession(deviceName, connection,
+						SerialCommunicatorFacory.getInstance().getIoScheduler());
+				session.scheduler.register();
+				SESSIONS.put(deviceName, session);
+			}
+			session.refCount++;
+			return session;
+		}
+	}
+
+	/**
+	 * Increments the reference count of the session for a device without a
+	 * USB connection, e.g. a loopback device.
+	 * 
+	 * @param deviceName
+	 *            the name unique among the devices without a connection
+	 * @return
+	 */
+	static UsbDeviceSession acquire(String deviceName) {
+		final String key = "loopback:" + deviceName;
+		synchronized (UsbDeviceSession.class) {
+			UsbDeviceSession session = SESSIONS.get(key);
+			if (session == null) {
+				session = new UsbDeviceSession(key, null,
+						SerialCommunicatorFacory.getInstance().getIoScheduler());
+				session.scheduler.register();
+				SESSIONS.put(key, session);
+			}
+			session.refCount++;
+			return session;
+		}
+	}
+
+	/**
+	 * @return the connection, null for a device without a USB connection
+	 */
+	UsbDeviceConnection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Opens the port on the connection unless already open. The port is kept
+	 * open until the last port is released, as closing it closes the
+	 * connection shared by the other ports.
+	 * 
+	 * @param port
+	 * @throws IOException
+	 */
+	void open(UsbSerialPort port) throws IOException {
+		synchronized (openPorts) {
+			if (openPorts.contains(port)) {
+				return;
+			}
+			port.open(connection);
+			openPorts.add(port);
+		}
+	}
+
+	/**
+	 * Starts servicing the given manager.
+	 * 
+	 * @param manager
+	 * @param transport
+	 *            the transport of the manager, null if reading with timeout
+	 */
+	void attach(SerialInputOutputManager manager, UsbRequestTransport transport) {
+		if (!running) {
+			throw new IllegalStateException("The session is already closed.");
+		}
+		manager.begin();
+		manager.getWriter().setWakeup(wakeup);
+		ports.add(new Port(manager, transport));
+		scheduleRead();
+		scheduleWrite();
+	}
+
+	/**
+	 * Decrements the reference count, and closes the connection after the
+	 * last port is released. The managers must be stopped in advance.
+	 */
+	void release() {
+		synchronized (UsbDeviceSession.class) {
+			if (--refCount > 0) {
+				return;
+			}
+			SESSIONS.remove(deviceName);
+		}
+		running = false;
+		// waits for the running steps unless invoked by them
+		synchronized (readLock) {
+			synchronized (writeLock) {
+				closePorts();
+				if (connection != null) {
+					connection.close();
+				}
+			}
+		}
+		scheduler.unregister();
+	}
+
+	private void closePorts() {
+		synchronized (openPorts) {
+			for (UsbSerialPort port : openPorts) {
+				try {
+					// the drivers are cached, and opened again on reconnecting
+					port.close();
+				} catch (IOException ignored) {
+				}
+			}
+			openPorts.clear();
+		}
+	}
+
+	/**
+	 * Runs the task while no write step is running, e.g. to change the line
+	 * configuration between two writes. The reads are not paused, as a read
+	 * step may be awaiting the data for its full timeout.
+	 * 
+	 * @param task
+	 * @throws IOException
+	 */
+	void runQuiesced(QuiescedTask task) throws IOException {
+		synchronized (writeLock) {
+			task.run();
+		}
+	}
+
+	private void scheduleRead() {
+		if (running && readScheduled.compareAndSet(false, true)
+				&& !scheduler.execute(readStep)) {
+			readScheduled.set(false);
+		}
+	}
+
+	private void scheduleWrite() {
+		if (running && writeScheduled.compareAndSet(false, true)
+				&& !scheduler.execute(writeStep)) {
+			writeScheduled.set(false);
+		}
+	}
+
+	/**
+	 * The read step, resubmitted while any port is open
+	 */
+	private void read() {
+		synchronized (readLock) {
+			if (running) {
+				readOnce(scheduler.getReadWaitMillis(READ_WAIT_MILLIS,
+						SHARED_READ_WAIT_MILLIS));
+			}
+		}
+		if (running && !ports.isEmpty() && scheduler.execute(readStep)) {
+			return;
+		}
+		readScheduled.set(false);
+		if (!ports.isEmpty()) {
+			// attached meanwhile
+			scheduleRead();
+		}
+	}
+
+	private void readOnce(long maxWaitMillis) {
+		int asyncPorts = 0;
+		for (Port port : ports) {
+			if (port.transport != null) {
+				if (port.manager.queueRequests()) {
+					asyncPorts++;
+				} else {
+					ports.remove(port);
+				}
+			}
+		}
+		final int pollingPorts = ports.size() - asyncPorts;
+		final long timeout = ports.size() > 1 ? SHARED_READ_WAIT_MILLIS
+				: maxWaitMillis;
+		for (Port port : ports) {
+			if (port.transport == null && !port.manager.poll(timeout)) {
+				ports.remove(port);
+			}
+		}
+		if (asyncPorts > 0) {
+			awaitCompletion(pollingPorts > 0 ? SHARED_READ_WAIT_MILLIS
+					: maxWaitMillis);
+		}
+	}
+	/**
+	 * Dispatches a request completed on the connection to its port.
+	 * 
+	 * @param timeoutMillis
+	 */
+	private void awaitCompletion(long timeoutMillis) {
+		final UsbRequest request;
+		try {
+			request = UsbRequestTransport.requestWait(connection,
+					timeoutMillis);
+		} catch (TimeoutException timeout) {
+			for (Port port : ports) {
+				if (port.transport != null) {
+					port.manager.readTimedOut();
+				}
+			}
+			return;
+		}
+		if (request == null) {
+			LOGGER.warn("USB read error: [Null response] device={}",
+					deviceName);
+			sleep(WAIT_ON_NULL_RESPONSE_MILLIS);
+			return;
+		}
+		for (Port port : ports) {
+			if (port.transport == null) {
+				continue;
+			}
+			final int slot = port.transport.slotOf(request);
+			if (slot >= 0) {
+				if (!port.manager.complete(slot)) {
+					ports.remove(port);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The write step, resubmitted while any data is written
+	 */
+	private void write() {
+		boolean written = false;
+		Map<SerialInputOutputManager, IOException> failed = null;
+		synchronized (writeLock) {
+			if (running) {
+				for (Port port : ports) {
+					try {
+						if (port.manager.getWriter().writeStep() > 0) {
+							written = true;
+						}
+					} catch (IOException exception) {
+						if (failed == null) {
+							failed = new HashMap<SerialInputOutputManager, IOException>();
+						}
+						failed.put(port.manager, exception);
+					}
+				}
+			}
+		}
+		if (failed != null) {
+			// reported without holding the lock, as the listeners may release
+			// this session
+			for (Map.Entry<SerialInputOutputManager, IOException> entry : failed
+					.entrySet()) {
+				entry.getKey().writeFailed(entry.getValue());
+			}
+		}
+		if (written && running && scheduler.execute(writeStep)) {
+			return;
+		}
+		writeScheduled.set(false);
+		for (Port port : ports) {
+			if (port.manager.getWriter().getQueue().getPendingBytes() > 0) {
+				// enqueued meanwhile
+				scheduleWrite();
+				break;
+			}
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignored) {
+		}
+	}
+}
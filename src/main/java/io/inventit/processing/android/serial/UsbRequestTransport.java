@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import android.hardware.usb.UsbConstants;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbInterface;
+import android.hardware.usb.UsbRequest;
+import android.os.Build;
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link AsyncReadEngine.Transport} implementation with {@link UsbRequest}.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class UsbRequestTransport implements AsyncReadEngine.Transport {
+
+	/**
+	 * {@code Build.VERSION_CODES.O}, missing in the android artifact compiled
+	 * against
+	 */
+	private static final int ANDROID_O = 26;
+
+	/**
+	 * {@code UsbRequest#queue(ByteBuffer)} of Android 8.0, looked up at run
+	 * time as the android artifact compiled against lacks it
+	 */
+	private static final Method QUEUE = findMethod(UsbRequest.class, "queue",
+			ByteBuffer.class);
+
+	/**
+	 * {@code UsbDeviceConnection#requestWait(long)} of Android 8.0, looked up
+	 * at run time as the android artifact compiled against lacks it
+	 */
+	private static final Method REQUEST_WAIT = findMethod(
+			UsbDeviceConnection.class, "requestWait", long.class);
+
+	private final UsbDeviceConnection connection;
+
+	private final UsbEndpoint endpoint;
+
+	private final UsbRequest[] requests;
+
+	/**
+	 *
+	 * @param connection
+	 * @param endpoint
+	 * @param requests
+	 *            the number of requests in flight
+	 */
+	UsbRequestTransport(UsbDeviceConnection connection, UsbEndpoint endpoint,
+			int requests) {
+		this.connection = connection;
+		this.endpoint = endpoint;
+		this.requests = new UsbRequest[requests];
+	}
+
+	/**
+	 * Creates a new instance for the given port if the asynchronous read is
+	 * available.
+	 *
+	 * {@link UsbRequest} reports the received length only on Android 8.0 or
+	 * later, and FTDI devices interleave the modem status bytes with the data,
+	 * which is stripped only by their driver.
+	 *
+	 * @param port
+	 * @param connection
+	 * @param requests
+	 * @return null if the port must be polled
+	 */
+	static UsbRequestTransport create(UsbSerialPort port,
+			UsbDeviceConnection connection, int requests) {
+		if (Build.VERSION.SDK_INT < ANDROID_O || QUEUE == null
+				|| REQUEST_WAIT == null
+				|| port.getDriver() instanceof FtdiSerialDriver) {
+			return null;
+		}
+		final UsbEndpoint endpoint = findBulkEndpoint(port,
+				UsbConstants.USB_DIR_IN);
+		if (endpoint == null) {
+			return null;
+		}
+		return new UsbRequestTransport(connection, endpoint, requests);
+	}
+
+	private static Method findMethod(Class<?> type, String name,
+			Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Waits for a request completed on the connection with
+	 * {@code UsbDeviceConnection#requestWait(long)}, available only when
+	 * {@link #create(UsbSerialPort, UsbDeviceConnection, int)} returns an
+	 * instance.
+	 *
+	 * @param connection
+	 * @param timeoutMillis
+	 * @return the completed request, or null on error
+	 * @throws TimeoutException
+	 *             if no request is completed in time
+	 */
+	static UsbRequest requestWait(UsbDeviceConnection connection,
+			long timeoutMillis) throws TimeoutException {
+		try {
+			return (UsbRequest) REQUEST_WAIT.invoke(connection,
+					Long.valueOf(timeoutMillis));
+		} catch (InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof TimeoutException) {
+				throw (TimeoutException) cause;
+			}
+			throw rethrow(cause);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static RuntimeException rethrow(Throwable cause) {
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	/**
+	 * Finds the bulk endpoint for the given port. The n-th bulk endpoint of
+	 * the direction is assigned to the n-th port.
+	 *
+	 * @param port
+	 * @param direction
+	 *            {@link UsbConstants#USB_DIR_IN} or
+	 *            {@link UsbConstants#USB_DIR_OUT}
+	 * @return null if missing
+	 */
+	static UsbEndpoint findBulkEndpoint(UsbSerialPort port, int direction) {
+		if (port.getDriver() == null || port.getDriver().getDevice() == null) {
+			return null;
+		}
+		final UsbDevice device = port.getDriver().getDevice();
+		int index = port.getPortNumber();
+		for (int i = 0; i < device.getInterfaceCount(); i++) {
+			final UsbInterface usbInterface = device.getInterface(i);
+			for (int j = 0; j < usbInterface.getEndpointCount(); j++) {
+				final UsbEndpoint endpoint = usbInterface.getEndpoint(j);
+				if (endpoint.getType() == UsbConstants.USB_ENDPOINT_XFER_BULK
+						&& endpoint.getDirection() == direction
+						&& index-- == 0) {
+					return endpoint;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the max packet size of the endpoint
+	 */
+	int getMaxPacketSize() {
+		return endpoint.getMaxPacketSize();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AsyncReadEngine.Transport#queue(int, java.nio.ByteBuffer)
+	 */
+	public void queue(int slot, ByteBuffer buffer) throws IOException {
+		UsbRequest request = requests[slot];
+		if (request == null) {
+			request = new UsbRequest();
+			if (!request.initialize(connection, endpoint)) {
+				throw new IOException("Failed to initialize UsbRequest.");
+			}
+			request.setClientData(Integer.valueOf(slot));
+			requests[slot] = request;
+		}
+		// queue(ByteBuffer) updates the position with the received length
+		final Object queued;
+		try {
+			queued = QUEUE.invoke(request, buffer);
+		} catch (InvocationTargetException e) {
+			throw rethrow(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		if (!((Boolean) queued).booleanValue()) {
+			throw new IOException("Error queueing request.");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AsyncReadEngine.Transport#await(long)
+	 */
+	public int await(long timeoutMillis) throws IOException {
+		final UsbRequest request;
+		try {
+			request = requestWait(connection, timeoutMillis);
+		} catch (TimeoutException timeout) {
+			return -1;
+		}
+		if (request == null) {
+			throw new IOException("Null response");
+		}
+		// -1 if not ours, e.g. a request on the other endpoint
+		return slotOf(request);
+	}
+
+	/**
+	 * Identifies a request completed on the connection.
+	 *
+	 * @param request
+	 * @return the slot, or -1 if queued by another transport
+	 */
+	int slotOf(UsbRequest request) {
+		if (request.getEndpoint() != endpoint) {
+			return -1;
+		}
+		return ((Integer) request.getClientData()).intValue();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @see AsyncReadEngine.Transport#close()
+	 */
+	public void close() {
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i] != null) {
+				requests[i].cancel();
+				requests[i].close();
+				requests[i] = null;
+			}
+		}
+	}
+}
@@ -6,22 +6,17 @@ package io.inventit.processing.android.serial;
 import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.hardware.usb.UsbDevice;
-import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
-import com.hoho.android.usbserial.driver.UsbSerialProber;
 import io.inventit.processing.android.serial.SerialInputOutputManager.Listener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import processing.core.PApplet;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Serial class implementation with USB serial.
@@ -38,32 +33,66 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	private static final Logger LOGGER = LoggerFactory
 			.getLogger(UsbSerialCommunicator.class);
 
+	/**
+	 * The max number of consecutive transient read errors before reconnecting
+	 */
+	private static final int MAX_TRANSIENT_ERRORS = 3;
+
 	/**
 	 * {@link UsbManager}
 	 */
 	private final UsbManager usbManager;
 
 	/**
-	 * {@link UsbSerialPort}
+	 * {@link UsbDeviceRegistry}
 	 */
-	private UsbSerialPort usbSerialDriver;
+	private final UsbDeviceRegistry usbDeviceRegistry;
 
 	/**
-	 * {@link UsbDeviceConnection}
-     */
-	private UsbDeviceConnection usbDeviceConnection;
+	 * {@link UsbSerialPort}
+	 */
+	private UsbSerialPort usbSerialDriver;
 
 	/**
-	 * {@link ExecutorService}
+	 * {@link UsbDeviceSession} shared with the other ports of the device
 	 */
-	private final ExecutorService serialInputOutputExecutor = Executors
-			.newSingleThreadExecutor();
+	private UsbDeviceSession usbDeviceSession;
 
 	/**
 	 * {@link SerialInputOutputManager}
 	 */
 	private SerialInputOutputManager serialInputOutputManager;
 
+	/**
+	 * The line configuration set to the open port, null if not set yet
+	 */
+	private LineConfig appliedLineConfig;
+
+	/**
+	 * {@link ReconnectController}
+	 */
+	private final ReconnectController reconnectController;
+
+	/**
+	 * Retries to reconnect immediately when the device is attached
+	 */
+	private final UsbDeviceRegistry.Listener attachListener = new UsbDeviceRegistry.Listener() {
+		public void onAttached(UsbSerialDriver driver) {
+			final String deviceName = PortAddress.parse(getPortIdentifier())
+					.getDeviceName();
+			if (deviceName == null
+					|| deviceName.equals(driver.getDevice().getDeviceName())) {
+				reconnectController.retryNow();
+			}
+		}
+	};
+
+	/**
+	 * The number of consecutive transient read errors, accessed by the I/O
+	 * thread only
+	 */
+	private int transientErrors = 0;
+
 	/**
 	 * @param parent
 	 */
@@ -71,31 +100,34 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 		super(parent);
 		this.usbManager = (UsbManager) getApplicatoinContext()
 				.getSystemService(Context.USB_SERVICE);
+		this.usbDeviceRegistry = UsbDeviceRegistry
+				.getInstance(getApplicatoinContext());
+		this.reconnectController = new ReconnectController(
+				new ReconnectController.Target() {
+					public void disconnect() {
+						closeSerialPort();
+					}
+
+					public boolean reconnect() {
+						return inquireUsbSerialDriver(getPortIdentifier(),
+								getLineConfig());
+					}
+				}, this, SerialCommunicatorFacory.getInstance()
+						.getIoScheduler());
+		if (getMetrics() != null) {
+			reconnectController.addListener(getMetrics()
+					.getReconnectListener());
+		}
 	}
 
 	/**
 	 * 
 	 * @param deviceName
+	 *            null for any device
 	 * @return
 	 */
 	protected UsbSerialDriver findUsbSerialDriver(String deviceName) {
-		if (deviceName == null || deviceName.length() == 0) {
-			final List<UsbSerialDriver> drivers = UsbSerialProber.getDefaultProber().findAllDrivers(usbManager);
-			if (drivers == null || drivers.isEmpty()) {
-				return null;
-			}
-			return drivers.get(0);
-		}
-		for (final UsbDevice usbDevice : usbManager.getDeviceList()
-				.values()) {
-			final UsbSerialDriver driver = UsbSerialProber.getDefaultProber().probeDevice(usbDevice);
-			if (driver != null
-					&& deviceName
-							.equals(driver.getDevice().getDeviceName())) {
-				return driver;
-			}
-		}
-		return null;
+		return usbDeviceRegistry.find(deviceName);
 	}
 
 	/**
@@ -107,12 +139,12 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	@Override
 	protected void doStart(final String portIdentifier, int baudrate, char parity,
 			int dataBits, float stopBits) {
-		// TODO Supporting parity, dataBits and stopBits parameters. v101 doesn't support them.
-		LOGGER.info("parity, dataBits and stopBits are not supported yet.");
-		if (inquireUsbSerialDriver(portIdentifier, baudrate) == false) {
+		if (inquireUsbSerialDriver(portIdentifier, getLineConfig())) {
+			reconnectController.connected();
+			usbDeviceRegistry.addListener(attachListener);
+		} else {
 			// failed to start
             LOGGER.error("Failed to start as this app failed to retrieve a serial driver: port={}", portIdentifier);
-            final boolean[] waiting = { true };
             getParent().getActivity().runOnUiThread(new Runnable() {
                 public void run() {
                     new AlertDialog.Builder(getParent().getActivity())
@@ -123,53 +155,110 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
                                     "2. USB Serial is connected to the device\n")
                             .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
                                 public void onClick(DialogInterface dialog, int which) {
-                                    waiting[0] = false;
+                                    getParent().getActivity().finish();
                                 }
                             })
                             .setIcon(android.R.drawable.ic_dialog_alert)
                             .show();
                 }
             });
-            while (waiting[0]) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ignored) {
-                }
-            }
-            getParent().getActivity().finish();
 		}
 	}
 
 	/**
 	 * Inquires a USB serial driver and returns if any driver is detected.
 	 * 
-	 * @param deviceName null for wildcard
+	 * @param portIdentifier
+	 *            the device name followed by "#" and the port index if not
+	 *            the first port, null for wildcard
+	 * @param lineConfig
 	 * @return true if a USB serial driver is found and is ready.
 	 */
-	protected boolean inquireUsbSerialDriver(String deviceName, int baudRate) {
+	protected synchronized boolean inquireUsbSerialDriver(
+			String portIdentifier, LineConfig lineConfig) {
 		if (this.usbSerialDriver != null) {
 			return true;
 		}
-		UsbSerialDriver usbSerialDriver = findUsbSerialDriver(deviceName);
+		final PortAddress address = PortAddress.parse(portIdentifier);
+		final UsbSerialDriver usbSerialDriver = findUsbSerialDriver(address
+				.getDeviceName());
+		stopSerialInputOutputManager();
+		if (usbSerialDriver == null) {
+			return false;
+		}
+		final List<UsbSerialPort> ports = usbSerialDriver.getPorts();
+		if (address.getPortIndex() >= ports.size()) {
+			LOGGER.error("Port index out of range: port={}, ports={}",
+					portIdentifier, ports.size());
+			return false;
+		}
+		final UsbSerialPort port = ports.get(address.getPortIndex());
+		final UsbDeviceSession session;
 		try {
-			stopSerialInputOutputManager();
-			if (usbSerialDriver != null) {
-				this.usbDeviceConnection = this.usbManager.openDevice(usbSerialDriver.getDevice());
-				final UsbSerialPort port = usbSerialDriver.getPorts().get(0);
-				port.open(this.usbDeviceConnection);
-				port.setParameters(baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
-			}
-
+			session = UsbDeviceSession.acquire(this.usbManager, usbSerialDriver);
 		} catch (IOException exception) {
-			usbSerialDriver = null;
+			LOGGER.error("Failed to open the device: port={}", portIdentifier);
+			return false;
+		}
+		try {
+			session.open(port);
+			this.appliedLineConfig = null;
+			applyLineConfig(port, lineConfig);
+		} catch (IOException exception) {
+			LOGGER.error("Failed to open the port: port={}, config={}",
+					portIdentifier, lineConfig);
+			// the port is closed with the connection by the session
+			session.release();
+			return false;
+		}
+		this.usbDeviceSession = session;
+		this.usbSerialDriver = port;
+		startSerialInputOutputManager();
+		return true;
+	}
 
-		} finally {
-			if (usbSerialDriver != null) {
-				this.usbSerialDriver = usbSerialDriver.getPorts().get(0);
-			}
-			startSerialInputOutputManager();
+	/**
+	 * Sets the line configuration to the port unless already set.
+	 * 
+	 * @param port
+	 * @param lineConfig
+	 * @throws IOException
+	 */
+	private void applyLineConfig(UsbSerialPort port, LineConfig lineConfig)
+			throws IOException {
+		if (lineConfig.equals(appliedLineConfig)) {
+			return;
+		}
+		port.setParameters(lineConfig.getBaudRate(),
+				lineConfig.getPortDataBits(), lineConfig.getPortStopBits(),
+				lineConfig.getPortParity());
+		this.appliedLineConfig = lineConfig;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see AbstractAndroidSerialCommunicator#doSetLineConfig(LineConfig)
+	 */
+	@Override
+	protected synchronized void doSetLineConfig(final LineConfig lineConfig) {
+		if (usbSerialDriver == null) {
+			// applied when (re)connected
+			return;
+		}
+		final UsbSerialPort port = usbSerialDriver;
+		final UsbDeviceSession session = usbDeviceSession;
+		// the data written so far goes out with the current configuration
+		getSerialInputOutputManager().flush();
+		try {
+			session.runQuiesced(new UsbDeviceSession.QuiescedTask() {
+				public void run() throws IOException {
+					applyLineConfig(port, lineConfig);
+				}
+			});
+		} catch (IOException exception) {
+			throw new IllegalStateException(exception);
 		}
-		return usbSerialDriver != null;
 	}
 
 	/**
@@ -177,11 +266,14 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	 */
 	private void startSerialInputOutputManager() {
 		if (usbSerialDriver != null) {
+			final UsbRequestTransport transport = Config.isAsyncReadEnabled() ? UsbRequestTransport
+					.create(usbSerialDriver, usbDeviceSession.getConnection(),
+							Config.getAsyncReadRequests()) : null;
 			serialInputOutputManager = new SerialInputOutputManager(
-					usbSerialDriver);
-			serialInputOutputManager.setListener(this);
-			// Serial I/O is performed in another thread.
-			serialInputOutputExecutor.submit(serialInputOutputManager);
+					usbSerialDriver, transport, this);
+			serialInputOutputManager.setMetrics(getMetrics());
+			// Serial I/O is performed by the loops of the device.
+			usbDeviceSession.attach(serialInputOutputManager, transport);
 		}
 	}
 
@@ -213,13 +305,24 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	 */
 	@Override
 	protected void doStop() {
+		reconnectController.stop();
+		usbDeviceRegistry.removeListener(attachListener);
+		closeSerialPort();
+	}
+
+	/**
+	 * Closes the port, leaving the received data.
+	 */
+	private void closeSerialPort() {
 		stopSerialInputOutputManager();
 		if (usbSerialDriver != null) {
 			try {
-				usbDeviceConnection.close();
+				// closes the port only with the last port of the device, as
+				// the driver closes the connection shared by the other ports
+				usbDeviceSession.release();
 			} finally {
 				usbSerialDriver = null;
-				usbDeviceConnection = null;
+				usbDeviceSession = null;
 			}
 		}
 	}
@@ -227,10 +330,11 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * @see SerialInputOutputManager.Listener#onNewData(byte[])
+	 * @see SerialInputOutputManager.Listener#onNewData(byte[], int, int)
 	 */
-	public void onNewData(byte[] data) {
-		sendBuffer(data);
+	public void onNewData(byte[] data, int offset, int length) {
+		transientErrors = 0;
+		sendBuffer(data, offset, length);
 	}
 
 	/**
@@ -242,26 +346,38 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 		if (e instanceof IOException) {
 			final String message = e.getMessage();
 			if (message != null &&
-					(message.indexOf("Error queueing request.") >= 0 || message.indexOf("Null response") >= 0)) {
+					(message.indexOf("Error queueing request.") >= 0 || message.indexOf("Null response") >= 0)
+					&& ++transientErrors <= MAX_TRANSIENT_ERRORS) {
 				LOGGER.warn("USB read error: [{}]", message);
-				try {
-					Thread.sleep(10);
-				} catch (InterruptedException ignored) {
-				}
 				return false; // continue
 			}
 		}
-		LOGGER.warn("Exception detected. Restart SerialInputOutputManager.", e);
-		doStop();
-		try {
-			Thread.sleep(Config.getWaitOnException());
-		} catch (InterruptedException ignored) {
-		}
-		doStart(getPortIdentifier(), getBaudrate(), getParity(), getDataBits(),
-				getStopBits());
+		LOGGER.warn("Exception detected. Reconnecting.", e);
+		transientErrors = 0;
+		reconnectController.disconnected(e);
 		return true; // stop
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#addReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void addReconnectListener(ReconnectListener listener) {
+		reconnectController.addListener(listener);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#removeReconnectListener(ReconnectListener)
+	 */
+	@Override
+	public void removeReconnectListener(ReconnectListener listener) {
+		reconnectController.removeListener(listener);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
@@ -269,15 +385,7 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	 */
 	@Override
 	public String[] list() {
-		final List<String> names = new ArrayList<String>();
-		for (final UsbDevice usbDevice : usbManager.getDeviceList()
-				.values()) {
-			final UsbSerialDriver driver = UsbSerialProber.getDefaultProber().probeDevice(usbDevice);
-			if (driver != null) {
-				names.add(driver.getDevice().getDeviceName());
-			}
-		}
-		return names.toArray(new String[names.size()]);
+		return usbDeviceRegistry.list();
 	}
 
 	/**
@@ -287,26 +395,60 @@ class UsbSerialCommunicator extends AbstractAndroidSerialCommunicator implements
 	 */
 	@Override
 	public void write(byte[] what) {
-		getSerialInputOutputManager().writeAsync(what);
+		final int written = getSerialInputOutputManager().writeAsync(what);
+		recordWritten(what, 0, written);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * @see SerialCommunicator#write(int)
+	 * @see SerialCommunicator#write(java.nio.ByteBuffer)
 	 */
 	@Override
-	public void write(int what) {
-		write(new byte[] { (byte) what });
+	public int write(ByteBuffer what) {
+		final int position = what.position();
+		final int written = getSerialInputOutputManager().writeAsync(what);
+		recordWritten(what, position, written);
+		return written;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#flush()
+	 */
+	@Override
+	public void flush() {
+		getSerialInputOutputManager().flush();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#pendingWriteBytes()
+	 */
+	@Override
+	public int pendingWriteBytes() {
+		return getSerialInputOutputManager().getPendingWriteBytes();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 * 
-	 * @see SerialCommunicator#write(java.lang.String)
+	 * @see SerialCommunicator#droppedWriteBytes()
 	 */
 	@Override
-	public void write(String what) {
-		write(what.getBytes());
+	public long droppedWriteBytes() {
+		return getSerialInputOutputManager().getDroppedWriteBytes();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @see SerialCommunicator#write(int)
+	 */
+	@Override
+	public void write(int what) {
+		write(new byte[] { (byte) what });
 	}
 }
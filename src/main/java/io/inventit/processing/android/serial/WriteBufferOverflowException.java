@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+/**
+ * Thrown by the write methods when the data doesn't fit in the write buffer
+ * and the overflow policy is "fail".
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class WriteBufferOverflowException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int length;
+
+	private final int pendingBytes;
+
+	/**
+	 *
+	 * @param length
+	 *            the length of the rejected data
+	 * @param pendingBytes
+	 *            the number of bytes waiting to be written
+	 * @param highWaterMark
+	 *            the max number of pending bytes
+	 */
+	public WriteBufferOverflowException(int length, int pendingBytes,
+			int highWaterMark) {
+		super("Write buffer overflow: length=" + length + ", pending="
+				+ pendingBytes + ", highWaterMark=" + highWaterMark);
+		this.length = length;
+		this.pendingBytes = pendingBytes;
+	}
+
+	/**
+	 * @return the length of the rejected data
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes waiting to be written
+	 */
+	public int getPendingBytes() {
+		return pendingBytes;
+	}
+}
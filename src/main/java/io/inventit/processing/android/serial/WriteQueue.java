@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * A growable and bounded byte queue between the writing callers and the
+ * writer thread.
+ *
+ * The bytes are stored in fixed size chunks allocated on demand and recycled
+ * once written, so the memory grows with the pending bytes up to the
+ * high-water mark only.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+final class WriteQueue {
+
+	/**
+	 * What the callers experience when the high-water mark is exceeded.
+	 */
+	enum OverflowPolicy {
+		/**
+		 * Waits until the writer drains the queue. A write larger than the
+		 * high-water mark is enqueued piece by piece.
+		 */
+		BLOCK,
+		/**
+		 * Throws {@link WriteBufferOverflowException} without enqueuing
+		 * anything.
+		 */
+		FAIL,
+		/**
+		 * Discards the whole write.
+		 */
+		DROP
+	}
+
+	private final int highWaterMark;
+
+	private final OverflowPolicy overflowPolicy;
+
+	private final int chunkSize;
+
+	// Synchronized by 'this'
+	private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+
+	// Synchronized by 'this'
+	private final LinkedList<byte[]> freeChunks = new LinkedList<byte[]>();
+
+	// Synchronized by 'this', the read offset in the first chunk
+	private int headOffset = 0;
+
+	// Synchronized by 'this', the write offset in the last chunk
+	private int tailOffset = 0;
+
+	// Synchronized by 'this'
+	private int pendingBytes = 0;
+
+	// Synchronized by 'this'
+	private long enqueuedBytes = 0;
+
+	// Synchronized by 'this'
+	private long writtenBytes = 0;
+
+	// Synchronized by 'this'
+	private long droppedBytes = 0;
+
+	// Synchronized by 'this'
+	private boolean closed = false;
+
+	// Synchronized by 'this', the cause of the write failure if any
+	private Exception failure;
+
+	// Invoked whenever bytes are enqueued, null if the writer waits in take()
+	private volatile Runnable wakeup;
+
+	/**
+	 *
+	 * @param highWaterMark
+	 *            the max number of pending bytes
+	 * @param overflowPolicy
+	 * @param chunkSize
+	 */
+	WriteQueue(int highWaterMark, OverflowPolicy overflowPolicy, int chunkSize) {
+		if (highWaterMark < 1) {
+			throw new IllegalArgumentException("Invalid highWaterMark: "
+					+ highWaterMark);
+		}
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("overflowPolicy is missing.");
+		}
+		this.highWaterMark = highWaterMark;
+		this.overflowPolicy = overflowPolicy;
+		this.chunkSize = Math.min(chunkSize, highWaterMark);
+	}
+
+	/**
+	 * Enqueues a copy of the bytes according to the overflow policy.
+	 *
+	 * @param src
+	 * @param offset
+	 * @param length
+	 * @return the number of bytes enqueued
+	 * @throws WriteBufferOverflowException
+	 *             with {@link OverflowPolicy#FAIL}
+	 */
+	int offer(byte[] src, int offset, int length) {
+		return offer(ByteBuffer.wrap(src, offset, length));
+	}
+
+	/**
+	 * Enqueues a copy of the remaining bytes of the buffer, which may be
+	 * direct, according to the overflow policy. The position of the buffer
+	 * advances by the number of bytes enqueued.
+	 *
+	 * @param src
+	 * @return the number of bytes enqueued
+	 * @throws WriteBufferOverflowException
+	 *             with {@link OverflowPolicy#FAIL}
+	 */
+	synchronized int offer(ByteBuffer src) {
+		final int length = src.remaining();
+		if (closed) {
+			throw new IllegalStateException(
+					"The serial connection is already closed.");
+		}
+		if (length <= 0) {
+			return 0;
+		}
+		if (pendingBytes + length > highWaterMark) {
+			if (overflowPolicy == OverflowPolicy.FAIL) {
+				throw new WriteBufferOverflowException(length, pendingBytes,
+						highWaterMark);
+			} else if (overflowPolicy == OverflowPolicy.DROP) {
+				droppedBytes += length;
+				return 0;
+			}
+		}
+		int enqueued = 0;
+		while (enqueued < length) {
+			while (!closed && pendingBytes >= highWaterMark) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return enqueued;
+				}
+			}
+			if (closed) {
+				break;
+			}
+			final int n = Math.min(length - enqueued, highWaterMark
+					- pendingBytes);
+			put(src, n);
+			enqueued += n;
+			notifyAll();
+			final Runnable wakeup = this.wakeup;
+			if (wakeup != null) {
+				wakeup.run();
+			}
+		}
+		return enqueued;
+	}
+
+	/**
+	 * Sets the callback invoked whenever bytes are enqueued, for a writer
+	 * using {@link #poll(byte[])} instead of waiting in {@link #take(byte[])}.
+	 *
+	 * @param wakeup
+	 */
+	void setWakeup(Runnable wakeup) {
+		this.wakeup = wakeup;
+	}
+
+	private void put(ByteBuffer src, int length) {
+		pendingBytes += length;
+		enqueuedBytes += length;
+		while (length > 0) {
+			if (chunks.isEmpty() || tailOffset == chunkSize) {
+				chunks.add(freeChunks.isEmpty() ? new byte[chunkSize]
+						: freeChunks.removeFirst());
+				tailOffset = 0;
+			}
+			final int n = Math.min(length, chunkSize - tailOffset);
+			src.get(chunks.getLast(), tailOffset, n);
+			tailOffset += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * Waits for the pending bytes and moves them into the given buffer.
+	 * Invoked by the writer thread.
+	 *
+	 * @param dst
+	 * @return the number of bytes moved, -1 when closed
+	 */
+	synchronized int take(byte[] dst) {
+		while (!closed && pendingBytes == 0) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return -1;
+			}
+		}
+		return poll(dst);
+	}
+
+	/**
+	 * Moves the pending bytes into the given buffer without waiting. Invoked
+	 * by the writer thread.
+	 *
+	 * @param dst
+	 * @return the number of bytes moved, 0 if empty, -1 when closed
+	 */
+	synchronized int poll(byte[] dst) {
+		if (closed) {
+			return -1;
+		}
+		if (pendingBytes == 0) {
+			return 0;
+		}
+		int len = 0;
+		while (pendingBytes > 0 && len < dst.length) {
+			final byte[] chunk = chunks.getFirst();
+			final int end = chunks.size() == 1 ? tailOffset : chunkSize;
+			final int n = Math.min(end - headOffset, dst.length - len);
+			System.arraycopy(chunk, headOffset, dst, len, n);
+			headOffset += n;
+			len += n;
+			pendingBytes -= n;
+			if (headOffset == end) {
+				chunks.removeFirst();
+				headOffset = 0;
+				if (chunks.isEmpty()) {
+					tailOffset = 0;
+				}
+				// keeps enough chunks to fill the queue without allocation
+				if ((freeChunks.size() + chunks.size()) * chunkSize < highWaterMark
+						+ chunkSize) {
+					freeChunks.add(chunk);
+				}
+			}
+		}
+		notifyAll();
+		return len;
+	}
+
+	/**
+	 * Marks the bytes taken as written. Invoked by the writer thread.
+	 *
+	 * @param length
+	 */
+	synchronized void written(int length) {
+		writtenBytes += length;
+		notifyAll();
+	}
+
+	/**
+	 * Discards the bytes taken and the pending bytes as the writer failed to
+	 * write them, and closes the queue. Invoked by the writer thread.
+	 *
+	 * @param length
+	 *            the number of bytes taken but not written
+	 * @param cause
+	 */
+	synchronized void failed(int length, Exception cause) {
+		droppedBytes += length;
+		failure = cause;
+		close();
+	}
+
+	/**
+	 * Blocks until all the bytes enqueued so far are written.
+	 *
+	 * @throws IllegalStateException
+	 *             if the writer failed to write them
+	 */
+	synchronized void flush() {
+		final long target = enqueuedBytes;
+		while (!closed && writtenBytes < target) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if (failure != null && writtenBytes < target) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	/**
+	 * Discards the pending bytes and releases the blocked callers.
+	 */
+	synchronized void close() {
+		closed = true;
+		droppedBytes += pendingBytes;
+		pendingBytes = 0;
+		chunks.clear();
+		freeChunks.clear();
+		notifyAll();
+	}
+
+	/**
+	 * @return the number of bytes not taken by the writer yet
+	 */
+	synchronized int getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return the total number of bytes enqueued
+	 */
+	synchronized long getEnqueuedBytes() {
+		return enqueuedBytes;
+	}
+
+	/**
+	 * @return the total number of bytes written
+	 */
+	synchronized long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * @return the total number of bytes discarded
+	 */
+	synchronized long getDroppedBytes() {
+		return droppedBytes;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class BufferUntilTest {
+
+	private InMemorySerialCommunicator communicator;
+
+	@Before
+	public void setUp() {
+		communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+	}
+
+	private void receive(String data) {
+		final byte[] bytes = data.getBytes();
+		communicator.sendBuffer(bytes, 0, bytes.length);
+	}
+
+	@Test
+	public void test_framesAcrossChunks() {
+		receive("$GPGGA,1");
+		receive("23\n$GPRMC\n$GP");
+		assertEquals(2, communicator.serialEvents);
+		assertEquals("$GPGGA,123\n", communicator.readStringUntil('\n'));
+		assertEquals("$GPRMC\n", communicator.readStringUntil('\n'));
+		assertNull(communicator.readStringUntil('\n'));
+		receive("VTG\n");
+		assertEquals("$GPVTG\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_mixedReads() {
+		receive("ab\ncd\nef\n");
+		assertEquals('a', communicator.read());
+		assertEquals("b\n", communicator.readStringUntil('\n'));
+		final byte[] buffer = new byte[2];
+		assertEquals(2, communicator.readBytes(buffer));
+		assertEquals("\n", communicator.readStringUntil('\n'));
+		assertEquals(-1, communicator.readBytesUntil('\n', buffer));
+		assertEquals("ef\n", communicator.readStringUntil('\n'));
+		assertEquals(0, communicator.readBytesUntil('\n', buffer));
+	}
+
+	@Test
+	public void test_otherDelimiter_scans() {
+		receive("ab,cd\n");
+		assertEquals("ab,", communicator.readStringUntil(','));
+		assertEquals("cd\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_manyUnreadFrames() {
+		for (int i = 0; i < 3000; i++) {
+			receive(i + "\n");
+		}
+		for (int i = 0; i < 3000; i++) {
+			assertEquals(i + "\n", communicator.readStringUntil('\n'));
+		}
+		assertNull(communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_clear() {
+		receive("ab\ncd");
+		communicator.clear();
+		receive("\nef\n");
+		assertEquals("\n", communicator.readStringUntil('\n'));
+		assertEquals("ef\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_modeSwitch() {
+		receive("ab\n");
+		assertEquals("ab\n", communicator.readStringUntil('\n'));
+		communicator.buffer(3);
+		receive("cd\n");
+		assertEquals("cd\n", communicator.readStringUntil('\n'));
+		communicator.buffer(0);
+		receive("e\nf");
+		assertEquals("e\n", communicator.readStringUntil('\n'));
+		communicator.bufferUntil('\n');
+		receive("g\n");
+		assertEquals("fg\n", communicator.readStringUntil('\n'));
+		assertNull(communicator.readStringUntil('\n'));
+	}
+}
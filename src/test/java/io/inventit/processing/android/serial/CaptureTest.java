@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class CaptureTest {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("capture", "");
+		directory.delete();
+		directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static String toString(ByteBuffer data) {
+		final byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		return new String(bytes);
+	}
+
+	@Test
+	public void test_appendAndRead() throws Exception {
+		final CaptureWriter writer = new CaptureWriter(directory,
+				CaptureWriter.nameOf("/dev/ttyUSB0"), 1024, 0);
+		writer.append(CaptureReader.RECEIVED, "xhellox".getBytes(), 1, 5);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(8);
+		direct.put("world".getBytes());
+		direct.flip();
+		writer.append(CaptureReader.WRITTEN, direct, 0, 5);
+		assertEquals(0, direct.position());
+		writer.close();
+		writer.append(CaptureReader.RECEIVED, "ignored".getBytes(), 0, 7);
+
+		final CaptureReader reader = new CaptureReader(directory,
+				"/dev/ttyUSB0");
+		assertEquals(1, reader.getSegments());
+		assertTrue(reader.next());
+		assertEquals(CaptureReader.RECEIVED, reader.getDirection());
+		assertEquals("hello", toString(reader.getData()));
+		final long first = reader.getTimestamp();
+		assertTrue(reader.next());
+		assertEquals(CaptureReader.WRITTEN, reader.getDirection());
+		assertEquals("world", toString(reader.getData()));
+		assertTrue(reader.getTimestamp() >= first);
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void test_rotation() throws Exception {
+		final byte[] chunk = new byte[100];
+		final CaptureWriter writer = new CaptureWriter(directory, "port",
+				256, 3);
+		for (int i = 0; i < 20; i++) {
+			chunk[0] = (byte) i;
+			writer.append(CaptureReader.RECEIVED, chunk, 0, chunk.length);
+		}
+		writer.close();
+
+		final CaptureReader reader = new CaptureReader(directory, "port");
+		assertEquals(3, reader.getSegments());
+		int bytes = 0;
+		while (reader.next()) {
+			bytes += reader.getData().remaining();
+		}
+		// the oldest segments are deleted
+		assertTrue(bytes > 0 && bytes < 20 * chunk.length);
+
+		// the next capture doesn't overwrite
+		new CaptureWriter(directory, "port", 256, 3).close();
+		assertEquals(4, new CaptureReader(directory, "port").getSegments());
+	}
+
+	@Test
+	public void test_captureStart() throws Exception {
+		final byte[] chunk = new byte[100];
+		for (int capture = 0; capture < 2; capture++) {
+			final CaptureWriter writer = new CaptureWriter(directory, "port",
+					256, 0);
+			for (int i = 0; i < 5; i++) {
+				chunk[0] = (byte) (capture * 5 + i);
+				writer.append(CaptureReader.RECEIVED, chunk, 0, chunk.length);
+			}
+			writer.close();
+		}
+
+		final CaptureReader reader = new CaptureReader(directory, "port");
+		assertTrue(reader.getSegments() > 2);
+		int captures = 0;
+		while (reader.next()) {
+			final ByteBuffer data = reader.getData();
+			if (reader.isCaptureStart()) {
+				// not at the segments rotated in the middle of a capture
+				assertEquals(captures * 5, data.get(data.position()));
+				captures++;
+			}
+		}
+		assertEquals(2, captures);
+	}
+
+	@Test
+	public void test_seek() throws Exception {
+		final CaptureWriter writer = new CaptureWriter(directory, "port",
+				1024 * 1024, 0);
+		final byte[] chunk = new byte[4096];
+		final long[] timestamps = new long[64];
+		for (int i = 0; i < timestamps.length; i++) {
+			chunk[0] = (byte) i;
+			writer.append(CaptureReader.RECEIVED, chunk, 0, chunk.length);
+			Thread.sleep(1);
+		}
+		writer.close();
+
+		final CaptureReader reader = new CaptureReader(directory, "port");
+		for (int i = 0; i < timestamps.length; i++) {
+			assertTrue(reader.next());
+			timestamps[i] = reader.getTimestamp();
+		}
+		assertTrue(reader.seek(timestamps[40]));
+		assertTrue(reader.next());
+		assertEquals(40, reader.getData().get(reader.getData().position()));
+		assertTrue(reader.next());
+		assertEquals(41, reader.getData().get(reader.getData().position()));
+		assertFalse(reader.seek(timestamps[63] + 1));
+	}
+
+	@Test
+	public void test_communicator() throws Exception {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.startCapture(directory.getPath());
+		communicator.sendBuffer("abc".getBytes());
+		communicator.recordWritten("de".getBytes(), 0, 2);
+		communicator.stop();
+		communicator.sendBuffer("ignored".getBytes());
+
+		final CaptureReader reader = new CaptureReader(directory, "memory");
+		assertTrue(reader.next());
+		assertEquals("abc", toString(reader.getData()));
+		assertTrue(reader.next());
+		assertEquals(CaptureReader.WRITTEN, reader.getDirection());
+		assertEquals("de", toString(reader.getData()));
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void test_droppedWrites() throws Exception {
+		Config.setWriteBufferSize(16);
+		Config.setWriteBufferOverflowPolicy(WriteQueue.OverflowPolicy.DROP);
+		final SerialCommunicator communicator = SerialCommunicatorFacory
+				.getInstance().create(null, "loopback");
+		communicator.start("capture-test", 300);
+		// each write takes about half a second
+		LoopbackDevice.get("capture-test").setPaced(true);
+		long dropped;
+		try {
+			communicator.startCapture(directory.getPath());
+			for (int i = 0; i < 3; i++) {
+				communicator.write(new byte[16]);
+			}
+			dropped = communicator.droppedWriteBytes();
+		} finally {
+			communicator.stop();
+			LoopbackDevice.remove("capture-test");
+			Config.setWriteBufferSize(64 * 1024);
+			Config.setWriteBufferOverflowPolicy(WriteQueue.OverflowPolicy.BLOCK);
+		}
+		assertTrue(dropped >= 16);
+		final CaptureReader reader = new CaptureReader(directory,
+				CaptureWriter.nameOf("capture-test"));
+		int written = 0;
+		while (reader.next()) {
+			if (reader.getDirection() == CaptureReader.WRITTEN) {
+				written += reader.getData().remaining();
+			}
+		}
+		// the dropped bytes never reached the device
+		assertEquals(48 - dropped, written);
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class FrameDecodersTest {
+
+	static class Frames implements FrameDecoder.Listener {
+		final List<byte[]> frames = new ArrayList<byte[]>();
+
+		public void onFrame(byte[] frame, int offset, int length) {
+			final byte[] copy = new byte[length];
+			System.arraycopy(frame, offset, copy, 0, length);
+			frames.add(copy);
+		}
+	}
+
+	/**
+	 * Feeds the data one byte at a time and then all at once.
+	 */
+	private static void assertDecoded(FrameDecoder decoder, byte[] data,
+			byte[]... expected) {
+		Frames bytewise = new Frames();
+		for (int i = 0; i < data.length; i++) {
+			decoder.decode(data, i, 1, bytewise);
+		}
+		decoder.reset();
+		Frames whole = new Frames();
+		decoder.decode(data, 0, data.length, whole);
+		decoder.reset();
+		assertEquals(expected.length, bytewise.frames.size());
+		assertEquals(expected.length, whole.frames.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertArrayEquals(expected[i], bytewise.frames.get(i));
+			assertArrayEquals(expected[i], whole.frames.get(i));
+		}
+	}
+
+	@Test
+	public void test_fixedSize() {
+		assertDecoded(new FixedSizeFrameDecoder(2), new byte[] { 1, 2, 3, 4, 5 },
+				new byte[] { 1, 2 }, new byte[] { 3, 4 });
+	}
+
+	@Test
+	public void test_lengthPrefix() {
+		assertDecoded(new LengthPrefixFrameDecoder(1, 16), new byte[] { 2, 7, 8,
+				0, 1, 9 }, new byte[] { 7, 8 }, new byte[0], new byte[] { 9 });
+		assertDecoded(new LengthPrefixFrameDecoder(2, 16), new byte[] { 0, 2,
+				7, 8 }, new byte[] { 7, 8 });
+		assertDecoded(new LengthPrefixFrameDecoder(2,
+				ByteOrder.LITTLE_ENDIAN, 16), new byte[] { 2, 0, 7, 8 },
+				new byte[] { 7, 8 });
+		assertDecoded(new LengthPrefixFrameDecoder(4,
+				ByteOrder.LITTLE_ENDIAN, 16), new byte[] { 1, 0, 0, 0, 9 },
+				new byte[] { 9 });
+	}
+
+	@Test
+	public void test_lengthPrefix_tooLong() {
+		final LengthPrefixFrameDecoder decoder = new LengthPrefixFrameDecoder(
+				1, 2);
+		final Frames frames = new Frames();
+		final byte[] data = { 3, 1, 2, 3, 1, 9 };
+		decoder.decode(data, 0, data.length, frames);
+		assertEquals(1, frames.frames.size());
+		assertArrayEquals(new byte[] { 9 }, frames.frames.get(0));
+		assertEquals(1, decoder.getErrors());
+	}
+
+	@Test
+	public void test_cobs() {
+		// {0x11, 0x00, 0x22} and {}
+		assertDecoded(new CobsFrameDecoder(16), new byte[] { 2, 0x11, 2, 0x22,
+				0, 1, 0 }, new byte[] { 0x11, 0, 0x22 }, new byte[0]);
+	}
+
+	@Test
+	public void test_slip() {
+		final byte end = (byte) 0xc0;
+		final byte esc = (byte) 0xdb;
+		assertDecoded(new SlipFrameDecoder(16), new byte[] { end, 1, esc,
+				(byte) 0xdc, esc, (byte) 0xdd, 2, end },
+				new byte[] { 1, end, esc, 2 });
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link AbstractAndroidSerialCommunicator} without any device, fed through
+ * {@link #sendBuffer(byte[], int, int)} by the tests.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+class InMemorySerialCommunicator extends AbstractAndroidSerialCommunicator {
+
+	final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+	int serialEvents = 0;
+
+	int lineConfigChanges = 0;
+
+	InMemorySerialCommunicator() {
+		super(null, null);
+	}
+
+	@Override
+	protected void doStart(String portIdentifier, int baudrate, char parity,
+			int dataBits, float stopBits) {
+	}
+
+	@Override
+	protected void doStop() {
+	}
+
+	@Override
+	protected void doSetLineConfig(LineConfig lineConfig) {
+		lineConfigChanges++;
+	}
+
+	@Override
+	protected void serialEvent() {
+		serialEvents++;
+		super.serialEvent();
+	}
+
+	@Override
+	public void write(int what) {
+		written.write(what);
+	}
+
+	@Override
+	public void write(byte[] what) {
+		written.write(what, 0, what.length);
+	}
+
+	@Override
+	public int write(ByteBuffer what) {
+		final int length = what.remaining();
+		while (what.hasRemaining()) {
+			written.write(what.get());
+		}
+		return length;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public int pendingWriteBytes() {
+		return 0;
+	}
+
+	@Override
+	public long droppedWriteBytes() {
+		return 0;
+	}
+
+	@Override
+	public String[] list() {
+		return new String[] { "memory" };
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class LineConfigTest {
+
+	@Test
+	public void test_portConstants() {
+		final LineConfig config = new LineConfig(19200, 'e', 7, 1.0f);
+		assertEquals(UsbSerialPort.PARITY_EVEN, config.getPortParity());
+		assertEquals(UsbSerialPort.DATABITS_7, config.getPortDataBits());
+		assertEquals(UsbSerialPort.STOPBITS_1, config.getPortStopBits());
+		assertEquals("19200 7E1", config.toString());
+
+		final LineConfig config8n2 = new LineConfig(9600, 'N', 8, 2.0f);
+		assertEquals(UsbSerialPort.PARITY_NONE, config8n2.getPortParity());
+		assertEquals(UsbSerialPort.STOPBITS_2, config8n2.getPortStopBits());
+		assertEquals(UsbSerialPort.STOPBITS_1_5,
+				new LineConfig(9600, 'N', 5, 1.5f).getPortStopBits());
+	}
+
+	@Test
+	public void test_equals() {
+		assertEquals(LineConfig.DEFAULT, new LineConfig(9600, 'n', 8, 1.0f));
+		assertEquals(LineConfig.DEFAULT.hashCode(), new LineConfig(9600, 'N',
+				8, 1.0f).hashCode());
+		assertFalse(LineConfig.DEFAULT.equals(LineConfig.DEFAULT
+				.withBaudRate(115200)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_invalidParity() {
+		new LineConfig(9600, 'X', 8, 1.0f);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_invalidStopBits() {
+		new LineConfig(9600, 'N', 8, 3.0f);
+	}
+
+	@Test
+	public void test_setBaudRate_skipsUnchanged() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory", 115200, 'E', 7, 1.0f);
+		communicator.setBaudRate(115200);
+		assertEquals(0, communicator.lineConfigChanges);
+		communicator.setBaudRate(2000000);
+		assertEquals(1, communicator.lineConfigChanges);
+		assertEquals(new LineConfig(2000000, 'E', 7, 1.0f),
+				communicator.getLineConfig());
+	}
+
+	@Test
+	public void test_setBaudRate_failed() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator() {
+			@Override
+			protected void doSetLineConfig(LineConfig lineConfig) {
+				super.doSetLineConfig(lineConfig);
+				if (lineConfigChanges == 1) {
+					throw new IllegalStateException("Failed to set the config.");
+				}
+			}
+		};
+		communicator.start("memory", 115200, 'E', 7, 1.0f);
+		try {
+			communicator.setBaudRate(2000000);
+			fail();
+		} catch (IllegalStateException expected) {
+		}
+		assertEquals(new LineConfig(115200, 'E', 7, 1.0f),
+				communicator.getLineConfig());
+		// retried instead of skipped as unchanged
+		communicator.setBaudRate(2000000);
+		assertEquals(2, communicator.lineConfigChanges);
+		assertEquals(new LineConfig(2000000, 'E', 7, 1.0f),
+				communicator.getLineConfig());
+	}
+}
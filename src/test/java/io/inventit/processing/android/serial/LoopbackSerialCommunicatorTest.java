@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class LoopbackSerialCommunicatorTest {
+
+	private static final String DEVICE_NAME = "loopback-test";
+
+	private SerialCommunicator communicator;
+
+	@Before
+	public void setUp() {
+		communicator = SerialCommunicatorFacory.getInstance().create(null,
+				"loopback");
+		communicator.start(DEVICE_NAME, 115200);
+	}
+
+	@After
+	public void tearDown() {
+		communicator.stop();
+		LoopbackDevice.remove(DEVICE_NAME);
+	}
+
+	private byte[] readFully(int length) throws InterruptedException {
+		final byte[] data = new byte[length];
+		int read = 0;
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (read < length && System.currentTimeMillis() < deadline) {
+			if (communicator.available() > 0) {
+				final byte[] chunk = communicator.readBytes();
+				System.arraycopy(chunk, 0, data, read, chunk.length);
+				read += chunk.length;
+			} else {
+				Thread.sleep(1);
+			}
+		}
+		assertEquals(length, read);
+		return data;
+	}
+
+	@Test
+	public void test_echo() throws InterruptedException {
+		LoopbackDevice.get(DEVICE_NAME).setPacketSize(7);
+		final byte[] data = new byte[1000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		communicator.write(data);
+		assertArrayEquals(data, readFully(data.length));
+		assertEquals(data.length, LoopbackDevice.get(DEVICE_NAME)
+				.getReceivedBytes());
+	}
+
+	@Test
+	public void test_setBaudRate() {
+		communicator.setBaudRate(9600);
+		assertEquals(new LineConfig(9600, 'N', 8, 1.0f),
+				LoopbackDevice.get(DEVICE_NAME).getLineConfig());
+	}
+
+	@Test
+	public void test_reconnectOnError() throws InterruptedException {
+		final CountDownLatch reconnected = new CountDownLatch(1);
+		communicator.addReconnectListener(new ReconnectListener() {
+			public void onDisconnected(Serial serial, Exception cause) {
+			}
+
+			public void onReconnected(Serial serial, int attempts) {
+				reconnected.countDown();
+			}
+		});
+		LoopbackDevice.get(DEVICE_NAME).injectErrors(1);
+		assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+		communicator.write("ok".getBytes());
+		assertArrayEquals("ok".getBytes(), readFully(2));
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class ParsingPipelineTest {
+
+	private InMemorySerialCommunicator communicator;
+
+	@Before
+	public void setUp() {
+		communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+	}
+
+	@After
+	public void tearDown() {
+		communicator.stop();
+		Config.setParserThreads(0);
+		Config.setParserQueueSize(1024);
+		Config.setParserBackpressureMillis(100);
+	}
+
+	private void receive(String data) {
+		final byte[] bytes = data.getBytes();
+		communicator.sendBuffer(bytes, 0, bytes.length);
+	}
+
+	private static <T> T await(ParsingPipeline<T> pipeline) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		T value;
+		while ((value = pipeline.poll()) == null) {
+			if (System.nanoTime() > deadline) {
+				throw new AssertionError("No value in time.");
+			}
+			Thread.sleep(1);
+		}
+		return value;
+	}
+
+	@Test
+	public void test_ordered() throws Exception {
+		Config.setParserThreads(4);
+		final Random random = new Random(0);
+		final ParsingPipeline<Integer> pipeline = communicator
+				.setFrameParser(new FrameParser<Integer>() {
+					public Integer parse(byte[] frame, int offset, int length)
+							throws Exception {
+						// finishes out of order
+						final int delay;
+						synchronized (random) {
+							delay = random.nextInt(3);
+						}
+						Thread.sleep(delay);
+						return Integer.valueOf(new String(frame, offset,
+								length - 1));
+					}
+				});
+		final StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			data.append(i).append('\n');
+		}
+		// split in the middle of a frame
+		receive(data.substring(0, 7));
+		receive(data.substring(7));
+		for (int i = 0; i < 200; i++) {
+			assertEquals(Integer.valueOf(i), await(pipeline));
+		}
+		assertNull(pipeline.poll());
+		assertEquals(0, pipeline.pending());
+		// the frames are not delivered as bytes
+		assertEquals(0, communicator.available());
+		assertEquals(0, communicator.serialEvents);
+	}
+
+	@Test
+	public void test_discarded() throws Exception {
+		final ParsingPipeline<String> pipeline = communicator
+				.setFrameParser(new FrameParser<String>() {
+					public String parse(byte[] frame, int offset, int length)
+							throws Exception {
+						final String line = new String(frame, offset,
+								length - 1);
+						if (line.equals("bad")) {
+							throw new IllegalArgumentException(line);
+						}
+						return line.equals("skip") ? null : line;
+					}
+				});
+		receive("a\nbad\nskip\nb\n");
+		assertEquals("a", await(pipeline));
+		assertEquals("b", await(pipeline));
+		assertEquals(1, pipeline.getParseErrors());
+		assertEquals(0, pipeline.getDroppedFrames());
+	}
+
+	@Test
+	public void test_error() throws Exception {
+		final ParsingPipeline<String> pipeline = communicator
+				.setFrameParser(new FrameParser<String>() {
+					public String parse(byte[] frame, int offset, int length) {
+						final String line = new String(frame, offset,
+								length - 1);
+						if (line.equals("error")) {
+							throw new AssertionError(line);
+						}
+						return line;
+					}
+				});
+		receive("a\nerror\nb\n");
+		assertEquals("a", await(pipeline));
+		// the slot of the failed frame doesn't block the next ones
+		assertEquals("b", await(pipeline));
+		assertEquals(1, pipeline.getParseErrors());
+	}
+
+	@Test
+	public void test_backpressure() throws Exception {
+		Config.setParserQueueSize(2);
+		Config.setParserBackpressureMillis(20);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ParsingPipeline<String> pipeline = communicator
+				.setFrameParser(new FrameParser<String>() {
+					public String parse(byte[] frame, int offset, int length)
+							throws Exception {
+						release.await();
+						return new String(frame, offset, length - 1);
+					}
+				});
+		final long start = System.nanoTime();
+		receive("1\n2\n3\n");
+		// waited for a slot before dropping the third frame
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(20));
+		assertEquals(1, pipeline.getDroppedFrames());
+		assertEquals(2, pipeline.pending());
+		release.countDown();
+		assertEquals("1", await(pipeline));
+		assertEquals("2", await(pipeline));
+		receive("4\n");
+		assertEquals("4", await(pipeline));
+	}
+
+	@Test
+	public void test_removed() throws Exception {
+		final ParsingPipeline<String> pipeline = communicator
+				.setFrameParser(new FrameParser<String>() {
+					public String parse(byte[] frame, int offset, int length) {
+						return new String(frame, offset, length);
+					}
+				});
+		assertNull(communicator.setFrameParser(null));
+		receive("a\n");
+		assertNull(pipeline.poll());
+		assertEquals("a\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_removedWithPartialFrame() throws Exception {
+		communicator.setFrameParser(new FrameParser<String>() {
+			public String parse(byte[] frame, int offset, int length) {
+				return new String(frame, offset, length);
+			}
+		});
+		receive("ab");
+		communicator.setFrameParser(null);
+		// the held bytes go first
+		receive("cd");
+		assertEquals(4, communicator.available());
+		receive("\n");
+		assertEquals("abcd\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_requiresFraming() {
+		communicator.bufferUntil(0);
+		communicator.setFrameParser(new FrameParser<String>() {
+			public String parse(byte[] frame, int offset, int length) {
+				return null;
+			}
+		});
+	}
+}
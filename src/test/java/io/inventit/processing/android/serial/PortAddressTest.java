@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class PortAddressTest {
+
+	@Test
+	public void test_parse() {
+		PortAddress address = PortAddress.parse("/dev/bus/usb/001/002#3");
+		assertEquals("/dev/bus/usb/001/002", address.getDeviceName());
+		assertEquals(3, address.getPortIndex());
+
+		address = PortAddress.parse("/dev/bus/usb/001/002");
+		assertEquals("/dev/bus/usb/001/002", address.getDeviceName());
+		assertEquals(0, address.getPortIndex());
+
+		address = PortAddress.parse(null);
+		assertNull(address.getDeviceName());
+		assertEquals(0, address.getPortIndex());
+
+		address = PortAddress.parse("#1");
+		assertNull(address.getDeviceName());
+		assertEquals(1, address.getPortIndex());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test_parse_invalidIndex() {
+		PortAddress.parse("/dev/bus/usb/001/002#a");
+	}
+
+	@Test
+	public void test_format() {
+		assertEquals("/dev/bus/usb/001/002",
+				PortAddress.format("/dev/bus/usb/001/002", 0));
+		assertEquals("/dev/bus/usb/001/002#2",
+				PortAddress.format("/dev/bus/usb/001/002", 2));
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Proves the receive path generates no garbage in the steady state.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ReceivePathAllocationTest {
+
+	private static final int ITERATIONS = 100000;
+
+	/**
+	 * Allows a few bytes for the measurement itself.
+	 */
+	private static final long TOLERANCE = 1024;
+
+	private final byte[] chunk = new byte[64];
+
+	private final byte[] out = new byte[256];
+
+	private InMemorySerialCommunicator communicator;
+
+	private com.sun.management.ThreadMXBean threadMXBean;
+
+	@Before
+	public void setUp() {
+		communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) i;
+		}
+		threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+	}
+
+	private void receive(int iterations) {
+		for (int i = 0; i < iterations; i++) {
+			communicator.sendBuffer(chunk, i % 8, chunk.length - 8);
+			while (communicator.readBytes(out) > 0) {
+			}
+		}
+	}
+
+	private long measure() {
+		// warm up
+		receive(ITERATIONS);
+		final long threadId = Thread.currentThread().getId();
+		final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		receive(ITERATIONS);
+		return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	@Test
+	public void test_plain_noAllocation() {
+		final long allocated = measure();
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+		assertEquals(2 * ITERATIONS, communicator.serialEvents);
+	}
+
+	@Test
+	public void test_buffer_noAllocation() {
+		communicator.buffer(100);
+		final long allocated = measure();
+		assertTrue("allocated " + allocated + " bytes", allocated < TOLERANCE);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class ReconnectControllerTest {
+
+	private long initialDelay;
+
+	private long maxDelay;
+
+	@Before
+	public void setUp() {
+		initialDelay = Config.getReconnectInitialDelay();
+		maxDelay = Config.getWaitOnException();
+	}
+
+	@After
+	public void tearDown() {
+		Config.setReconnectInitialDelay(initialDelay);
+		Config.setWaitOnException(maxDelay);
+	}
+
+	@Test
+	public void test_nextDelay() {
+		assertEquals(100, ReconnectController.nextDelay(0, 100, 5000, 0, 0));
+		assertEquals(400, ReconnectController.nextDelay(2, 100, 5000, 0, 0));
+		assertEquals(5000, ReconnectController.nextDelay(10, 100, 5000, 0, 0));
+		assertEquals(5000, ReconnectController.nextDelay(100, 100, 5000, 0, 0));
+		assertEquals(80, ReconnectController.nextDelay(0, 100, 5000, 0.2f, 0));
+		assertEquals(120, ReconnectController.nextDelay(0, 100, 5000, 0.2f, 1));
+	}
+
+	@Test
+	public void test_reconnect_withBackoff() throws Exception {
+		Config.setReconnectInitialDelay(1);
+		final AtomicInteger disconnects = new AtomicInteger();
+		final AtomicInteger reconnects = new AtomicInteger();
+		final ReconnectController.Target target = new ReconnectController.Target() {
+			public void disconnect() {
+				disconnects.incrementAndGet();
+			}
+
+			public boolean reconnect() {
+				return reconnects.incrementAndGet() == 3;
+			}
+		};
+		final InMemorySerialCommunicator serial = new InMemorySerialCommunicator();
+		final ReconnectController controller = new ReconnectController(
+				target, serial, new SerialIoScheduler());
+		final CountDownLatch reconnected = new CountDownLatch(1);
+		final int[] attempts = new int[1];
+		final IOException cause = new IOException("lost");
+		final Exception[] notified = new Exception[1];
+		controller.addListener(new ReconnectListener() {
+			public void onDisconnected(Serial s, Exception e) {
+				notified[0] = e;
+			}
+
+			public void onReconnected(Serial s, int n) {
+				attempts[0] = n;
+				reconnected.countDown();
+			}
+		});
+
+		controller.disconnected(cause);
+		// ignored while reconnecting
+		controller.disconnected(cause);
+		assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+		assertEquals(1, disconnects.get());
+		assertEquals(3, attempts[0]);
+		assertSame(cause, notified[0]);
+		assertEquals(ReconnectController.State.CONNECTED, controller.getState());
+	}
+
+	@Test
+	public void test_retryNow() throws Exception {
+		Config.setReconnectInitialDelay(60000);
+		final CountDownLatch reconnected = new CountDownLatch(1);
+		final ReconnectController controller = new ReconnectController(
+				new ReconnectController.Target() {
+					public void disconnect() {
+					}
+
+					public boolean reconnect() {
+						reconnected.countDown();
+						return true;
+					}
+				}, new InMemorySerialCommunicator(), new SerialIoScheduler());
+		controller.disconnected(new IOException());
+		controller.retryNow();
+		assertTrue(reconnected.await(5, TimeUnit.SECONDS));
+		controller.stop();
+		assertEquals(ReconnectController.State.STOPPED, controller.getState());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class ReplaySerialCommunicatorTest {
+
+	private File directory;
+
+	private ReplaySerialCommunicator communicator;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = File.createTempFile("replay", "");
+		directory.delete();
+		directory.mkdirs();
+		final CaptureWriter writer = new CaptureWriter(directory, "device",
+				1024, 0);
+		writer.append(CaptureReader.RECEIVED, "one\n".getBytes(), 0, 4);
+		writer.append(CaptureReader.WRITTEN, "ignored".getBytes(), 0, 7);
+		Thread.sleep(200);
+		writer.append(CaptureReader.RECEIVED, "two\n".getBytes(), 0, 4);
+		writer.close();
+		communicator = (ReplaySerialCommunicator) SerialCommunicatorFacory
+				.getInstance().create(null, "replay");
+	}
+
+	@After
+	public void tearDown() {
+		communicator.stop();
+		Config.setReplaySpeed(1.0f);
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private void awaitFinished() throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (communicator.isReplaying()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertFalse(communicator.isReplaying());
+	}
+
+	@Test
+	public void test_replay_asFastAsPossible() throws InterruptedException {
+		Config.setReplaySpeed(0);
+		final long started = System.currentTimeMillis();
+		communicator.start(new File(directory, "device").getPath());
+		awaitFinished();
+		assertTrue(System.currentTimeMillis() - started < 150);
+		assertEquals("one\n", communicator.readStringUntil('\n'));
+		assertEquals("two\n", communicator.readStringUntil('\n'));
+		assertEquals(0, communicator.available());
+	}
+
+	@Test
+	public void test_replay_originalTiming() throws InterruptedException {
+		final long started = System.currentTimeMillis();
+		communicator.start(new File(directory, "device").getPath());
+		awaitFinished();
+		assertTrue(System.currentTimeMillis() - started >= 190);
+		assertArrayEquals("one\ntwo\n".getBytes(), communicator.readBytes());
+	}
+
+	@Test
+	public void test_replay_nextCapture() throws Exception {
+		Thread.sleep(500);
+		final CaptureWriter writer = new CaptureWriter(directory, "device",
+				1024, 0);
+		writer.append(CaptureReader.RECEIVED, "three\n".getBytes(), 0, 6);
+		writer.close();
+		final long started = System.currentTimeMillis();
+		communicator.start(new File(directory, "device").getPath());
+		awaitFinished();
+		// the time between the captures is skipped
+		final long elapsed = System.currentTimeMillis() - started;
+		assertTrue(elapsed >= 190 && elapsed < 450);
+		assertArrayEquals("one\ntwo\nthree\n".getBytes(),
+				communicator.readBytes());
+	}
+
+	@Test
+	public void test_list() {
+		assertArrayEquals(new String[] { new File(directory, "device")
+				.getPath() }, ReplaySerialCommunicator.list(directory
+				.getPath()));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import io.inventit.processing.android.serial.RingBuffer.OverflowPolicy;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class RingBufferTest {
+
+	private static byte[] bytes(int from, int count) {
+		final byte[] bytes = new byte[count];
+		for (int i = 0; i < count; i++) {
+			bytes[i] = (byte) (from + i);
+		}
+		return bytes;
+	}
+
+	@Test
+	public void test_capacity_roundedUp() {
+		assertEquals(16, new RingBuffer(10, OverflowPolicy.BLOCK).capacity());
+		assertEquals(16, new RingBuffer(16, OverflowPolicy.BLOCK).capacity());
+	}
+
+	@Test
+	public void test_readWrite_wrapAround() {
+		final RingBuffer ring = new RingBuffer(8, OverflowPolicy.DROP_NEWEST);
+		final byte[] out = new byte[8];
+		for (int i = 0; i < 10; i++) {
+			assertEquals(5, ring.write(bytes(i, 5), 0, 5));
+			assertEquals(5, ring.available());
+			assertEquals(5, ring.read(out, 0, 8));
+			for (int j = 0; j < 5; j++) {
+				assertEquals((byte) (i + j), out[j]);
+			}
+		}
+		assertEquals(-1, ring.read());
+		assertEquals(0, ring.read(out, 0, 8));
+	}
+
+	@Test
+	public void test_readByteBuffer_wrapAround() {
+		final RingBuffer ring = new RingBuffer(8, OverflowPolicy.DROP_NEWEST);
+		final ByteBuffer out = ByteBuffer.allocateDirect(8);
+		for (int i = 0; i < 10; i++) {
+			ring.write(bytes(i, 5), 0, 5);
+			out.clear();
+			out.put((byte) -1);
+			assertEquals(5, ring.read(out));
+			assertEquals(6, out.position());
+			for (int j = 0; j < 5; j++) {
+				assertEquals((byte) (i + j), out.get(1 + j));
+			}
+		}
+		out.clear();
+		assertEquals(0, ring.read(out));
+		assertEquals(0, out.position());
+	}
+
+	@Test
+	public void test_dropNewest() {
+		final RingBuffer ring = new RingBuffer(8, OverflowPolicy.DROP_NEWEST);
+		assertEquals(8, ring.write(bytes(0, 10), 0, 10));
+		assertEquals(2, ring.getDroppedBytes());
+		final byte[] out = new byte[8];
+		assertEquals(8, ring.read(out, 0, 8));
+		assertArrayEquals(bytes(0, 8), out);
+	}
+
+	@Test
+	public void test_dropOldest() {
+		final RingBuffer ring = new RingBuffer(8, OverflowPolicy.DROP_OLDEST);
+		ring.write(bytes(0, 6), 0, 6);
+		ring.write(bytes(6, 6), 0, 6);
+		assertEquals(4, ring.getDroppedBytes());
+		assertEquals(8, ring.available());
+		final byte[] out = new byte[8];
+		assertEquals(8, ring.read(out, 0, 8));
+		assertArrayEquals(bytes(4, 8), out);
+
+		ring.write(bytes(0, 20), 0, 20);
+		assertEquals(8, ring.read(out, 0, 8));
+		assertArrayEquals(bytes(12, 8), out);
+	}
+
+	@Test
+	public void test_block_releasedByConsumer() throws Exception {
+		final RingBuffer ring = new RingBuffer(16, OverflowPolicy.BLOCK);
+		final int total = 100000;
+		final Thread producer = new Thread() {
+			public void run() {
+				final byte[] chunk = new byte[7];
+				for (int i = 0; i < total; i += chunk.length) {
+					final int n = Math.min(chunk.length, total - i);
+					for (int j = 0; j < n; j++) {
+						chunk[j] = (byte) (i + j);
+					}
+					ring.write(chunk, 0, n);
+				}
+			}
+		};
+		producer.start();
+		final byte[] out = new byte[5];
+		int received = 0;
+		while (received < total) {
+			final int n = ring.read(out, 0, out.length);
+			for (int j = 0; j < n; j++) {
+				assertEquals((byte) (received + j), out[j]);
+			}
+			received += n;
+		}
+		producer.join();
+		assertEquals(0, ring.getDroppedBytes());
+	}
+
+	@Test
+	public void test_indexOf_clear() {
+		final RingBuffer ring = new RingBuffer(8, OverflowPolicy.BLOCK);
+		ring.write("ab\ncd".getBytes(), 0, 5);
+		assertEquals(3, ring.indexOf('\n'));
+		assertEquals(-1, ring.indexOf('x'));
+		ring.clear();
+		assertEquals(0, ring.available());
+		assertEquals(-1, ring.indexOf('\n'));
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class SerialEventDispatchTest {
+
+	public static class Sketch {
+		Serial last;
+		int events = 0;
+
+		public void serialEvent(Serial serial) {
+			last = serial;
+			events++;
+		}
+	}
+
+	static class CountingListener implements SerialEventListener {
+		int events = 0;
+
+		public void serialEvent(Serial serial) {
+			events++;
+		}
+	}
+
+	@Test
+	public void test_listener() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+		final CountingListener listener = new CountingListener();
+		communicator.setSerialEventListener(listener);
+		final byte[] data = "a\nb\nc".getBytes();
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(2, listener.events);
+		communicator.setSerialEventListener(null);
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(2, listener.events);
+	}
+
+	@Test
+	public void test_reflectiveFallback() {
+		final Sketch sketch = new Sketch();
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		final SerialEventListener listener = ReflectiveEventListener.create(
+				sketch, "serialEvent");
+		listener.serialEvent(communicator);
+		listener.serialEvent(communicator);
+		assertEquals(2, sketch.events);
+		assertSame(communicator, sketch.last);
+		assertNull(ReflectiveEventListener.create(sketch, "frameEvent"));
+	}
+
+	@Test
+	public void test_sketchThread_coalesced() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+		final int[] counts = new int[2];
+		communicator.setSerialEventListener(new SerialEventListener() {
+			public void serialEvent(Serial serial) {
+				counts[0]++;
+				counts[1] = serial.eventCount();
+			}
+		});
+		communicator.setEventDispatchMode(EventDispatchMode.SKETCH_THREAD);
+		final byte[] data = "a\nb\nc\n".getBytes();
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(0, counts[0]);
+
+		communicator.getEventDispatcher().pre();
+		assertEquals(1, counts[0]);
+		assertEquals(3, counts[1]);
+		communicator.getEventDispatcher().pre();
+		assertEquals(1, counts[0]);
+
+		communicator.sendBuffer(data, 0, 2);
+		communicator.setEventDispatchMode(EventDispatchMode.IO_THREAD);
+		assertEquals(2, counts[0]);
+		assertEquals(1, counts[1]);
+	}
+
+	@Test
+	public void test_batching() throws InterruptedException {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		final int[] counts = new int[2];
+		communicator.setSerialEventListener(new SerialEventListener() {
+			public void serialEvent(Serial serial) {
+				synchronized (counts) {
+					counts[0]++;
+					counts[1] = serial.eventCount();
+				}
+			}
+		});
+		communicator.setEventBatching(50, 8);
+		final byte[] data = "abc".getBytes();
+
+		// the first chunk after an idle line fires at once
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(1, counts[0]);
+
+		// merged up to the max bytes
+		communicator.sendBuffer(data, 0, data.length);
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(1, counts[0]);
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(2, counts[0]);
+		assertEquals(3, counts[1]);
+
+		// or up to the max delay
+		communicator.sendBuffer(data, 0, data.length);
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (counts) {
+				if (counts[0] == 3) {
+					break;
+				}
+			}
+			Thread.sleep(1);
+		}
+		synchronized (counts) {
+			assertEquals(3, counts[0]);
+			assertEquals(1, counts[1]);
+		}
+		assertEquals(15, communicator.available());
+
+		// fired when disabled
+		communicator.sendBuffer(data, 0, data.length);
+		communicator.setEventBatching(0, 0);
+		assertEquals(4, counts[0]);
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(5, counts[0]);
+		communicator.stop();
+	}
+
+	@Test
+	public void test_batching_invalid() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		try {
+			communicator.setEventBatching(2, 0);
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+		// the rejected settings are not kept for the next start
+		communicator.start("memory");
+		final byte[] data = "abc".getBytes();
+		communicator.sendBuffer(data, 0, data.length);
+		assertEquals(1, communicator.serialEvents);
+		communicator.stop();
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import android.hardware.usb.UsbDeviceConnection;
+
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ * Runs the polling read loop and the asynchronous read engine on a fake
+ * endpoint. The latencies are measured by IoLatencyBenchmark.
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class SerialInputOutputManagerTest {
+
+	/**
+	 * The bulk-in endpoint of the fake device.
+	 */
+	static class FakeEndpoint {
+
+		final BlockingQueue<byte[]> packets = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		final BlockingQueue<byte[]> written = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		byte[] poll(long timeoutMillis) throws IOException {
+			try {
+				return packets.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * {@link AsyncReadEngine.Transport} on the fake endpoint.
+	 */
+	static class FakeTransport implements AsyncReadEngine.Transport {
+
+		final FakeEndpoint endpoint;
+
+		final LinkedList<Integer> slots = new LinkedList<Integer>();
+
+		final ByteBuffer[] buffers = new ByteBuffer[16];
+
+		FakeTransport(FakeEndpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public void queue(int slot, ByteBuffer buffer) {
+			buffers[slot] = buffer;
+			slots.add(Integer.valueOf(slot));
+		}
+
+		public int await(long timeoutMillis) throws IOException {
+			final byte[] packet = endpoint.poll(timeoutMillis);
+			if (packet == null) {
+				return -1;
+			}
+			final int slot = slots.removeFirst().intValue();
+			buffers[slot].put(packet);
+			return slot;
+		}
+
+		public void close() {
+			slots.clear();
+		}
+	}
+
+	/**
+	 * {@link UsbSerialPort} on the fake endpoint.
+	 */
+	static class FakeUsbSerialPort implements UsbSerialPort {
+
+		final FakeEndpoint endpoint;
+
+		FakeUsbSerialPort(FakeEndpoint endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public int read(byte[] dest, int timeoutMillis) throws IOException {
+			final byte[] packet = endpoint.poll(timeoutMillis);
+			if (packet == null) {
+				return 0;
+			}
+			System.arraycopy(packet, 0, dest, 0, packet.length);
+			return packet.length;
+		}
+
+		public int write(byte[] src, int timeoutMillis) {
+			endpoint.written.add(src);
+			return src.length;
+		}
+
+		public UsbSerialDriver getDriver() {
+			return null;
+		}
+
+		public int getPortNumber() {
+			return 0;
+		}
+
+		public String getSerial() {
+			return null;
+		}
+
+		public void open(UsbDeviceConnection connection) {
+		}
+
+		public void close() {
+		}
+
+		public void setParameters(int baudRate, int dataBits, int stopBits,
+				int parity) {
+		}
+
+		public boolean getCD() {
+			return false;
+		}
+
+		public boolean getCTS() {
+			return false;
+		}
+
+		public boolean getDSR() {
+			return false;
+		}
+
+		public boolean getDTR() {
+			return false;
+		}
+
+		public void setDTR(boolean value) {
+		}
+
+		public boolean getRI() {
+			return false;
+		}
+
+		public boolean getRTS() {
+			return false;
+		}
+
+		public void setRTS(boolean value) {
+		}
+
+		public boolean purgeHwBuffers(boolean flushRX, boolean flushTX) {
+			return false;
+		}
+	}
+
+	/**
+	 * Records the received data.
+	 */
+	static class RecordingListener implements SerialInputOutputManager.Listener {
+
+		final BlockingQueue<byte[]> received = new ArrayBlockingQueue<byte[]>(
+				1024);
+
+		public void onNewData(byte[] data, int offset, int length) {
+			final byte[] copy = new byte[length];
+			System.arraycopy(data, offset, copy, 0, length);
+			received.add(copy);
+		}
+
+		public boolean onRunError(Exception e) {
+			return true;
+		}
+	}
+
+	private SerialInputOutputManager manager;
+
+	@After
+	public void tearDown() {
+		if (manager != null) {
+			manager.stop();
+		}
+	}
+
+	/**
+	 * Reads and writes a byte at a time on the idle line.
+	 */
+	private void readAndWrite(boolean async) throws Exception {
+		final FakeEndpoint endpoint = new FakeEndpoint();
+		final RecordingListener listener = new RecordingListener();
+		manager = new SerialInputOutputManager(new FakeUsbSerialPort(endpoint),
+				async ? new FakeTransport(endpoint) : null, listener);
+		final Thread thread = new Thread(manager);
+		thread.start();
+		final Thread writer = new Thread(manager.getWriter());
+		writer.start();
+		for (int i = 0; i < 3; i++) {
+			endpoint.packets.add(new byte[] { (byte) i });
+			assertArrayEquals(new byte[] { (byte) i },
+					listener.received.poll(5, TimeUnit.SECONDS));
+
+			// written while the read loop is waiting for the data
+			manager.writeAsync(new byte[] { (byte) i });
+			manager.flush();
+			assertArrayEquals(new byte[] { (byte) i }, endpoint.written.poll());
+		}
+		manager.stop();
+		thread.join();
+		writer.join();
+		manager = null;
+	}
+
+	@Test
+	public void test_polling() throws Exception {
+		readAndWrite(false);
+	}
+
+	@Test
+	public void test_async() throws Exception {
+		readAndWrite(true);
+	}
+
+	@Test
+	public void test_readTimeouts() throws Exception {
+		for (boolean async : new boolean[] { false, true }) {
+			final FakeEndpoint endpoint = new FakeEndpoint();
+			final SerialMetrics metrics = new SerialMetrics();
+			manager = new SerialInputOutputManager(new FakeUsbSerialPort(
+					endpoint), async ? new FakeTransport(endpoint) : null,
+					new RecordingListener());
+			manager.setMetrics(metrics);
+			manager.begin();
+			assertTrue(manager.poll(1));
+			endpoint.packets.add(new byte[] { 1 });
+			assertTrue(manager.poll(1000));
+			assertTrue(manager.poll(1));
+			assertEquals(2, metrics.snapshot(0, 0, 0, 0, 0).getReadTimeouts());
+			manager.stop();
+		}
+	}
+}
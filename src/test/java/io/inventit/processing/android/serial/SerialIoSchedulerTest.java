@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class SerialIoSchedulerTest {
+
+	@Test
+	public void test_getWorkers() {
+		assertEquals(2, SerialIoScheduler.getWorkers(1));
+		assertEquals(3, SerialIoScheduler.getWorkers(3));
+		assertTrue(SerialIoScheduler.getWorkers(0) >= 2);
+	}
+
+	@Test
+	public void test_lifecycle() throws Exception {
+		final SerialIoScheduler scheduler = new SerialIoScheduler();
+		assertFalse(scheduler.execute(new Runnable() {
+			public void run() {
+			}
+		}));
+		scheduler.register();
+		scheduler.register();
+		assertTrue(scheduler.getWorkers() >= 2);
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		assertTrue(scheduler.execute(new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}));
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+		scheduler.unregister();
+		assertEquals(1, scheduler.getLoops());
+		assertTrue(scheduler.getWorkers() >= 2);
+		scheduler.unregister();
+		assertEquals(0, scheduler.getWorkers());
+		assertFalse(scheduler.execute(new Runnable() {
+			public void run() {
+			}
+		}));
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class SerialMetricsTest {
+
+	@After
+	public void tearDown() {
+		Config.setMetricsEnabled(false);
+		Config.setWriteBufferSize(64 * 1024);
+		Config.setWriteBufferOverflowPolicy(WriteQueue.OverflowPolicy.BLOCK);
+	}
+
+	@Test
+	public void test_histogramBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			final int index = Histogram.indexOf(value);
+			assertTrue(value <= Histogram.highestValueOf(index));
+			if (index > 0) {
+				assertTrue(value > Histogram.highestValueOf(index - 1));
+			}
+		}
+		assertEquals(Long.MAX_VALUE,
+				Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void test_percentiles() {
+		final Histogram histogram = new Histogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		final SerialMetrics.Distribution distribution = histogram.snapshot();
+		assertEquals(1000, distribution.getCount());
+		assertEquals(500.5, distribution.getMean(), 0.001);
+		assertEquals(1000, distribution.getMax());
+		final long p50 = distribution.getPercentile(50);
+		assertTrue(p50 >= 500 && p50 < 500 * 17 / 16 + 1);
+		final long p99 = distribution.getPercentile(99);
+		assertTrue(p99 >= 990 && p99 <= 1000);
+	}
+
+	@Test
+	public void test_disabled() {
+		assertNull(new InMemorySerialCommunicator().metrics());
+	}
+
+	@Test
+	public void test_counters() {
+		Config.setMetricsEnabled(true);
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+		communicator.sendBuffer("a\nbc\nd".getBytes());
+		communicator.sendBuffer("ef".getBytes());
+		final SerialMetrics.Snapshot snapshot = communicator.metrics();
+		assertEquals(8, snapshot.getBytesReceived());
+		assertEquals(2, snapshot.getFramesReceived());
+		assertEquals(2, snapshot.getReadSizes().getCount());
+		assertEquals(6, snapshot.getReadSizes().getMax());
+		assertEquals(8, snapshot.getBufferedBytes());
+		assertEquals(8, snapshot.toJSONObject().getLong("bytesReceived"));
+	}
+
+	@Test
+	public void test_droppedWrites() {
+		Config.setMetricsEnabled(true);
+		Config.setWriteBufferSize(16);
+		Config.setWriteBufferOverflowPolicy(WriteQueue.OverflowPolicy.DROP);
+		final SerialCommunicator communicator = SerialCommunicatorFacory
+				.getInstance().create(null, "loopback");
+		communicator.start("metrics-test", 300);
+		// each write takes about half a second
+		LoopbackDevice.get("metrics-test").setPaced(true);
+		try {
+			for (int i = 0; i < 3; i++) {
+				communicator.write(new byte[16]);
+			}
+			final SerialMetrics.Snapshot snapshot = communicator.metrics();
+			assertTrue(snapshot.getDroppedWriteBytes() >= 16);
+			assertEquals(48 - snapshot.getDroppedWriteBytes(),
+					snapshot.getBytesWritten());
+		} finally {
+			communicator.stop();
+			LoopbackDevice.remove("metrics-test");
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class StringCodecTest {
+
+	private static byte[] utf8(String s) throws Exception {
+		return s.getBytes("UTF-8");
+	}
+
+	@Test
+	public void test_decode_latin1() throws Exception {
+		final RingBuffer ring = new RingBuffer(8,
+				RingBuffer.OverflowPolicy.DROP_OLDEST);
+		final StringCodec codec = StringCodec.forName("ISO-8859-1");
+		ring.write(new byte[] { 'x', 'x', 'x', 'x', 'x', 'x' }, 0, 6);
+		ring.skip(6);
+		// wraps around
+		ring.write(new byte[] { 'a', (byte) 0xe9, 'b', '\n' }, 0, 4);
+		assertEquals("a\u00e9b\n", codec.decode(ring, 4).toString());
+		assertEquals(0, ring.available());
+	}
+
+	@Test
+	public void test_decode_ascii_replaces() {
+		final RingBuffer ring = new RingBuffer(8,
+				RingBuffer.OverflowPolicy.DROP_OLDEST);
+		final StringCodec codec = StringCodec.forName("US-ASCII");
+		ring.write(new byte[] { 'a', (byte) 0x80 }, 0, 2);
+		assertEquals("a\uFFFD", codec.decodeAvailable(ring).toString());
+	}
+
+	@Test
+	public void test_decodeAvailable_keepsIncompleteCharacter()
+			throws Exception {
+		final RingBuffer ring = new RingBuffer(16,
+				RingBuffer.OverflowPolicy.DROP_OLDEST);
+		final StringCodec codec = StringCodec.forName("UTF-8");
+		final byte[] bytes = utf8("a\u3042");
+		ring.write(bytes, 0, bytes.length - 1);
+		assertEquals("a", codec.decodeAvailable(ring).toString());
+		assertEquals(2, ring.available());
+		ring.write(bytes, bytes.length - 1, 1);
+		assertEquals("\u3042", codec.decodeAvailable(ring).toString());
+		assertEquals(0, ring.available());
+	}
+
+	@Test
+	public void test_encode() throws Exception {
+		final StringCodec utf8 = StringCodec.forName("UTF-8");
+		final StringBuilder longer = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			longer.append('\u3042');
+		}
+		final ByteBuffer encoded = utf8.encode(longer);
+		final byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		assertArrayEquals(utf8(longer.toString()), bytes);
+
+		final ByteBuffer ascii = StringCodec.forName("US-ASCII").encode(
+				"a\u00e9");
+		assertEquals(2, ascii.remaining());
+		assertEquals('a', ascii.get());
+		assertEquals('?', ascii.get());
+	}
+
+	@Test
+	public void test_readLine() {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.setCharset("US-ASCII");
+		final byte[] bytes = "one\r\ntwo\nthr".getBytes();
+		communicator.sendBuffer(bytes, 0, bytes.length);
+		assertEquals("one", communicator.readLine().toString());
+		assertEquals("two", communicator.readLine().toString());
+		assertNull(communicator.readLine());
+		assertEquals("thr", communicator.readString());
+		assertNull(communicator.readString());
+	}
+
+	@Test
+	public void test_charset() throws Exception {
+		final InMemorySerialCommunicator communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.setCharset("utf8");
+		assertEquals("UTF-8", communicator.getCharset());
+
+		communicator.write("\u00e9\u3042");
+		assertArrayEquals(utf8("\u00e9\u3042"),
+				communicator.written.toByteArray());
+
+		final byte[] bytes = utf8("\u3042;");
+		communicator.sendBuffer(bytes, 0, bytes.length);
+		assertEquals("\u3042;", communicator.readStringUntil(';'));
+	}
+}
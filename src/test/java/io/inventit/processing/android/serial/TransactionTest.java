@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class TransactionTest {
+
+	private InMemorySerialCommunicator communicator;
+
+	@Before
+	public void setUp() {
+		communicator = new InMemorySerialCommunicator();
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+	}
+
+	@After
+	public void tearDown() {
+		communicator.stop();
+		Config.setMaxInFlightRequests(8);
+	}
+
+	private void receive(String data) {
+		final byte[] bytes = data.getBytes();
+		communicator.sendBuffer(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Waits for the requests written on the scheduler.
+	 */
+	private void awaitWritten(String expected) throws Exception {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!expected.equals(communicator.written.toString())
+				&& System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(expected, communicator.written.toString());
+	}
+
+	@Test
+	public void test_pipelined() throws Exception {
+		final Transaction first = communicator.request("A\n".getBytes(), 0);
+		final Transaction second = communicator.request("B\n".getBytes(), 0);
+		// both in flight before any response
+		assertEquals("A\nB\n", communicator.written.toString());
+		receive("ra\nr");
+		assertTrue(first.isDone());
+		assertFalse(second.isDone());
+		receive("b\n");
+		assertArrayEquals("ra\n".getBytes(), first.get());
+		assertArrayEquals("rb\n".getBytes(), second.get(1, TimeUnit.SECONDS));
+		assertTrue(second.getRoundTripNanos() >= 0);
+		// the responses are not delivered to the sketch
+		assertEquals(0, communicator.available());
+		assertEquals(0, communicator.serialEvents);
+	}
+
+	@Test
+	public void test_sequenceId() throws Exception {
+		final Transaction one = communicator.request("1:get\n".getBytes(),
+				ResponseMatchers.sequenceId(0, '1'), 0, null);
+		final Transaction two = communicator.request("2:get\n".getBytes(),
+				ResponseMatchers.sequenceId(0, '2'), 0, null);
+		receive("event\n2:ok\n1:ok\n");
+		assertArrayEquals("1:ok\n".getBytes(), one.get());
+		assertArrayEquals("2:ok\n".getBytes(), two.get());
+		// the unmatched frame is delivered as usual
+		assertEquals("event\n", communicator.readStringUntil('\n'));
+	}
+
+	@Test
+	public void test_maxInFlight() throws Exception {
+		Config.setMaxInFlightRequests(1);
+		communicator.stop();
+		communicator.start("memory");
+		final AtomicInteger completed = new AtomicInteger();
+		final Transaction.Listener listener = new Transaction.Listener() {
+			public void onCompleted(Transaction transaction) {
+				completed.incrementAndGet();
+			}
+		};
+		final Transaction first = communicator.request("A\n".getBytes(),
+				ResponseMatchers.NEXT, 0, listener);
+		final Transaction second = communicator.request("B\n".getBytes(),
+				ResponseMatchers.NEXT, 0, listener);
+		assertEquals("A\n", communicator.written.toString());
+		receive("ra\n");
+		awaitWritten("A\nB\n");
+		receive("rb\n");
+		assertTrue(first.isDone() && second.isDone());
+		assertEquals(2, completed.get());
+	}
+
+	@Test
+	public void test_blockedWrite() throws Exception {
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		communicator.stop();
+		communicator = new InMemorySerialCommunicator() {
+			@Override
+			public void write(byte[] what) {
+				if (what[0] == 'B') {
+					// the write buffer is full
+					writing.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				super.write(what);
+			}
+		};
+		communicator.start("memory");
+		communicator.bufferUntil('\n');
+		final Transaction first = communicator.request("A\n".getBytes(), 0);
+		final AtomicReference<Transaction> second = new AtomicReference<Transaction>();
+		final Thread sketch = new Thread(new Runnable() {
+			public void run() {
+				second.set(communicator.request("B\n".getBytes(), 0));
+			}
+		});
+		sketch.start();
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		// the response is taken while the other request is being written
+		receive("ra\n");
+		assertArrayEquals("ra\n".getBytes(), first.get(1, TimeUnit.SECONDS));
+		release.countDown();
+		sketch.join();
+		receive("rb\n");
+		assertArrayEquals("rb\n".getBytes(), second.get().get(1,
+				TimeUnit.SECONDS));
+		assertEquals("A\nB\n", communicator.written.toString());
+	}
+
+	@Test
+	public void test_timeout() throws Exception {
+		Config.setMaxInFlightRequests(1);
+		communicator.stop();
+		communicator.start("memory");
+		final Transaction first = communicator.request("A\n".getBytes(), 50);
+		final Transaction second = communicator.request("B\n".getBytes(), 0);
+		try {
+			first.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof TimeoutException);
+		}
+		assertNull(first.getResponse());
+		// the next request is written after the timeout
+		awaitWritten("A\nB\n");
+		receive("rb\n");
+		assertArrayEquals("rb\n".getBytes(), second.get());
+	}
+
+	@Test
+	public void test_cancelAndStop() throws Exception {
+		final Transaction cancelled = communicator.request("A\n".getBytes(),
+				0);
+		final Transaction pending = communicator.request("B\n".getBytes(), 0);
+		assertTrue(cancelled.cancel(false));
+		assertTrue(cancelled.isCancelled());
+		assertFalse(cancelled.cancel(false));
+		communicator.stop();
+		try {
+			pending.get();
+			fail();
+		} catch (ExecutionException expected) {
+			assertTrue(expected.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void test_requiresFraming() {
+		communicator.bufferUntil(0);
+		communicator.request("A\n".getBytes(), 0);
+	}
+
+	@Test
+	public void test_loopback() throws Exception {
+		final SerialCommunicator loopback = SerialCommunicatorFacory
+				.getInstance().create(null, "loopback");
+		loopback.start("transaction-test", 115200);
+		try {
+			loopback.bufferUntil('\n');
+			final Transaction[] transactions = new Transaction[32];
+			for (int i = 0; i < transactions.length; i++) {
+				transactions[i] = loopback.request(("ping " + i + "\n")
+						.getBytes(), 5000);
+			}
+			for (int i = 0; i < transactions.length; i++) {
+				assertEquals("ping " + i + "\n",
+						new String(transactions[i].get()));
+			}
+		} finally {
+			loopback.stop();
+			LoopbackDevice.remove("transaction-test");
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import com.hoho.android.usbserial.driver.ProbeTable;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.driver.UsbSerialProber;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+@org.robolectric.annotation.Config(manifest = "src/test/resources/robolectric/AndroidManifest.xml")
+@RunWith(RobolectricTestRunner.class)
+public class UsbDeviceRegistryTest {
+
+	static class CountingProber extends UsbSerialProber {
+		final HashMap<UsbDevice, UsbSerialDriver> drivers = new HashMap<UsbDevice, UsbSerialDriver>();
+		int probes = 0;
+
+		CountingProber() {
+			super(new ProbeTable());
+		}
+
+		@Override
+		public UsbSerialDriver probeDevice(UsbDevice usbDevice) {
+			probes++;
+			return drivers.get(usbDevice);
+		}
+	}
+
+	private final UsbManager usbManager = mock(UsbManager.class);
+	private final HashMap<String, UsbDevice> devices = new HashMap<String, UsbDevice>();
+	private final CountingProber prober = new CountingProber();
+	private UsbDeviceRegistry registry;
+
+	private UsbDevice device(String name, int ports) {
+		final UsbDevice device = mock(UsbDevice.class);
+		when(device.getDeviceName()).thenReturn(name);
+		when(device.getVendorId()).thenReturn(0x1234);
+		when(device.getProductId()).thenReturn(0x5678);
+		if (ports > 0) {
+			final UsbSerialDriver driver = mock(UsbSerialDriver.class);
+			when(driver.getDevice()).thenReturn(device);
+			final UsbSerialPort[] serialPorts = new UsbSerialPort[ports];
+			for (int i = 0; i < ports; i++) {
+				serialPorts[i] = mock(UsbSerialPort.class);
+			}
+			when(driver.getPorts()).thenReturn(Arrays.asList(serialPorts));
+			prober.drivers.put(device, driver);
+		}
+		return device;
+	}
+
+	@Before
+	public void setUp() {
+		when(usbManager.getDeviceList()).thenReturn(devices);
+		registry = new UsbDeviceRegistry(mock(Context.class), usbManager,
+				prober);
+	}
+
+	@Test
+	public void test_probedOnce() {
+		final UsbDevice quad = device("/dev/bus/usb/001/002", 4);
+		devices.put(quad.getDeviceName(), quad);
+		final UsbDevice hub = device("/dev/bus/usb/001/001", 0);
+		devices.put(hub.getDeviceName(), hub);
+
+		assertEquals(4, registry.list().length);
+		assertEquals("/dev/bus/usb/001/002#3", registry.list()[3]);
+		assertSame(prober.drivers.get(quad), registry.find(null));
+		assertSame(prober.drivers.get(quad),
+				registry.find("/dev/bus/usb/001/002"));
+		assertNull(registry.find("/dev/bus/usb/001/001"));
+		assertEquals(2, prober.probes);
+	}
+
+	@Test
+	public void test_attachDetach() {
+		assertArrayEquals(new String[0], registry.list());
+		final UsbDevice device = device("/dev/bus/usb/001/003", 1);
+		devices.put(device.getDeviceName(), device);
+		registry.attached(device);
+		assertArrayEquals(new String[] { "/dev/bus/usb/001/003" },
+				registry.list());
+		assertEquals(1, prober.probes);
+
+		devices.remove(device.getDeviceName());
+		registry.detached(device);
+		assertNull(registry.find("/dev/bus/usb/001/003"));
+	}
+}
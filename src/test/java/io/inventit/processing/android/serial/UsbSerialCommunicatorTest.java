@@ -4,15 +4,25 @@
 package io.inventit.processing.android.serial;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.app.Activity;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -25,10 +35,15 @@ import android.hardware.usb.UsbManager;
 
 import com.hoho.android.usbserial.driver.UsbId;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 
@@ -70,4 +85,128 @@ public class UsbSerialCommunicatorTest {
 		assertNotNull(portNames);
 	}
 
+	@Test
+	public void test_reopen() throws Exception {
+		io.inventit.processing.android.serial.Config.setAsyncReadEnabled(false);
+		final String deviceName = "/dev/bus/usb/001/002";
+		when(usbDevice.getDeviceName()).thenReturn(deviceName);
+		when(usbManager.openDevice(usbDevice)).thenReturn(usbDeviceConnection);
+		final UsbSerialDriver driver = mock(UsbSerialDriver.class);
+		final UsbSerialPort port = mock(UsbSerialPort.class);
+		when(driver.getDevice()).thenReturn(usbDevice);
+		when(driver.getPorts()).thenReturn(Collections.singletonList(port));
+		// the same driver is returned by the registry, which fails to open
+		// twice like the real ones
+		final boolean[] open = new boolean[1];
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				if (open[0]) {
+					throw new IOException("Already open");
+				}
+				open[0] = true;
+				return null;
+			}
+		}).when(port).open(usbDeviceConnection);
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				open[0] = false;
+				return null;
+			}
+		}).when(port).close();
+		final UsbSerialCommunicator reopened = new UsbSerialCommunicator(
+				pApplet) {
+			@Override
+			protected UsbSerialDriver findUsbSerialDriver(String name) {
+				return driver;
+			}
+		};
+		try {
+			assertTrue(reopened.inquireUsbSerialDriver(deviceName,
+					reopened.getLineConfig()));
+			reopened.doStop();
+			assertTrue(reopened.inquireUsbSerialDriver(deviceName,
+					reopened.getLineConfig()));
+			reopened.doStop();
+			verify(port, times(2)).close();
+		} finally {
+			io.inventit.processing.android.serial.Config
+					.setAsyncReadEnabled(true);
+		}
+	}
+
+	@Test
+	public void test_stopSiblingPort() throws Exception {
+		io.inventit.processing.android.serial.Config.setAsyncReadEnabled(false);
+		final String deviceName = "/dev/bus/usb/001/003";
+		when(usbDevice.getDeviceName()).thenReturn(deviceName);
+		when(usbManager.openDevice(usbDevice)).thenReturn(usbDeviceConnection);
+		final UsbSerialDriver driver = mock(UsbSerialDriver.class);
+		final UsbSerialPort first = mock(UsbSerialPort.class);
+		final UsbSerialPort second = mock(UsbSerialPort.class);
+		when(driver.getDevice()).thenReturn(usbDevice);
+		when(driver.getPorts()).thenReturn(Arrays.asList(first, second));
+		// closing any port closes the shared connection like the real drivers
+		final AtomicBoolean closed = new AtomicBoolean();
+		final Answer<Void> close = new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				closed.set(true);
+				return null;
+			}
+		};
+		doAnswer(close).when(first).close();
+		doAnswer(close).when(second).close();
+		final AtomicBoolean pending = new AtomicBoolean();
+		doAnswer(new Answer<Integer>() {
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				if (closed.get()) {
+					throw new IOException("Connection closed");
+				}
+				if (pending.getAndSet(false)) {
+					((byte[]) invocation.getArguments()[0])[0] = 'a';
+					return Integer.valueOf(1);
+				}
+				Thread.sleep(1);
+				return Integer.valueOf(0);
+			}
+		}).when(second).read(any(byte[].class), anyInt());
+		final UsbSerialCommunicator channel0 = new UsbSerialCommunicator(
+				pApplet) {
+			@Override
+			protected UsbSerialDriver findUsbSerialDriver(String name) {
+				return driver;
+			}
+		};
+		final UsbSerialCommunicator channel1 = new UsbSerialCommunicator(
+				pApplet) {
+			@Override
+			protected UsbSerialDriver findUsbSerialDriver(String name) {
+				return driver;
+			}
+		};
+		try {
+			assertTrue(channel0.inquireUsbSerialDriver(deviceName,
+					channel0.getLineConfig()));
+			assertTrue(channel1.inquireUsbSerialDriver(deviceName + "#1",
+					channel1.getLineConfig()));
+			channel0.doStop();
+			verify(first, never()).close();
+			assertFalse(closed.get());
+			// the other channel keeps reading
+			pending.set(true);
+			final long deadline = System.nanoTime()
+					+ TimeUnit.SECONDS.toNanos(5);
+			while (channel1.available() == 0) {
+				assertTrue(System.nanoTime() < deadline);
+				Thread.sleep(1);
+			}
+			assertEquals('a', channel1.read());
+			channel1.doStop();
+			verify(first).close();
+			verify(second).close();
+		} finally {
+			io.inventit.processing.android.serial.Config
+					.setAsyncReadEnabled(true);
+		}
+	}
+
 }
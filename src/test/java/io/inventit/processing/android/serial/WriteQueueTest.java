@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 InventIt Inc.
+ */
+package io.inventit.processing.android.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import io.inventit.processing.android.serial.WriteQueue.OverflowPolicy;
+
+/**
+ *
+ * @author dbaba@yourinventit.com
+ *
+ */
+public class WriteQueueTest {
+
+	@Test
+	public void test_take_acrossChunks() {
+		final WriteQueue queue = new WriteQueue(64, OverflowPolicy.FAIL, 8);
+		final byte[] data = new byte[20];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		assertEquals(20, queue.offer(data, 0, 20));
+		assertEquals(20, queue.getPendingBytes());
+		final byte[] out = new byte[12];
+		assertEquals(12, queue.take(out));
+		assertEquals(11, out[11]);
+		assertEquals(8, queue.take(out));
+		assertEquals(19, out[7]);
+		assertEquals(0, queue.getPendingBytes());
+	}
+
+	@Test
+	public void test_offerByteBuffer() {
+		final WriteQueue queue = new WriteQueue(16, OverflowPolicy.BLOCK, 8);
+		final ByteBuffer data = ByteBuffer.allocateDirect(12);
+		for (int i = 0; i < 12; i++) {
+			data.put((byte) i);
+		}
+		data.flip();
+		data.get();
+		assertEquals(11, queue.offer(data));
+		assertEquals(0, data.remaining());
+		final byte[] out = new byte[16];
+		assertEquals(11, queue.take(out));
+		assertEquals(1, out[0]);
+		assertEquals(11, out[10]);
+	}
+
+	@Test
+	public void test_offerByteBuffer_drop() {
+		final WriteQueue queue = new WriteQueue(16, OverflowPolicy.DROP, 8);
+		queue.offer(new byte[10], 0, 10);
+		final ByteBuffer data = ByteBuffer.wrap(new byte[10]);
+		assertEquals(0, queue.offer(data));
+		assertEquals(10, data.remaining());
+	}
+
+	@Test
+	public void test_failed() {
+		final WriteQueue queue = new WriteQueue(64, OverflowPolicy.BLOCK, 8);
+		queue.offer(new byte[20], 0, 20);
+		final byte[] out = new byte[12];
+		assertEquals(12, queue.take(out));
+		queue.failed(12, new IOException("Write failed"));
+		// neither the bytes taken nor the pending bytes are written
+		assertEquals(0, queue.getWrittenBytes());
+		assertEquals(20, queue.getDroppedBytes());
+		assertEquals(-1, queue.take(out));
+		try {
+			queue.flush();
+			fail();
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getCause() instanceof IOException);
+		}
+	}
+
+	@Test(expected = WriteBufferOverflowException.class)
+	public void test_fail() {
+		final WriteQueue queue = new WriteQueue(16, OverflowPolicy.FAIL, 8);
+		queue.offer(new byte[10], 0, 10);
+		queue.offer(new byte[10], 0, 10);
+	}
+
+	@Test
+	public void test_drop() {
+		final WriteQueue queue = new WriteQueue(16, OverflowPolicy.DROP, 8);
+		assertEquals(10, queue.offer(new byte[10], 0, 10));
+		assertEquals(0, queue.offer(new byte[10], 0, 10));
+		assertEquals(10, queue.getPendingBytes());
+		assertEquals(10, queue.getDroppedBytes());
+	}
+
+	@Test
+	public void test_block_largerThanHighWaterMark() throws Exception {
+		final WriteQueue queue = new WriteQueue(16, OverflowPolicy.BLOCK, 8);
+		final int total = 1000;
+		final long[] received = new long[1];
+		final Thread writer = new Thread() {
+			public void run() {
+				final byte[] buffer = new byte[5];
+				int len;
+				while ((len = queue.take(buffer)) >= 0) {
+					for (int i = 0; i < len; i++) {
+						assertEquals((byte) received[0]++, buffer[i]);
+					}
+					queue.written(len);
+				}
+			}
+		};
+		writer.start();
+		final byte[] data = new byte[total];
+		for (int i = 0; i < total; i++) {
+			data[i] = (byte) i;
+		}
+		assertEquals(total, queue.offer(data, 0, total));
+		queue.flush();
+		assertEquals(total, queue.getWrittenBytes());
+		queue.close();
+		writer.join();
+		assertEquals(total, received[0]);
+	}
+}